@@ -4,125 +4,252 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Clipboard;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.net.URI;
 import java.util.concurrent.CompletableFuture;
 import javax.swing.SwingWorker;
+import currency.BinaryConversionServer;
+import currency.ConversionEngine;
+import currency.ConversionHistory;
+import currency.ConversionJournal;
+import currency.ConversionServer;
+import currency.ConversionStatistics;
+import currency.ExpressionEvaluator;
+import currency.ExpressionException;
+import currency.HistoryCsvExporter;
+import currency.LatencyHistogram;
+import currency.Metrics;
+import currency.RateAggregator;
+import currency.RateChangeStream;
+import currency.RateFetcher;
+import currency.RateRefresher;
+import currency.RateHistoryStore;
+import currency.RateSnapshot;
+import currency.RateSnapshotStore;
+import currency.StaleRatesException;
 
 public class USDtoRMBConverter {
     
-    // Exchange rates (in a real app, these would come from an API)
-    private static final Map<String, Double> exchangeRates = new HashMap<>();
-    private static ArrayList<String> conversionHistory = new ArrayList<>();
+    private static final System.Logger LOG = System.getLogger(USDtoRMBConverter.class.getName());
+    
+    // Conversion, expression and failure metrics; see Metrics. Shown in the
+    // Metrics tab, over JMX and at /metrics in server mode. Conversion
+    // latency is sampled, the count is exact.
+    private static final Metrics.Counter conversions = Metrics.conversions("ui");
+    private static final Metrics.Counter conversionErrors = Metrics.counter("conversion.errors");
+    private static final LatencyHistogram conversionLatency = Metrics.histogram("conversion");
+    private static final LatencyHistogram expressionLatency = Metrics.histogram("expression.evaluate");
+    
+    // Exchange rates live in the headless conversion engine
+    private static final ConversionEngine engine = ConversionEngine.withDefaultRates();
+    // Structured ring buffer; size with -Dcurrency.history.capacity
+    private static final ConversionHistory conversionHistory =
+        new ConversionHistory(Integer.getInteger("currency.history.capacity", 100_000));
+    // Kept up to date on every conversion, so the statistics tab is O(K) to show
+    private static final ConversionStatistics conversionStats = new ConversionStatistics(engine.currencyCount(), 10);
     private static boolean isDarkMode = true;
     private static LocalDateTime lastUpdated = LocalDateTime.now();
     private static JLabel timestampLabel;
-    private static boolean isUpdatingRates = false;
     
     // Add favorite currency pairs feature
     private static final ArrayList<String> favoritePairs = new ArrayList<>();
     private static JComboBox<String> favoritesCombo;
     
-    // Free API endpoint for exchange rates (using exchangerate-api.com)
+    // Free API endpoint for exchange rates (using exchangerate-api.com). More
+    // providers answering in the same format can be listed, comma separated,
+    // in -Dcurrency.providers; they are queried in parallel, each limited to
+    // -Dcurrency.provider.timeout.seconds, and consolidated as set by
+    // -Dcurrency.providers.mode=FIRST_VALID|MEDIAN
     private static final String API_URL = "https://api.exchangerate-api.com/v4/latest/USD";
+    private static final RateAggregator rateSource = createRateSource();
+    
+    // Background refresh: period and staleness budget can be set with
+    // -Dcurrency.refresh.minutes, -Dcurrency.maxStaleness.hours and
+    // -Dcurrency.stalePolicy=FLAG|FAIL
+    private static final RateRefresher rateRefresher = new RateRefresher(engine, rateSource,
+        Duration.ofMinutes(Long.getLong("currency.refresh.minutes", 15)),
+        Duration.ofSeconds(5), Duration.ofMinutes(5));
+    
+    // Every published rate change, pushed to the rate label (and to any other
+    // listener) as it happens, whichever way the rates were updated
+    private static final RateChangeStream rateChanges = new RateChangeStream(engine);
+    
+    // Last good rates on disk, so a restart does not fall back to the built-in rates
+    private static final RateSnapshotStore rateCache = new RateSnapshotStore(RateSnapshotStore.defaultFile());
+    
+    // Every conversion is also appended to a journal on disk and the newest
+    // entries are replayed into the history at startup; location and fsync
+    // policy can be set with -Dcurrency.journalDir and
+    // -Dcurrency.journal.sync=NEVER|EVERY_BATCH|INTERVAL
+    private static ConversionJournal journal;
+    
+    // Every published rate set is also kept in a compressed time series on
+    // disk (-Dcurrency.historyDir), for as-of conversion and rate trends
+    private static RateHistoryStore rateHistory;
     
-    // Initialize exchange rates with currencies from all continents
     static {
-        // North America
-        exchangeRates.put("USD", 1.0);      // US Dollar (Base)
-        exchangeRates.put("CAD", 1.25);     // Canadian Dollar
-        exchangeRates.put("MXN", 20.0);     // Mexican Peso
-        
-        // Europe
-        exchangeRates.put("EUR", 0.85);     // Euro
-        exchangeRates.put("GBP", 0.73);     // British Pound
-        exchangeRates.put("CHF", 0.92);     // Swiss Franc
-        exchangeRates.put("NOK", 8.5);      // Norwegian Krone
-        exchangeRates.put("SEK", 8.8);      // Swedish Krona
-        exchangeRates.put("DKK", 6.3);      // Danish Krone
-        exchangeRates.put("PLN", 3.9);      // Polish Zloty
-        exchangeRates.put("CZK", 21.5);     // Czech Koruna
-        exchangeRates.put("HUF", 295.0);    // Hungarian Forint
-        exchangeRates.put("RON", 4.2);      // Romanian Leu
-        exchangeRates.put("RUB", 75.0);     // Russian Ruble
-        
-        // Asia
-        exchangeRates.put("CNY", 6.88);     // Chinese Yuan
-        exchangeRates.put("JPY", 110.0);    // Japanese Yen
-        exchangeRates.put("KRW", 1180.0);   // South Korean Won
-        exchangeRates.put("INR", 74.5);     // Indian Rupee
-        exchangeRates.put("SGD", 1.35);     // Singapore Dollar
-        exchangeRates.put("HKD", 7.8);      // Hong Kong Dollar
-        exchangeRates.put("THB", 31.5);     // Thai Baht
-        exchangeRates.put("MYR", 4.1);      // Malaysian Ringgit
-        exchangeRates.put("IDR", 14250.0);  // Indonesian Rupiah
-        exchangeRates.put("PHP", 50.5);     // Philippine Peso
-        exchangeRates.put("VND", 23000.0);  // Vietnamese Dong
-        exchangeRates.put("PKR", 155.0);    // Pakistani Rupee
-        exchangeRates.put("BDT", 85.0);     // Bangladeshi Taka
-        exchangeRates.put("LKR", 200.0);    // Sri Lankan Rupee
-        exchangeRates.put("AED", 3.67);     // UAE Dirham
-        exchangeRates.put("SAR", 3.75);     // Saudi Riyal
-        exchangeRates.put("QAR", 3.64);     // Qatari Riyal
-        exchangeRates.put("KWD", 0.30);     // Kuwaiti Dinar
-        exchangeRates.put("BHD", 0.38);     // Bahraini Dinar
-        exchangeRates.put("OMR", 0.38);     // Omani Rial
-        exchangeRates.put("JOD", 0.71);     // Jordanian Dinar
-        exchangeRates.put("ILS", 3.25);     // Israeli Shekel
-        exchangeRates.put("TRY", 8.5);      // Turkish Lira
-        
-        // Africa
-        exchangeRates.put("ZAR", 14.5);     // South African Rand
-        exchangeRates.put("EGP", 15.7);     // Egyptian Pound
-        exchangeRates.put("NGN", 410.0);    // Nigerian Naira
-        exchangeRates.put("KES", 108.0);    // Kenyan Shilling
-        exchangeRates.put("GHS", 6.1);      // Ghanaian Cedi
-        exchangeRates.put("UGX", 3550.0);   // Ugandan Shilling
-        exchangeRates.put("TZS", 2310.0);   // Tanzanian Shilling
-        exchangeRates.put("ETB", 44.0);     // Ethiopian Birr
-        exchangeRates.put("MAD", 9.0);      // Moroccan Dirham
-        exchangeRates.put("TND", 2.8);      // Tunisian Dinar
-        exchangeRates.put("DZD", 135.0);    // Algerian Dinar
-        exchangeRates.put("XOF", 555.0);    // West African CFA Franc
-        exchangeRates.put("XAF", 555.0);    // Central African CFA Franc
-        
-        // South America
-        exchangeRates.put("BRL", 5.2);      // Brazilian Real
-        exchangeRates.put("ARS", 98.0);     // Argentine Peso
-        exchangeRates.put("CLP", 750.0);    // Chilean Peso
-        exchangeRates.put("COP", 3850.0);   // Colombian Peso
-        exchangeRates.put("PEN", 3.9);      // Peruvian Sol
-        exchangeRates.put("UYU", 43.5);     // Uruguayan Peso
-        exchangeRates.put("PYG", 6850.0);   // Paraguayan Guarani
-        exchangeRates.put("BOB", 6.9);      // Bolivian Boliviano
-        exchangeRates.put("VES", 4.2);      // Venezuelan Bolívar
-        exchangeRates.put("GYD", 209.0);    // Guyanese Dollar
-        exchangeRates.put("SRD", 14.2);     // Surinamese Dollar
-        
-        // Oceania
-        exchangeRates.put("AUD", 1.35);     // Australian Dollar
-        exchangeRates.put("NZD", 1.42);     // New Zealand Dollar
-        exchangeRates.put("FJD", 2.1);      // Fijian Dollar
-        exchangeRates.put("PGK", 3.5);      // Papua New Guinea Kina
-        exchangeRates.put("TOP", 2.3);      // Tongan Pa'anga
-        exchangeRates.put("WST", 2.6);      // Samoan Tala
-        exchangeRates.put("VUV", 112.0);    // Vanuatu Vatu
-        exchangeRates.put("SBD", 8.0);      // Solomon Islands Dollar
+        engine.setStalenessBudget(Duration.ofHours(Long.getLong("currency.maxStaleness.hours", 24)),
+            ConversionEngine.StalenessPolicy.valueOf(System.getProperty("currency.stalePolicy", "FLAG")));
+        
+        rateCache.load(engine);
+        rateRefresher.addListener((status, error) -> {
+            if (status == RateFetcher.Status.UPDATED) {
+                saveRateCache();
+                recordRateHistory();
+            }
+        });
+        
+        openJournal();
+        openRateHistory();
+        
+        Metrics.gauge("rates.version", () -> engine.snapshot().version());
+        Metrics.gauge("rates.age.millis", () -> engine.rateAgeMillis(System.currentTimeMillis()));
+        Metrics.gauge("rates.stale", () -> engine.isStale() ? 1 : 0);
+        Metrics.gauge("history.size", conversionHistory::size);
+        Metrics.gauge("rates.history.size", () -> rateHistory != null ? rateHistory.size() : 0);
     }
-
+    
+    private static RateAggregator createRateSource() {
+        java.util.List<RateFetcher> fetchers = new ArrayList<>();
+        for (String url : System.getProperty("currency.providers", API_URL).split(",")) {
+            if (!url.isBlank()) {
+                fetchers.add(new RateFetcher(URI.create(url.trim())));
+            }
+        }
+        return new RateAggregator(fetchers, Duration.ofSeconds(Long.getLong("currency.provider.timeout.seconds", 5)),
+            RateAggregator.Mode.valueOf(System.getProperty("currency.providers.mode", "FIRST_VALID")));
+    }
+    
+    private static void openJournal() {
+        String dir = System.getProperty("currency.journalDir");
+        java.nio.file.Path journalDir = dir != null
+            ? java.nio.file.Paths.get(dir)
+            : RateSnapshotStore.defaultFile().getParent().resolve("journal");
+        try {
+            journal = ConversionJournal.open(journalDir, engine.registry(), 1 << 20,
+                ConversionJournal.SyncPolicy.valueOf(System.getProperty("currency.journal.sync", "INTERVAL")),
+                Duration.ofSeconds(1));
+            journal.replay(Math.max(0, journal.nextSequence() - conversionHistory.capacity()),
+                (timestampMillis, fromId, toId, amount, result, rate, rateVersion) -> {
+                    conversionHistory.append(timestampMillis, fromId, toId, amount, result, rate, rateVersion);
+                    conversionStats.record(fromId, toId, amount, result);
+                });
+        } catch (java.io.IOException e) {
+            // Keep converting with in-memory history only
+            LOG.log(System.Logger.Level.WARNING, "Could not open the conversion journal in " + journalDir, e);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (java.io.IOException e) {
+                LOG.log(System.Logger.Level.WARNING, "Could not close the conversion journal", e);
+            }
+        }, "journal-shutdown"));
+    }
+    
+    private static void openRateHistory() {
+        String dir = System.getProperty("currency.historyDir");
+        java.nio.file.Path historyDir = dir != null
+            ? java.nio.file.Paths.get(dir)
+            : RateSnapshotStore.defaultFile().getParent().resolve("history");
+        try {
+            rateHistory = RateHistoryStore.open(historyDir, engine.registry());
+        } catch (java.io.IOException e) {
+            // Keep converting without a rate history
+            LOG.log(System.Logger.Level.WARNING, "Could not open the rate history in " + historyDir, e);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                rateHistory.close();
+            } catch (java.io.IOException e) {
+                LOG.log(System.Logger.Level.WARNING, "Could not close the rate history", e);
+            }
+        }, "rate-history-shutdown"));
+    }
+    
+    // Runs on the refresher thread
+    private static void recordRateHistory() {
+        if (rateHistory == null) {
+            return;
+        }
+        try {
+            rateHistory.append(engine.snapshot());
+        } catch (java.io.IOException | IllegalStateException e) {
+            LOG.log(System.Logger.Level.WARNING, "Could not record rates in " + rateHistory.directory(), e);
+        }
+    }
+    
+    // Runs on the refresher thread
+    private static void saveRateCache() {
+        try {
+            rateCache.save(engine.snapshot(), engine.registry());
+        } catch (java.io.IOException e) {
+            LOG.log(System.Logger.Level.WARNING, "Could not save rates to " + rateCache.file(), e);
+        }
+    }
+    
     public static void main(String[] args) {
+        Metrics.exposeViaJmx();
+        // --server [--host H] [--port N] [--binary-port N] runs the HTTP (and
+        // optionally the binary) conversion service instead of the window
+        if (java.util.Arrays.asList(args).contains("--server")) {
+            startServer(args);
+            return;
+        }
         SwingUtilities.invokeLater(() -> createAndShowGUI());
     }
     
+    private static void startServer(String[] args) {
+        String host = "127.0.0.1";
+        int port = 8080;
+        int binaryPort = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--host") && i + 1 < args.length) {
+                host = args[++i];
+            } else if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--binary-port") && i + 1 < args.length) {
+                binaryPort = Integer.parseInt(args[++i]);
+            }
+        }
+        ConversionServer server;
+        try {
+            server = ConversionServer.start(engine, new java.net.InetSocketAddress(host, port),
+                Integer.getInteger("currency.server.backlog", 4096));
+        } catch (java.io.IOException e) {
+            System.err.println("Could not start the conversion server on " + host + ":" + port + ": " + e);
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "server-shutdown"));
+        rateRefresher.start();
+        System.out.println("Conversion server listening on http://" + host + ":" + server.address().getPort()
+            + "/ (" + (server.usesVirtualThreads() ? "virtual" : "platform") + " threads)");
+        if (binaryPort >= 0) {
+            try {
+                BinaryConversionServer binary = BinaryConversionServer.start(engine,
+                    new java.net.InetSocketAddress(host, binaryPort));
+                Runtime.getRuntime().addShutdownHook(new Thread(binary::close, "binary-server-shutdown"));
+                System.out.println("Binary conversion protocol on " + host + ":" + binary.address().getPort());
+            } catch (java.io.IOException e) {
+                System.err.println("Could not start the binary protocol on " + host + ":" + binaryPort + ": " + e);
+            }
+        }
+    }
+    
     private static void createAndShowGUI() {
         // Create the main frame
         JFrame frame = new JFrame("Currency Converter");
@@ -333,7 +460,15 @@ public class USDtoRMBConverter {
         gbc.gridx = 1;
         gbc.gridy = 4;
         gbc.gridwidth = 2;
-        frame.add(amountField, gbc);
+        // Live result of calculator expressions such as "100 USD + 2500 JPY in GBP"
+        JLabel previewLabel = new JLabel(" ");
+        previewLabel.setForeground(Color.LIGHT_GRAY);
+        previewLabel.setFont(new Font("Arial", Font.ITALIC, 11));
+        JPanel amountPanel = new JPanel(new BorderLayout());
+        amountPanel.setOpaque(false);
+        amountPanel.add(amountField, BorderLayout.CENTER);
+        amountPanel.add(previewLabel, BorderLayout.SOUTH);
+        frame.add(amountPanel, gbc);
 
         gbc.gridwidth = 1;
         gbc.gridx = 0;
@@ -387,7 +522,7 @@ public class USDtoRMBConverter {
         frame.add(refreshButton, gbc);
 
         // Create calculator number pad
-        JPanel calculatorPanel = createCalculatorPanel(amountField);
+        JPanel calculatorPanel = createCalculatorPanel(amountField, fromCurrency);
         calculatorPanel.setBackground(new Color(30, 40, 60));
         
         // Add calculator panel to the layout
@@ -423,6 +558,25 @@ public class USDtoRMBConverter {
         // Initial rate display update
         updateExchangeRateDisplay(fromCurrency, toCurrency, rateLabel);
         
+        // Re-evaluate the expression preview on every keystroke
+        amountField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                updateExpressionPreview(amountField, previewLabel, fromCurrency);
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                updateExpressionPreview(amountField, previewLabel, fromCurrency);
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                updateExpressionPreview(amountField, previewLabel, fromCurrency);
+            }
+        });
+        fromCurrency.addActionListener(e -> updateExpressionPreview(amountField, previewLabel, fromCurrency));
+        
         // Enter key support for amount field
         amountField.addActionListener(e -> performConversion(amountField, resultField, fromCurrency, toCurrency));
         
@@ -476,8 +630,17 @@ public class USDtoRMBConverter {
             }
         });
 
-        // Initial load of exchange rates
-        fetchExchangeRates(frame, fromCurrency, toCurrency, rateLabel);
+        // The rate label follows every change to either selected currency
+        rateChanges.listen(change -> {
+            if (change.code().equals(getCurrencyCode((String) fromCurrency.getSelectedItem()))
+                    || change.code().equals(getCurrencyCode((String) toCurrency.getSelectedItem()))) {
+                updateExchangeRateDisplay(fromCurrency, toCurrency, rateLabel);
+            }
+        }, SwingUtilities::invokeLater);
+
+        // Keep rates fresh in the background, starting with an initial load
+        rateRefresher.addListener((status, error) -> SwingUtilities.invokeLater(() -> showRefreshStatus(status)));
+        rateRefresher.start();
 
         // Display the frame
         frame.setLocationRelativeTo(null); // Center the window
@@ -489,9 +652,7 @@ public class USDtoRMBConverter {
         String toCode = getCurrencyCode((String) toCurrency.getSelectedItem());
         
         if (!fromCode.equals(toCode)) {
-            double fromRate = exchangeRates.get(fromCode);
-            double toRate = exchangeRates.get(toCode);
-            double exchangeRate = toRate / fromRate;
+            double exchangeRate = engine.snapshot().rate(engine.currencyId(fromCode), engine.currencyId(toCode));
             rateLabel.setText(String.format("Exchange Rate: 1 %s = %.4f %s", fromCode, exchangeRate, toCode));
         } else {
             rateLabel.setText("Exchange Rate: 1:1 (Same Currency)");
@@ -503,46 +664,136 @@ public class USDtoRMBConverter {
     }
     
     private static void performConversion(JTextField amountField, JTextField resultField, JComboBox<String> fromCurrency, JComboBox<String> toCurrency) {
+        long start = Metrics.sampledNow();
         try {
-            double amount = Double.parseDouble(amountField.getText());
-            if (amount < 0) {
-                throw new NumberFormatException("Negative amount");
-            }
-            
+            String input = amountField.getText().trim();
             String fromCode = getCurrencyCode((String) fromCurrency.getSelectedItem());
             String toCode = getCurrencyCode((String) toCurrency.getSelectedItem());
             
-            double result;
-            if (fromCode.equals(toCode)) {
-                result = amount;
+            // Price against one consistent snapshot even if a refresh lands meanwhile.
+            // Exact minor-unit arithmetic, rounded to the ISO 4217 digits of the target.
+            RateSnapshot rates = engine.checkedSnapshot();
+            
+            BigDecimal exactAmount;
+            if (isPlainNumber(input)) {
+                exactAmount = new BigDecimal(input);
             } else {
-                double fromRate = exchangeRates.get(fromCode);
-                double toRate = exchangeRates.get(toCode);
-                result = amount * (toRate / fromRate);
+                // Calculator expression; an amount like "... in GBP" is converted from GBP
+                int defaultId = engine.currencyId(fromCode);
+                long evaluationStart = Metrics.now();
+                ExpressionEvaluator.Compiled expression = ExpressionEvaluator.compile(input, engine.registry());
+                double value = expression.evaluate(rates, defaultId);
+                expressionLatency.recordSince(evaluationStart);
+                int currency = expression.resultCurrency(defaultId);
+                if (currency >= 0) {
+                    fromCode = engine.currencyCode(currency);
+                }
+                exactAmount = BigDecimal.valueOf(value)
+                    .setScale(engine.registry().minorDigits(engine.currencyId(fromCode)), RoundingMode.HALF_EVEN);
+            }
+            if (exactAmount.signum() < 0) {
+                throw new NumberFormatException("Negative amount");
             }
+            double amount = exactAmount.doubleValue();
+            BigDecimal exactResult = engine.exactRates(rates).convert(
+                engine.currencyId(fromCode), engine.currencyId(toCode), exactAmount, RoundingMode.HALF_EVEN);
+            double result = exactResult.doubleValue();
             
-            resultField.setText(String.format("%.2f", result));
+            resultField.setText(exactResult.toPlainString());
             
-            // Add to history
-            String historyEntry = String.format("%s: %.2f %s = %.2f %s", 
-                LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")),
-                amount, fromCode, result, toCode);
-            conversionHistory.add(0, historyEntry); // Add to beginning
+            // Flag results priced on rates past the staleness budget
+            if (engine.isStale()) {
+                timestampLabel.setText("Last Updated: " + lastUpdated.format(DateTimeFormatter.ofPattern("HH:mm:ss")) + staleSuffix());
+            }
             
-            // Keep only last 10 conversions
-            if (conversionHistory.size() > 10) {
-                conversionHistory.remove(conversionHistory.size() - 1);
+            // Add to history; formatted only when displayed
+            long now = System.currentTimeMillis();
+            int fromId = engine.currencyId(fromCode);
+            int toId = engine.currencyId(toCode);
+            double appliedRate = engine.exactRates(rates).rate(fromId, toId).doubleValue();
+            conversionHistory.append(now, fromId, toId, amount, result, appliedRate, rates.version());
+            conversionStats.record(fromId, toId, amount, result);
+            if (journal != null) {
+                journal.append(now, fromId, toId, amount, result, appliedRate, rates.version());
             }
+            conversions.increment();
+            conversionLatency.recordSince(start);
             
         } catch (NumberFormatException ex) {
+            conversionErrors.increment();
             JFrame parentFrame = (JFrame) SwingUtilities.getWindowAncestor(amountField);
             JOptionPane.showMessageDialog(parentFrame, 
                 "Please enter a valid positive number!", 
                 "Invalid Input", 
                 JOptionPane.ERROR_MESSAGE);
+        } catch (ExpressionException ex) {
+            conversionErrors.increment();
+            JFrame parentFrame = (JFrame) SwingUtilities.getWindowAncestor(amountField);
+            JOptionPane.showMessageDialog(parentFrame, 
+                "Invalid expression: " + ex.getMessage(), 
+                "Invalid Input", 
+                JOptionPane.ERROR_MESSAGE);
+            amountField.setCaretPosition(Math.min(ex.position(), amountField.getText().length()));
+        } catch (StaleRatesException ex) {
+            conversionErrors.increment();
+            JFrame parentFrame = (JFrame) SwingUtilities.getWindowAncestor(amountField);
+            JOptionPane.showMessageDialog(parentFrame, 
+                ex.getMessage() + "\nPlease refresh the rates and try again.", 
+                "Stale Exchange Rates", 
+                JOptionPane.ERROR_MESSAGE);
         }
     }
     
+    private static boolean isPlainNumber(String text) {
+        boolean digit = false;
+        boolean point = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digit = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return false;
+            }
+        }
+        return digit;
+    }
+    
+    // Live preview under the amount field. Runs on every keystroke: compiled
+    // expressions are cached and rates are only read when the snapshot changes.
+    private static void updateExpressionPreview(JTextField amountField, JLabel previewLabel, JComboBox<String> fromCurrency) {
+        String text = amountField.getText().trim();
+        if (text.isEmpty() || isPlainNumber(text)) {
+            previewLabel.setText(" ");
+            return;
+        }
+        try {
+            int defaultId = engine.currencyId(getCurrencyCode((String) fromCurrency.getSelectedItem()));
+            long start = Metrics.now();
+            ExpressionEvaluator.Compiled expression = ExpressionEvaluator.compile(text, engine.registry());
+            double value = expression.evaluate(engine.snapshot(), defaultId);
+            expressionLatency.recordSince(start);
+            int currency = expression.resultCurrency(defaultId);
+            if (!Double.isFinite(value)) {
+                previewLabel.setText("Result out of range");
+                return;
+            }
+            previewLabel.setText(currency >= 0
+                ? "= " + formatAmount(value, currency) + " " + engine.currencyCode(currency)
+                : "= " + value);
+        } catch (ExpressionException ex) {
+            previewLabel.setText(ex.getMessage());
+        }
+    }
+    
+    // Amount at the ISO 4217 scale of its currency
+    private static String formatAmount(double amount, int currencyId) {
+        return BigDecimal.valueOf(amount)
+            .setScale(engine.registry().minorDigits(currencyId), RoundingMode.HALF_EVEN)
+            .toPlainString();
+    }
+    
     private static void toggleTheme(JFrame frame, JButton themeButton, JLabel timestampLabel, JLabel rateLabel) {
         isDarkMode = !isDarkMode;
         Color backgroundColor, textColor, lightTextColor;
@@ -593,9 +844,15 @@ public class USDtoRMBConverter {
             historyArea.setText("No conversion history available.");
         } else {
             StringBuilder historyText = new StringBuilder("Recent Conversions:\n\n");
-            for (int i = 0; i < Math.min(20, conversionHistory.size()); i++) {
-                historyText.append((i + 1)).append(". ").append(conversionHistory.get(i)).append("\n");
-            }
+            DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+            int[] line = {0};
+            conversionHistory.forEachNewest(20, (timestampMillis, fromId, toId, amount, result, rate, rateVersion) ->
+                historyText.append(++line[0]).append(". ")
+                    .append(timeFormat.format(Instant.ofEpochMilli(timestampMillis))).append(": ")
+                    .append(formatAmount(amount, fromId)).append(' ').append(engine.currencyCode(fromId))
+                    .append(" = ")
+                    .append(formatAmount(result, toId)).append(' ').append(engine.currencyCode(toId))
+                    .append('\n'));
             historyArea.setText(historyText.toString());
         }
         
@@ -609,33 +866,41 @@ public class USDtoRMBConverter {
         statsArea.setFont(new Font("Arial", Font.PLAIN, 12));
         
         StringBuilder stats = new StringBuilder("Conversion Statistics:\n\n");
-        stats.append("Total conversions: ").append(conversionHistory.size()).append("\n");
-        
-        // Count most used currencies
-        Map<String, Integer> currencyCount = new HashMap<>();
-        for (String entry : conversionHistory) {
-            String[] parts = entry.split(" ");
-            if (parts.length >= 5) {
-                String fromCurrency = parts[2];
-                String toCurrency = parts[5];
-                currencyCount.put(fromCurrency, currencyCount.getOrDefault(fromCurrency, 0) + 1);
-                currencyCount.put(toCurrency, currencyCount.getOrDefault(toCurrency, 0) + 1);
-            }
-        }
+        stats.append("Total conversions: ").append(conversionStats.totalConversions()).append("\n");
         
+        // Most used currencies and pairs, maintained incrementally
+        int[] topIds = new int[5];
+        int topCount = conversionStats.topCurrencies(topIds);
         stats.append("\nMost used currencies:\n");
-        currencyCount.entrySet().stream()
-            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
-            .limit(5)
-            .forEach(entry -> stats.append("  ")
-                .append(entry.getKey()).append(": ")
-                .append(entry.getValue()).append(" times\n"));
+        for (int i = 0; i < topCount; i++) {
+            int id = topIds[i];
+            stats.append("  ")
+                .append(engine.currencyCode(id)).append(": ")
+                .append(conversionStats.conversions(id)).append(" times, volume ")
+                .append(formatAmount(conversionStats.volume(id), id)).append("\n");
+        }
+        
+        int[] topFrom = new int[5];
+        int[] topTo = new int[5];
+        int pairCount = conversionStats.topPairs(topFrom, topTo);
+        stats.append("\nMost converted pairs:\n");
+        for (int i = 0; i < pairCount; i++) {
+            stats.append("  ")
+                .append(engine.currencyCode(topFrom[i])).append(" -> ").append(engine.currencyCode(topTo[i])).append(": ")
+                .append(conversionStats.pairConversions(topFrom[i], topTo[i])).append(" times\n");
+        }
         
         statsArea.setText(stats.toString());
         statsPanel.add(new JScrollPane(statsArea), BorderLayout.CENTER);
         
+        // Metrics Tab
+        JTextArea metricsArea = new JTextArea(Metrics.dump());
+        metricsArea.setEditable(false);
+        metricsArea.setFont(new Font("Monospaced", Font.PLAIN, 11));
+        
         tabbedPane.addTab("History", historyPanel);
         tabbedPane.addTab("Statistics", statsPanel);
+        tabbedPane.addTab("Metrics", new JScrollPane(metricsArea));
         
         historyDialog.add(tabbedPane, BorderLayout.CENTER);
         
@@ -648,10 +913,12 @@ public class USDtoRMBConverter {
         exportButton.addActionListener(e -> exportHistoryToCSV(parent));
         clearHistoryButton.addActionListener(e -> {
             int result = JOptionPane.showConfirmDialog(historyDialog, 
-                "Are you sure you want to clear all history?", 
+                "Are you sure you want to clear all history?\n"
+                    + "The conversion journal on disk is kept.", 
                 "Confirm Clear", JOptionPane.YES_NO_OPTION);
             if (result == JOptionPane.YES_OPTION) {
                 conversionHistory.clear();
+                conversionStats.clear();
                 historyDialog.dispose();
                 JOptionPane.showMessageDialog(parent, "History cleared successfully!");
             }
@@ -665,172 +932,100 @@ public class USDtoRMBConverter {
         historyDialog.setVisible(true);
     }
     
-    // Add CSV export functionality
+    // Add CSV export functionality. Runs on a background thread with a
+    // progress bar so large histories do not freeze the window.
     private static void exportHistoryToCSV(JFrame parent) {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setSelectedFile(new java.io.File("currency_conversions.csv"));
         
         int result = fileChooser.showSaveDialog(parent);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            try (java.io.PrintWriter writer = new java.io.PrintWriter(fileChooser.getSelectedFile())) {
-                writer.println("Timestamp,Amount,From Currency,To Currency,Result,Exchange Rate");
-                
-                for (String entry : conversionHistory) {
-                    // Parse the entry format: "HH:mm:ss: amount FROM = result TO"
-                    String[] parts = entry.split(": ");
-                    if (parts.length >= 2) {
-                        String timestamp = parts[0];
-                        String conversionPart = parts[1];
-                        String[] conversionParts = conversionPart.split(" = ");
-                        if (conversionParts.length == 2) {
-                            String[] leftParts = conversionParts[0].split(" ");
-                            String[] rightParts = conversionParts[1].split(" ");
-                            
-                            if (leftParts.length >= 2 && rightParts.length >= 2) {
-                                String amount = leftParts[0];
-                                String fromCurrency = leftParts[1];
-                                String resultAmount = rightParts[0];
-                                String toCurrency = rightParts[1];
-                                
-                                // Calculate exchange rate
-                                try {
-                                    double amountVal = Double.parseDouble(amount);
-                                    double resultVal = Double.parseDouble(resultAmount);
-                                    double rate = resultVal / amountVal;
-                                    
-                                    writer.printf("%s,%s,%s,%s,%s,%.6f%n", 
-                                        timestamp, amount, fromCurrency, toCurrency, resultAmount, rate);
-                                } catch (NumberFormatException e) {
-                                    writer.printf("%s,%s,%s,%s,%s,%s%n", 
-                                        timestamp, amount, fromCurrency, toCurrency, resultAmount, "N/A");
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                JOptionPane.showMessageDialog(parent, 
-                    "History exported successfully to:\n" + fileChooser.getSelectedFile().getAbsolutePath(), 
-                    "Export Successful", JOptionPane.INFORMATION_MESSAGE);
-                    
-            } catch (java.io.IOException e) {
-                JOptionPane.showMessageDialog(parent, 
-                    "Error exporting history:\n" + e.getMessage(), 
-                    "Export Error", JOptionPane.ERROR_MESSAGE);
-            }
-        }
-    }
-    
-    private static void fetchExchangeRates(JFrame parent, JComboBox<String> fromCurrency, JComboBox<String> toCurrency, JLabel rateLabel) {
-        if (isUpdatingRates) {
-            JOptionPane.showMessageDialog(parent, "Already updating rates, please wait...", "Info", JOptionPane.INFORMATION_MESSAGE);
+        if (result != JFileChooser.APPROVE_OPTION) {
             return;
         }
+        java.io.File file = fileChooser.getSelectedFile();
+        
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        JDialog progressDialog = new JDialog(parent, "Exporting History", false);
+        progressDialog.add(progressBar);
+        progressDialog.setSize(300, 80);
+        progressDialog.setLocationRelativeTo(parent);
         
-        // Use SwingWorker to fetch rates in background
-        SwingWorker<Boolean, Void> worker = new SwingWorker<Boolean, Void>() {
+        SwingWorker<Long, Void> export = new SwingWorker<Long, Void>() {
             @Override
-            protected Boolean doInBackground() throws Exception {
-                isUpdatingRates = true;
-                
-                // Update UI to show loading
-                SwingUtilities.invokeLater(() -> {
-                    timestampLabel.setText("Updating exchange rates...");
-                });
-                
-                try {
-                    HttpClient client = HttpClient.newHttpClient();
-                    HttpRequest request = HttpRequest.newBuilder()
-                            .uri(URI.create(API_URL))
-                            .timeout(java.time.Duration.ofSeconds(10))
-                            .build();
-                    
-                    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                    
-                    if (response.statusCode() == 200) {
-                        String jsonResponse = response.body();
-                        parseAndUpdateRates(jsonResponse);
-                        return true;
-                    } else {
-                        return false;
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return false;
-                }
+            protected Long doInBackground() throws Exception {
+                return HistoryCsvExporter.export(conversionHistory, engine.registry(), file.toPath(),
+                    (records, total) -> setProgress((int) (records * 100 / Math.max(1, total))));
             }
             
             @Override
             protected void done() {
-                isUpdatingRates = false;
+                progressDialog.dispose();
                 try {
-                    boolean success = get();
-                    if (success) {
-                        lastUpdated = LocalDateTime.now();
-                        timestampLabel.setText("Last Updated: " + lastUpdated.format(DateTimeFormatter.ofPattern("HH:mm:ss")));
-                        updateExchangeRateDisplay(fromCurrency, toCurrency, rateLabel);
-                        JOptionPane.showMessageDialog(parent, "Exchange rates updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                    } else {
-                        timestampLabel.setText("Failed to update rates - using cached data");
-                        JOptionPane.showMessageDialog(parent, "Failed to fetch current exchange rates.\nUsing cached rates.", "Warning", JOptionPane.WARNING_MESSAGE);
-                    }
-                } catch (Exception e) {
-                    timestampLabel.setText("Error updating rates - using cached data");
-                    JOptionPane.showMessageDialog(parent, "Error occurred while fetching exchange rates:\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    long records = get();
+                    JOptionPane.showMessageDialog(parent, 
+                        "Exported " + records + " conversions to:\n" + file.getAbsolutePath(), 
+                        "Export Successful", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(parent, 
+                        "Error exporting history:\n" + cause.getMessage(), 
+                        "Export Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
         };
-        
-        worker.execute();
+        export.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                progressBar.setValue((Integer) event.getNewValue());
+            }
+        });
+        progressDialog.setVisible(true);
+        export.execute();
     }
     
-    private static void parseAndUpdateRates(String jsonResponse) {
-        try {
-            // Simple JSON parsing without external libraries
-            // Looking for "rates":{"EUR":0.85,"GBP":0.73, etc.
-            int ratesIndex = jsonResponse.indexOf("\"rates\":");
-            if (ratesIndex == -1) return;
-            
-            int startBrace = jsonResponse.indexOf("{", ratesIndex);
-            int endBrace = jsonResponse.indexOf("}", startBrace);
-            if (startBrace == -1 || endBrace == -1) return;
-            
-            String ratesSection = jsonResponse.substring(startBrace + 1, endBrace);
-            String[] ratePairs = ratesSection.split(",");
-            
-            // Update USD rate (base currency)
-            exchangeRates.put("USD", 1.0);
-            
-            for (String pair : ratePairs) {
-                String[] parts = pair.split(":");
-                if (parts.length == 2) {
-                    String currency = parts[0].trim().replace("\"", "");
-                    try {
-                        double rate = Double.parseDouble(parts[1].trim());
-                        
-                        // Only update currencies we support
-                        if (exchangeRates.containsKey(currency)) {
-                            exchangeRates.put(currency, rate);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Skip invalid rates
-                    }
-                }
+    // Manual refresh from the Refresh Rates button. Joins a background refresh
+    // that is already running instead of starting a second one.
+    private static void fetchExchangeRates(JFrame parent, JComboBox<String> fromCurrency, JComboBox<String> toCurrency, JLabel rateLabel) {
+        // Update UI to show loading
+        timestampLabel.setText("Updating exchange rates...");
+        
+        rateRefresher.refreshNow().whenComplete((status, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                timestampLabel.setText("Error updating rates - using cached data");
+                JOptionPane.showMessageDialog(parent, "Error occurred while fetching exchange rates:\n" + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            } else if (status == RateFetcher.Status.UPDATED) {
+                JOptionPane.showMessageDialog(parent, "Exchange rates updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            } else if (status == RateFetcher.Status.NOT_MODIFIED) {
+                JOptionPane.showMessageDialog(parent, "Exchange rates are already up to date.", "Success", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(parent, "Failed to fetch current exchange rates.\nUsing cached rates.", "Warning", JOptionPane.WARNING_MESSAGE);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            // If parsing fails, keep existing rates
+        }));
+    }
+    
+    // Called on the EDT after every refresh, background or manual. No dialogs
+    // here; the rate label itself follows rateChanges.
+    private static void showRefreshStatus(RateFetcher.Status status) {
+        if (status == RateFetcher.Status.FAILED) {
+            timestampLabel.setText("Failed to update rates - using cached data" + staleSuffix());
+            return;
         }
+        lastUpdated = LocalDateTime.now();
+        timestampLabel.setText("Last Updated: " + lastUpdated.format(DateTimeFormatter.ofPattern("HH:mm:ss")));
     }
     
-    private static JPanel createCalculatorPanel(JTextField amountField) {
-        JPanel panel = new JPanel(new GridLayout(4, 3, 2, 2));
+    private static String staleSuffix() {
+        return engine.isStale() ? " (rates are stale)" : "";
+    }
+    
+    private static JPanel createCalculatorPanel(JTextField amountField, JComboBox<String> fromCurrency) {
+        JPanel panel = new JPanel(new GridLayout(5, 3, 2, 2));
         panel.setBorder(BorderFactory.createTitledBorder(
             BorderFactory.createLineBorder(Color.WHITE), 
             "Quick Input", 
             0, 0, new Font("Arial", Font.BOLD, 12), Color.WHITE));
         
-        String[] buttons = {"7", "8", "9", "4", "5", "6", "1", "2", "3", ".", "0", "C"};
+        String[] buttons = {"7", "8", "9", "4", "5", "6", "1", "2", "3", ".", "0", "C", "+", "-", "="};
         
         for (String text : buttons) {
             JButton button = new JButton(text);
@@ -838,42 +1033,45 @@ public class USDtoRMBConverter {
             button.setForeground(Color.WHITE);
             button.setFocusPainted(false);
             button.setFont(new Font("Arial", Font.BOLD, 14));
-            
-            button.addActionListener(e -> {
-                if (text.equals("C")) {
-                    amountField.setText("");
-                } else {
-                    String current = amountField.getText();
-                    if (text.equals(".") && current.contains(".")) {
-                        return; // Don't add multiple decimal points
-                    }
-                    amountField.setText(current + text);
-                }
-            });
-            
+            button.addActionListener(createCalculatorButtonListener(text, amountField, fromCurrency));
             panel.add(button);
         }
         
         return panel;
     }
     
-    private static ActionListener createCalculatorButtonListener(String text, JTextField amountField) {
+    private static ActionListener createCalculatorButtonListener(String text, JTextField amountField, JComboBox<String> fromCurrency) {
         return e -> {
             switch (text) {
                 case "=":
-                    // Evaluate expression
-                    String expression = amountField.getText();
+                    // Evaluate the expression in place, as the preview shows it
+                    String expression = amountField.getText().trim();
+                    if (expression.isEmpty() || isPlainNumber(expression)) {
+                        return;
+                    }
                     try {
-                        double result = evaluateExpression(expression);
-                        amountField.setText(String.valueOf(result));
-                    } catch (Exception ex) {
-                        JOptionPane.showMessageDialog(amountField, "Invalid expression", "Error", JOptionPane.ERROR_MESSAGE);
+                        amountField.setText(evaluateExpression(expression, fromCurrency));
+                    } catch (ExpressionException ex) {
+                        JOptionPane.showMessageDialog(amountField, "Invalid expression: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                        amountField.setCaretPosition(Math.min(ex.position(), amountField.getText().length()));
                     }
                     break;
                 case "C":
                     // Clear
                     amountField.setText("");
                     break;
+                case ".":
+                    // One decimal point per number
+                    String current = amountField.getText();
+                    int numberStart = current.length();
+                    while (numberStart > 0 && (Character.isDigit(current.charAt(numberStart - 1))
+                            || current.charAt(numberStart - 1) == '.')) {
+                        numberStart--;
+                    }
+                    if (current.indexOf('.', numberStart) < 0) {
+                        amountField.setText(current + text);
+                    }
+                    break;
                 default:
                     // Append button text to amount field
                     amountField.setText(amountField.getText() + text);
@@ -882,98 +1080,24 @@ public class USDtoRMBConverter {
         };
     }
     
-    private static double evaluateExpression(String expression) throws Exception {
-        // Very simple expression evaluator (for demo purposes)
-        // Supports +, -, *, / and parentheses
-        // TODO: Replace with a proper math expression parser/evaluator
-        String sanitized = expression.replaceAll("[^0-9+*/().-]", "");
-        String[] tokens = sanitized.split("(?<=[-+*/()])|(?=[-+*/()])");
-        
-        // Convert to Reverse Polish Notation (RPN) using Shunting Yard algorithm
-        ArrayList<String> rpn = new ArrayList<>();
-        ArrayList<String> stack = new ArrayList<>();
-        
-        for (String token : tokens) {
-            switch (token) {
-                case "+":
-                case "-":
-                case "*":
-                case "/":
-                    while (!stack.isEmpty() && precedence(stack.get(stack.size() - 1)) >= precedence(token)) {
-                        rpn.add(stack.remove(stack.size() - 1));
-                    }
-                    stack.add(token);
-                    break;
-                case "(":
-                    stack.add(token);
-                    break;
-                case ")":
-                    while (!stack.isEmpty() && !stack.get(stack.size() - 1).equals("(")) {
-                        rpn.add(stack.remove(stack.size() - 1));
-                    }
-                    stack.remove(stack.size() - 1); // Remove "("
-                    break;
-                default:
-                    // Number
-                    rpn.add(token);
-                    break;
-            }
-        }
-        
-        while (!stack.isEmpty()) {
-            rpn.add(stack.remove(stack.size() - 1));
+    // The value of an expression as amount field text: a plain number in the
+    // From currency, or the amount followed by its code when the expression
+    // ends in another currency, which Convert then converts from
+    private static String evaluateExpression(String expression, JComboBox<String> fromCurrency) {
+        int defaultId = engine.currencyId(getCurrencyCode((String) fromCurrency.getSelectedItem()));
+        long start = Metrics.now();
+        ExpressionEvaluator.Compiled compiled = ExpressionEvaluator.compile(expression, engine.registry());
+        double value = compiled.evaluate(engine.snapshot(), defaultId);
+        expressionLatency.recordSince(start);
+        if (!Double.isFinite(value)) {
+            throw new ExpressionException("Result out of range", 0);
         }
-        
-        // Evaluate RPN
-        stack.clear();
-        for (String token : rpn) {
-            switch (token) {
-                case "+":
-                case "-":
-                case "*":
-                case "/":
-                    double b = Double.parseDouble(stack.remove(stack.size() - 1));
-                    double a = Double.parseDouble(stack.remove(stack.size() - 1));
-                    double result;
-                    switch (token) {
-                        case "+":
-                            result = a + b;
-                            break;
-                        case "-":
-                            result = a - b;
-                            break;
-                        case "*":
-                            result = a * b;
-                            break;
-                        case "/":
-                            result = a / b;
-                            break;
-                        default:
-                            throw new Exception("Invalid operator");
-                    }
-                    stack.add(String.valueOf(result));
-                    break;
-                default:
-                    // Number
-                    stack.add(token);
-                    break;
-            }
-        }
-        
-        return Double.parseDouble(stack.get(0));
-    }
-    
-    private static int precedence(String operator) {
-        switch (operator) {
-            case "+":
-            case "-":
-                return 1;
-            case "*":
-            case "/":
-                return 2;
-            default:
-                return 0;
+        int currency = compiled.resultCurrency(defaultId);
+        if (currency < 0) {
+            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
         }
+        String amount = formatAmount(value, currency);
+        return currency == defaultId ? amount : amount + " " + engine.currencyCode(currency);
     }
     
     // Add favorites functionality
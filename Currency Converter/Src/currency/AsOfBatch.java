@@ -0,0 +1,240 @@
+package currency;
+
+import java.util.Arrays;
+
+// Prices a batch of rows, each at its own instant, against one state of a
+// RateHistoryStore.
+//
+// Rows are visited in time order and a cursor walks the snapshots alongside
+// them, merge style: moving to the next row usually means comparing its
+// timestamp with the current snapshot's interval, and stepping at most a few
+// snapshots forward. Only a jump binary searches. Rates are decoded lazily
+// per currency, with one decoder per currency that keeps moving forward
+// through its column, so a currency's column is decoded about once for the
+// whole batch however many rows use it. Rates of the current snapshot are
+// cached until the cursor moves on.
+//
+// Unsorted input is put in time order with one primitive sort of
+// (time, row) keys packed into longs, which costs far less than a lookup
+// per row; input too spread out to pack is swept as is, which stays correct
+// but seeks more.
+final class AsOfBatch {
+
+    private static final int MAX_STEPS = 8;
+
+    private final RateHistoryStore.Block[] blocks;
+    private final RateHistoryStore.OpenBlock open;
+    private final int openRows;
+    private final int currencies;
+
+    // Snapshot in effect: blocks[block].row, or open.row when block ==
+    // blocks.length; block -1 before the first snapshot. Valid for
+    // timestamps in [from, until), and from 'from' on when until is
+    // Long.MAX_VALUE, which only the last snapshot has.
+    private int block = -1;
+    private int row;
+    private long from = Long.MAX_VALUE;
+    private long until = Long.MIN_VALUE;
+
+    // Per currency: the rate of the snapshot named by 'cached'
+    private final long[] cached;
+    private final double[] rates;
+    // Per currency: a decoder and the block and row it last returned
+    private final RateColumnCodec.Decoder[] decoders;
+    private final int[] decodedBlock;
+    private final int[] decodedRow;
+
+    private AsOfBatch(RateHistoryStore.State state, int currencies) {
+        this.blocks = state.blocks;
+        this.open = state.open;
+        this.openRows = state.open.rows;
+        this.currencies = currencies;
+        this.cached = new long[currencies];
+        Arrays.fill(cached, -1);
+        this.rates = new double[currencies];
+        this.decoders = new RateColumnCodec.Decoder[currencies];
+        this.decodedBlock = new int[currencies];
+        Arrays.fill(decodedBlock, -1);
+        this.decodedRow = new int[currencies];
+    }
+
+    // Prices every row; rows before the first snapshot, or with a currency
+    // the snapshot lacks, get NaN. Returns the number of rows priced.
+    static int convert(RateHistoryStore.State state, int currencies, long[] timestampsMillis,
+                       int[] fromIds, int[] toIds, double[] amounts, double[] out) {
+        AsOfBatch batch = new AsOfBatch(state, currencies);
+        int count = timestampsMillis.length;
+        if (isSorted(timestampsMillis)) {
+            int priced = 0;
+            for (int i = 0; i < count; i++) {
+                priced += batch.price(i, timestampsMillis, fromIds, toIds, amounts, out);
+            }
+            return priced;
+        }
+        long[] keys = sortKeys(timestampsMillis);
+        int priced = 0;
+        if (keys == null) {
+            for (int i = 0; i < count; i++) {
+                priced += batch.price(i, timestampsMillis, fromIds, toIds, amounts, out);
+            }
+            return priced;
+        }
+        int mask = (1 << indexBits(count)) - 1;
+        for (long key : keys) {
+            priced += batch.price((int) key & mask, timestampsMillis, fromIds, toIds, amounts, out);
+        }
+        return priced;
+    }
+
+    private int price(int i, long[] timestampsMillis, int[] fromIds, int[] toIds, double[] amounts, double[] out) {
+        long t = timestampsMillis[i];
+        if (t < from || past(t)) {
+            seek(t);
+        }
+        double result = amounts[i] * (usdRate(toIds[i]) / usdRate(fromIds[i]));
+        out[i] = result;
+        return result == result ? 1 : 0;
+    }
+
+    private static boolean isSorted(long[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < values[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexBits(int count) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(count - 1));
+    }
+
+    // (timestamp - min) << indexBits | row, sorted; null when the time span
+    // does not fit next to the row index
+    private static long[] sortKeys(long[] timestampsMillis) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long t : timestampsMillis) {
+            min = Math.min(min, t);
+            max = Math.max(max, t);
+        }
+        int bits = indexBits(timestampsMillis.length);
+        long span = max - min;
+        if (span < 0 || span >= 1L << (63 - bits)) {
+            return null;
+        }
+        long[] keys = new long[timestampsMillis.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (timestampsMillis[i] - min) << bits | i;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    // Moves the cursor to the snapshot in effect at 't'
+    private void seek(long t) {
+        if (past(t) && block >= 0) {
+            for (int step = 0; step < MAX_STEPS && past(t); step++) {
+                moveTo(block, row + 1);
+            }
+            if (!past(t)) {
+                return;
+            }
+        }
+        // Jump: last block starting at or before t, then the row in it
+        int index = openRows > 0 && t >= open.times[0] ? blocks.length : lastBlockAt(t);
+        if (index < 0) {
+            block = -1;
+            from = Long.MIN_VALUE;
+            until = blocks.length > 0 ? blocks[0].firstMillis : openRows > 0 ? open.times[0] : Long.MAX_VALUE;
+            return;
+        }
+        moveTo(index, index == blocks.length
+            ? RateHistoryStore.OpenBlock.rowAt(open.times, openRows, t)
+            : blocks[index].rowAt(t));
+    }
+
+    // Whether 't' is after the current snapshot; never for the last one
+    private boolean past(long t) {
+        return t >= until && until != Long.MAX_VALUE;
+    }
+
+    private int lastBlockAt(long t) {
+        int low = 0;
+        int high = blocks.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blocks[mid].firstMillis <= t) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    // Makes (index, next) the current snapshot, carrying over into the next
+    // block when 'next' is past the end of this one
+    private void moveTo(int index, int next) {
+        if (index < blocks.length && next == blocks[index].rows) {
+            index++;
+            next = 0;
+        }
+        block = index;
+        row = next;
+        from = time(index, next);
+        if (index < blocks.length && next + 1 < blocks[index].rows) {
+            until = blocks[index].timestamp(next + 1);
+        } else if (index + 1 < blocks.length) {
+            until = blocks[index + 1].firstMillis;
+        } else if (index < blocks.length) {
+            until = openRows > 0 ? open.times[0] : Long.MAX_VALUE;
+        } else {
+            until = next + 1 < openRows ? open.times[next + 1] : Long.MAX_VALUE;
+        }
+    }
+
+    private long time(int index, int at) {
+        return index < blocks.length ? blocks[index].timestamp(at) : open.times[at];
+    }
+
+    private double usdRate(int id) {
+        if (block < 0 || id < 0 || id >= currencies) {
+            return Double.NaN;
+        }
+        long snapshot = (long) block << 32 | row;
+        if (cached[id] == snapshot) {
+            return rates[id];
+        }
+        double rate = block == blocks.length ? open.columns[id][row] : decode(id);
+        cached[id] = snapshot;
+        rates[id] = rate;
+        return rate;
+    }
+
+    // Decodes the current row of the currency's column, continuing from the
+    // row decoded last when it is earlier in the same chunk
+    private double decode(int id) {
+        RateHistoryStore.Block current = blocks[block];
+        int column = current.columnById[id];
+        if (column < 0) {
+            return Double.NaN;
+        }
+        RateColumnCodec.Decoder decoder = decoders[id];
+        if (decoder == null) {
+            decoder = decoders[id] = new RateColumnCodec.Decoder();
+        }
+        int chunk = row / RateColumnCodec.CHUNK_ROWS;
+        int last = decodedRow[id];
+        double rate;
+        if (decodedBlock[id] == block && last < row && last / RateColumnCodec.CHUNK_ROWS == chunk) {
+            rate = decoder.skipAndNext(row - last - 1);
+        } else {
+            current.startChunk(decoder, column, chunk);
+            rate = decoder.skipAndNext(row - chunk * RateColumnCodec.CHUNK_ROWS);
+        }
+        decodedBlock[id] = block;
+        decodedRow[id] = row;
+        return rate;
+    }
+}
@@ -0,0 +1,107 @@
+package currency;
+
+// Converts whole arrays of amounts against a single RateSnapshot, so every
+// row of a batch is priced by the same rate version.
+//
+// The inner loops live in a BatchKernel: by default plain loops that C2 can
+// auto-vectorize. The JDK Vector API kernel is opt-in with
+// -Dcurrency.vector=true and needs the jdk.incubator.vector module; it only
+// pays off where hardware gathers are fast, so measure before enabling it.
+// It is built separately from the other sources (see the vector-api profile)
+// and only ever loaded reflectively, so neither building nor running the
+// converter needs the incubating module.
+public final class BatchConverter {
+
+    private static final BatchKernel KERNEL = loadKernel();
+
+    // 10^k for k in [-8, 8], indexed by k + 8
+    private static final double[] POW10 = {
+        1e-8, 1e-7, 1e-6, 1e-5, 1e-4, 1e-3, 1e-2, 1e-1, 1.0,
+        1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8
+    };
+
+    private BatchConverter() {
+    }
+
+    private static BatchKernel loadKernel() {
+        if (!Boolean.parseBoolean(System.getProperty("currency.vector", "false"))) {
+            return BatchKernel.SCALAR;
+        }
+        BatchKernel vector = vectorKernel();
+        return vector != null ? vector : BatchKernel.SCALAR;
+    }
+
+    // The Vector API kernel, or null when the jdk.incubator.vector module is
+    // not present or the kernel was not built
+    static BatchKernel vectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (BatchKernel) Class.forName("currency.VectorBatchKernel")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // True when batches run on the JDK Vector API
+    public static boolean isVectorApiEnabled() {
+        return KERNEL != BatchKernel.SCALAR;
+    }
+
+    // Same currency pair for every amount
+    public static void convert(RateSnapshot rates, int fromId, int toId, double[] amounts, double[] out) {
+        checkLength(amounts.length, out.length);
+        KERNEL.scale(amounts, 0, rates.rate(fromId, toId), out, 0, amounts.length);
+    }
+
+    public static void convert(RateSnapshot rates, int fromId, int toId,
+                               double[] amounts, int offset, int length, double[] out, int outOffset) {
+        KERNEL.scale(amounts, offset, rates.rate(fromId, toId), out, outOffset, length);
+    }
+
+    // A currency pair per row: amounts[i] is converted from fromIds[i] to toIds[i]
+    public static void convert(RateSnapshot rates, int[] fromIds, int[] toIds, double[] amounts, double[] out) {
+        checkLength(amounts.length, fromIds.length, toIds.length, out.length);
+        KERNEL.gatherScale(rates.crossRates(), rates.currencyCount(), fromIds, toIds,
+            amounts, out, amounts.length);
+    }
+
+    // Amounts in minor units (cents, fils, ...) of the source currency, results
+    // rounded to the nearest minor unit of the target currency (ties towards
+    // positive infinity, as Math.round does)
+    public static void convertMinor(RateSnapshot rates, CurrencyRegistry registry,
+                                    int fromId, int toId, long[] amounts, long[] out) {
+        checkLength(amounts.length, out.length);
+        double factor = rates.rate(fromId, toId) * minorUnitFactor(registry, fromId, toId);
+        for (int i = 0; i < amounts.length; i++) {
+            out[i] = Math.round(amounts[i] * factor);
+        }
+    }
+
+    public static void convertMinor(RateSnapshot rates, CurrencyRegistry registry,
+                                    int[] fromIds, int[] toIds, long[] amounts, long[] out) {
+        checkLength(amounts.length, fromIds.length, toIds.length, out.length);
+        double[] cross = rates.crossRates();
+        int size = rates.currencyCount();
+        for (int i = 0; i < amounts.length; i++) {
+            int from = fromIds[i];
+            int to = toIds[i];
+            double factor = cross[from * size + to] * minorUnitFactor(registry, from, to);
+            out[i] = Math.round(amounts[i] * factor);
+        }
+    }
+
+    private static double minorUnitFactor(CurrencyRegistry registry, int fromId, int toId) {
+        return POW10[registry.minorDigits(toId) - registry.minorDigits(fromId) + 8];
+    }
+
+    private static void checkLength(int expected, int... lengths) {
+        for (int length : lengths) {
+            if (length != expected) {
+                throw new IllegalArgumentException("Batch arrays differ in length: " + expected + " vs " + length);
+            }
+        }
+    }
+}
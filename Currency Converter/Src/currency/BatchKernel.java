@@ -0,0 +1,31 @@
+package currency;
+
+// Inner loops of BatchConverter. The default implementation is plain Java
+// written so that C2 can auto-vectorize it; VectorBatchKernel provides the
+// same loops on top of the incubating JDK Vector API.
+interface BatchKernel {
+
+    // out[i] = in[i] * factor
+    void scale(double[] in, int inOffset, double factor, double[] out, int outOffset, int length);
+
+    // out[i] = in[i] * cross[fromIds[i] * size + toIds[i]]
+    void gatherScale(double[] cross, int size, int[] fromIds, int[] toIds,
+                     double[] in, double[] out, int length);
+
+    BatchKernel SCALAR = new BatchKernel() {
+        @Override
+        public void scale(double[] in, int inOffset, double factor, double[] out, int outOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                out[outOffset + i] = in[inOffset + i] * factor;
+            }
+        }
+
+        @Override
+        public void gatherScale(double[] cross, int size, int[] fromIds, int[] toIds,
+                                double[] in, double[] out, int length) {
+            for (int i = 0; i < length; i++) {
+                out[i] = in[i] * cross[fromIds[i] * size + toIds[i]];
+            }
+        }
+    };
+}
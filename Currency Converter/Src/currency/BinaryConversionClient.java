@@ -0,0 +1,238 @@
+package currency;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+// Client for BinaryConversionServer.
+//
+// Currency ids are the server's, learned from the hello frame on connect;
+// use currencyId to look them up by code. A batch is split into frames of
+// at most BinaryProtocol.MAX_BATCH conversions that are pipelined: frames are
+// written as fast as the socket takes them while responses are read back in
+// between, so a large batch costs about one round trip plus transfer time.
+// Each frame is priced against a single snapshot; a batch spanning several
+// frames can see a rate update between them. Calls are serialized, so one
+// client can be shared between threads, but a client per thread keeps more
+// requests in flight.
+//
+// A server that refuses to price with stale rates surfaces as
+// StaleRatesException, as it does in-process; a response that breaks the
+// protocol, such as a length no response can have, is an IOException.
+public final class BinaryConversionClient implements AutoCloseable {
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final String[] codes;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(4 * BinaryProtocol.MAX_REQUEST_BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(2 * BinaryProtocol.MAX_RESPONSE_BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    private int nextRequestId;
+
+    private BinaryConversionClient(SocketChannel channel, Selector selector, String[] codes) throws IOException {
+        this.channel = channel;
+        this.selector = selector;
+        this.codes = codes;
+        this.key = channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public static BinaryConversionClient connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            String[] codes = readHello(channel);
+            channel.configureBlocking(false);
+            return new BinaryConversionClient(channel, Selector.open(), codes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static String[] readHello(SocketChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, length);
+        int size = length.getInt(0);
+        if (size < 8 || size > 8 + BinaryProtocol.MAX_CURRENCIES * 3) {
+            throw new IOException("Not a binary conversion server");
+        }
+        ByteBuffer hello = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, hello);
+        hello.flip();
+        if (hello.getInt() != BinaryProtocol.MAGIC) {
+            throw new IOException("Not a binary conversion server");
+        }
+        short version = hello.getShort();
+        if (version != BinaryProtocol.VERSION) {
+            throw new IOException("Unsupported binary protocol version " + version);
+        }
+        int count = hello.getShort();
+        if (size != 8 + count * 3) {
+            throw new IOException("Malformed hello from binary conversion server");
+        }
+        String[] codes = new String[count];
+        byte[] code = new byte[3];
+        for (int id = 0; id < count; id++) {
+            hello.get(code);
+            codes[id] = new String(code, StandardCharsets.US_ASCII);
+        }
+        return codes;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+        }
+    }
+
+    public int currencyCount() {
+        return codes.length;
+    }
+
+    // Server-side id of an ISO 4217 code, or -1 if the server does not support it
+    public int currencyId(String code) {
+        for (int id = 0; id < codes.length; id++) {
+            if (codes[id].equals(code)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    public String currencyCode(int id) {
+        return codes[id];
+    }
+
+    // Converts every amount from one currency to another and returns the rate
+    // version of the last frame
+    public long convert(int fromId, int toId, double[] amounts, double[] out) throws IOException {
+        checkId(fromId);
+        checkId(toId);
+        return run(null, fromId, null, toId, amounts, out);
+    }
+
+    // Converts amounts[i] from fromIds[i] to toIds[i] and returns the rate
+    // version of the last frame
+    public long convert(int[] fromIds, int[] toIds, double[] amounts, double[] out) throws IOException {
+        if (fromIds.length < amounts.length || toIds.length < amounts.length) {
+            throw new IllegalArgumentException("Currency id arrays are shorter than the amounts");
+        }
+        for (int i = 0; i < amounts.length; i++) {
+            checkId(fromIds[i]);
+            checkId(toIds[i]);
+        }
+        return run(fromIds, 0, toIds, 0, amounts, out);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= codes.length) {
+            throw new IllegalArgumentException("Unknown currency id " + id);
+        }
+    }
+
+    private synchronized long run(int[] fromIds, int fromId, int[] toIds, int toId,
+                                  double[] amounts, double[] results) throws IOException {
+        if (results.length < amounts.length) {
+            throw new IllegalArgumentException("Output array is shorter than the amounts");
+        }
+        int rows = amounts.length;
+        int frames = Math.max(1, (rows + BinaryProtocol.MAX_BATCH - 1) / BinaryProtocol.MAX_BATCH);
+        int firstRequestId = nextRequestId;
+        nextRequestId += frames;
+        int sent = 0;
+        int received = 0;
+        long rateVersion = -1;
+        int failure = BinaryProtocol.STATUS_OK;
+        while (received < frames) {
+            boolean progress = false;
+            while (sent < frames && out.remaining() >= BinaryProtocol.MAX_REQUEST_BYTES) {
+                int start = sent * BinaryProtocol.MAX_BATCH;
+                int count = Math.min(BinaryProtocol.MAX_BATCH, rows - start);
+                out.putInt(BinaryProtocol.REQUEST_HEADER_BYTES - 4 + count * BinaryProtocol.TUPLE_BYTES)
+                    .putInt(firstRequestId + sent)
+                    .putInt(count);
+                for (int i = start, end = start + count; i < end; i++) {
+                    out.putShort((short) (fromIds != null ? fromIds[i] : fromId))
+                        .putShort((short) (toIds != null ? toIds[i] : toId))
+                        .putDouble(amounts[i]);
+                }
+                sent++;
+            }
+            if (out.position() > 0) {
+                out.flip();
+                progress |= channel.write(out) > 0;
+                out.compact();
+            }
+            int read = channel.read(in);
+            if (read < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            progress |= read > 0;
+            in.flip();
+            while (in.remaining() >= BinaryProtocol.RESPONSE_HEADER_BYTES) {
+                int start = in.position();
+                int length = in.getInt(start);
+                if (length < BinaryProtocol.RESPONSE_HEADER_BYTES - 4 || length > BinaryProtocol.MAX_RESPONSE_BYTES - 4) {
+                    // Would otherwise wait forever for bytes that never fit
+                    throw new IOException("Malformed response length " + length + " from binary conversion server");
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                int requestId = in.getInt(start + 4);
+                int status = in.getInt(start + 8);
+                int count = in.getInt(start + 20);
+                int first = received * BinaryProtocol.MAX_BATCH;
+                int expected = Math.min(BinaryProtocol.MAX_BATCH, rows - first);
+                if (requestId != firstRequestId + received
+                        || (status == BinaryProtocol.STATUS_OK && count != expected)
+                        || length != BinaryProtocol.RESPONSE_HEADER_BYTES - 4 + count * 8) {
+                    throw new IOException("Unexpected response " + requestId + " from binary conversion server");
+                }
+                if (status == BinaryProtocol.STATUS_OK) {
+                    rateVersion = in.getLong(start + 12);
+                    for (int i = 0, at = start + BinaryProtocol.RESPONSE_HEADER_BYTES; i < count; i++, at += 8) {
+                        results[first + i] = in.getDouble(at);
+                    }
+                } else if (failure == BinaryProtocol.STATUS_OK) {
+                    failure = status;
+                }
+                in.position(start + 4 + length);
+                received++;
+            }
+            in.compact();
+            if (!progress) {
+                key.interestOps(SelectionKey.OP_READ | (out.position() > 0 ? SelectionKey.OP_WRITE : 0));
+                selector.select();
+                selector.selectedKeys().clear();
+            }
+        }
+        // Every response has been read, so the connection is still usable
+        if (failure == BinaryProtocol.STATUS_STALE_RATES) {
+            throw new StaleRatesException("Server refused to price with stale exchange rates");
+        } else if (failure != BinaryProtocol.STATUS_OK) {
+            throw new IllegalArgumentException("Server rejected the batch (status " + failure + ")");
+        }
+        return rateVersion;
+    }
+}
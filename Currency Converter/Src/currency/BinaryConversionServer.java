@@ -0,0 +1,282 @@
+package currency;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Set;
+
+// Length-prefixed binary conversion protocol over TCP, for callers that send
+// conversions by the million; see BinaryProtocol for the frame layout.
+//
+// A single selector thread accepts, reads, converts and writes. Each
+// connection owns a direct read and a direct write buffer sized for the
+// largest frame; requests are converted straight from the read buffer into
+// the write buffer against the engine's current snapshot, so serving a
+// request allocates nothing. Pipelined requests are answered in order. When
+// a client stops reading, its responses back up into the write buffer and
+// the server stops reading from it until they drain.
+public final class BinaryConversionServer implements AutoCloseable {
+
+    private static final System.Logger LOG = System.getLogger(BinaryConversionServer.class.getName());
+    private static final LatencyHistogram FRAME = Metrics.histogram("binary.frame");
+    private static final Metrics.Counter CONVERSIONS = Metrics.conversions("binary");
+
+    private final ConversionEngine engine;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final byte[] hello;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private BinaryConversionServer(ConversionEngine engine, ServerSocketChannel serverChannel, Selector selector) {
+        this.engine = engine;
+        this.serverChannel = serverChannel;
+        this.selector = selector;
+        this.hello = hello(engine.registry());
+        this.thread = new Thread(this::run, "conversion-binary");
+        this.thread.setDaemon(true);
+    }
+
+    public static BinaryConversionServer start(ConversionEngine engine, InetSocketAddress address) throws IOException {
+        if (engine.currencyCount() > BinaryProtocol.MAX_CURRENCIES) {
+            throw new IllegalArgumentException("Too many currencies for the binary protocol: " + engine.currencyCount());
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        Selector selector = null;
+        try {
+            channel.bind(address, 1024);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            channel.close();
+            if (selector != null) {
+                selector.close();
+            }
+            throw e;
+        }
+        BinaryConversionServer server = new BinaryConversionServer(engine, channel, selector);
+        server.thread.start();
+        return server;
+    }
+
+    public InetSocketAddress address() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException("Server is closed", e);
+        }
+    }
+
+    // Closes the listening socket and every connection
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] hello(CurrencyRegistry registry) {
+        int count = registry.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 2 + 2 + count * 3).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(buffer.capacity() - 4).putInt(BinaryProtocol.MAGIC)
+            .putShort(BinaryProtocol.VERSION).putShort((short) count);
+        for (int id = 0; id < count; id++) {
+            buffer.put(registry.code(id).getBytes(StandardCharsets.US_ASCII));
+        }
+        return buffer.array();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Set<SelectionKey> selected = selector.selectedKeys();
+                Iterator<SelectionKey> keys = selected.iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        serve(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(System.Logger.Level.WARNING, "Binary conversion server stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+                serverChannel.close();
+            } catch (IOException e) {
+                LOG.log(System.Logger.Level.WARNING, "Could not close binary conversion server", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection();
+        connection.out.put(hello);
+        channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, connection);
+    }
+
+    private void serve(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable() && channel.read(connection.in) < 0) {
+                close(key);
+                return;
+            }
+            // Answer what has arrived, flush, and answer again in case frames
+            // were held back because the write buffer was full
+            boolean answered;
+            do {
+                answered = answer(connection);
+                flush(channel, connection);
+            } while (answered && connection.out.position() == 0 && connection.in.position() > 0);
+            int ops = 0;
+            if (connection.in.hasRemaining()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (connection.out.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        } catch (IOException | ProtocolException e) {
+            if (e instanceof ProtocolException) {
+                LOG.log(System.Logger.Level.WARNING, "Closing binary connection: " + e.getMessage());
+            }
+            close(key);
+        }
+    }
+
+    // Converts every complete request in the read buffer whose response fits
+    // in the write buffer; returns whether any was answered
+    private boolean answer(Connection connection) throws ProtocolException {
+        ByteBuffer in = connection.in;
+        ByteBuffer out = connection.out;
+        boolean answered = false;
+        in.flip();
+        while (in.remaining() >= 4) {
+            int start = in.position();
+            int length = in.getInt(start);
+            if (length < 8 || length > BinaryProtocol.MAX_REQUEST_BYTES - 4) {
+                throw new ProtocolException("bad frame length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            int requestId = in.getInt(start + 4);
+            int count = in.getInt(start + 8);
+            if (count < 0 || count > BinaryProtocol.MAX_BATCH || length != 8 + count * BinaryProtocol.TUPLE_BYTES) {
+                throw new ProtocolException("bad tuple count " + count + " for frame length " + length);
+            }
+            if (out.remaining() < BinaryProtocol.RESPONSE_HEADER_BYTES + count * 8) {
+                break;
+            }
+            in.position(start + BinaryProtocol.REQUEST_HEADER_BYTES);
+            long began = Metrics.now();
+            convert(requestId, count, in, out);
+            FRAME.recordSince(began);
+            in.position(start + 4 + length);
+            answered = true;
+        }
+        in.compact();
+        return answered;
+    }
+
+    private void convert(int requestId, int count, ByteBuffer in, ByteBuffer out) {
+        int size = engine.currencyCount();
+        int tuples = in.position();
+        for (int i = 0, at = tuples; i < count; i++, at += BinaryProtocol.TUPLE_BYTES) {
+            int fromId = in.getShort(at);
+            int toId = in.getShort(at + 2);
+            if (fromId < 0 || fromId >= size || toId < 0 || toId >= size) {
+                writeHeader(out, requestId, BinaryProtocol.STATUS_BAD_REQUEST, 0, 0);
+                return;
+            }
+        }
+        RateSnapshot rates;
+        try {
+            rates = engine.checkedSnapshot();
+        } catch (StaleRatesException e) {
+            writeHeader(out, requestId, BinaryProtocol.STATUS_STALE_RATES, engine.snapshot().version(), 0);
+            return;
+        }
+        writeHeader(out, requestId, BinaryProtocol.STATUS_OK, rates.version(), count);
+        for (int i = 0, at = tuples; i < count; i++, at += BinaryProtocol.TUPLE_BYTES) {
+            out.putDouble(rates.convert(in.getShort(at), in.getShort(at + 2), in.getDouble(at + 4)));
+        }
+        CONVERSIONS.add(count);
+    }
+
+    private static void writeHeader(ByteBuffer out, int requestId, int status, long rateVersion, int count) {
+        out.putInt(BinaryProtocol.RESPONSE_HEADER_BYTES - 4 + count * 8)
+            .putInt(requestId)
+            .putInt(status)
+            .putLong(rateVersion)
+            .putInt(count);
+    }
+
+    private static void flush(SocketChannel channel, Connection connection) throws IOException {
+        ByteBuffer out = connection.out;
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        channel.write(out);
+        out.compact();
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    private static final class Connection {
+        // Both kept in fill mode between calls
+        final ByteBuffer in = ByteBuffer.allocateDirect(2 * BinaryProtocol.MAX_REQUEST_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer out = ByteBuffer.allocateDirect(2 * BinaryProtocol.MAX_RESPONSE_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // A frame that cannot be part of the protocol; the connection is dropped
+    private static final class ProtocolException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
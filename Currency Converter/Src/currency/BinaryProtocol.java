@@ -0,0 +1,46 @@
+package currency;
+
+// Wire format shared by BinaryConversionServer and BinaryConversionClient.
+//
+// Every frame starts with an int holding the number of bytes that follow.
+// All values are little endian.
+//
+// Hello, sent by the server once per connection:
+//   int    magic 'CCBP'
+//   short  protocol version
+//   short  currency count n
+//   n x 3 bytes ISO 4217 codes, in currency id order
+//
+// Request:
+//   int    request id, echoed in the response
+//   int    tuple count, at most MAX_BATCH
+//   count x (short fromId, short toId, double amount)
+//
+// Response:
+//   int    request id
+//   int    status
+//   long   version of the rate snapshot the batch was priced against
+//   int    result count (0 unless the status is OK)
+//   count x double result
+//
+// Requests may be pipelined; responses come back in request order.
+final class BinaryProtocol {
+
+    static final int MAGIC = 0x50424343; // "CCBP" read little endian
+    static final short VERSION = 1;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_BAD_REQUEST = 1;
+    static final int STATUS_STALE_RATES = 2;
+
+    static final int MAX_BATCH = 8192;
+    static final int TUPLE_BYTES = 2 + 2 + 8;
+    static final int REQUEST_HEADER_BYTES = 4 + 4 + 4;
+    static final int RESPONSE_HEADER_BYTES = 4 + 4 + 4 + 8 + 4;
+    static final int MAX_REQUEST_BYTES = REQUEST_HEADER_BYTES + MAX_BATCH * TUPLE_BYTES;
+    static final int MAX_RESPONSE_BYTES = RESPONSE_HEADER_BYTES + MAX_BATCH * 8;
+    static final int MAX_CURRENCIES = Short.MAX_VALUE;
+
+    private BinaryProtocol() {
+    }
+}
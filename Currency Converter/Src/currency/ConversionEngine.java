@@ -0,0 +1,362 @@
+package currency;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Headless conversion engine: no Swing/AWT dependencies so it can be used
+// from services as well as from the desktop UI.
+//
+// Currencies are addressed by a small int id. Look the id up once with
+// currencyId(...) and then call convert(...) on the hot path, which works
+// on primitives only and does not allocate.
+//
+// Rates are kept as a dense double[] indexed by id together with a
+// precomputed N x N cross-rate matrix, so a conversion is a single
+// amount * cross[from][to] multiply.
+//
+// The rate table is an immutable RateSnapshot published through a single
+// atomic reference swap. Refreshing rates from a background thread never
+// exposes a half-updated table; callers that need several lookups to agree
+// (or want to know which version priced a result) take snapshot() once and
+// work against it.
+public final class ConversionEngine {
+
+    // Told about every snapshot published after it was added, on the
+    // publishing thread. Concurrent publishers may call it out of version
+    // order.
+    public interface PublishListener {
+        void published(RateSnapshot snapshot);
+    }
+
+    private static final System.Logger LOG = System.getLogger(ConversionEngine.class.getName());
+
+    private final CurrencyRegistry registry = new CurrencyRegistry();
+    private final AtomicReference<RateSnapshot> current = new AtomicReference<>();
+    private double[] seedRates = new double[0]; // only used while seeding
+    private final List<PublishListener> listeners = new CopyOnWriteArrayList<>();
+
+    // What to do with conversions once the rates are older than the budget
+    public enum StalenessPolicy {
+        FLAG,   // keep converting, isStale() reports the condition
+        FAIL    // checkedSnapshot() throws StaleRatesException
+    }
+
+    private volatile long maxStalenessMillis = Long.MAX_VALUE;
+    private volatile StalenessPolicy stalenessPolicy = StalenessPolicy.FLAG;
+    // Last time a provider confirmed the current rates are still valid (304)
+    private volatile long confirmedMillis;
+
+    private ConversionEngine() {
+    }
+
+    // Engine seeded with currencies from all continents (in a real app, the
+    // rates would come from an API)
+    public static ConversionEngine withDefaultRates() {
+        ConversionEngine engine = new ConversionEngine();
+
+        // North America
+        engine.addCurrency("USD", 1.0);      // US Dollar (Base)
+        engine.addCurrency("CAD", 1.25);     // Canadian Dollar
+        engine.addCurrency("MXN", 20.0);     // Mexican Peso
+
+        // Europe
+        engine.addCurrency("EUR", 0.85);     // Euro
+        engine.addCurrency("GBP", 0.73);     // British Pound
+        engine.addCurrency("CHF", 0.92);     // Swiss Franc
+        engine.addCurrency("NOK", 8.5);      // Norwegian Krone
+        engine.addCurrency("SEK", 8.8);      // Swedish Krona
+        engine.addCurrency("DKK", 6.3);      // Danish Krone
+        engine.addCurrency("PLN", 3.9);      // Polish Zloty
+        engine.addCurrency("CZK", 21.5);     // Czech Koruna
+        engine.addCurrency("HUF", 295.0);    // Hungarian Forint
+        engine.addCurrency("RON", 4.2);      // Romanian Leu
+        engine.addCurrency("RUB", 75.0);     // Russian Ruble
+
+        // Asia
+        engine.addCurrency("CNY", 6.88);     // Chinese Yuan
+        engine.addCurrency("JPY", 110.0);    // Japanese Yen
+        engine.addCurrency("KRW", 1180.0);   // South Korean Won
+        engine.addCurrency("INR", 74.5);     // Indian Rupee
+        engine.addCurrency("SGD", 1.35);     // Singapore Dollar
+        engine.addCurrency("HKD", 7.8);      // Hong Kong Dollar
+        engine.addCurrency("THB", 31.5);     // Thai Baht
+        engine.addCurrency("MYR", 4.1);      // Malaysian Ringgit
+        engine.addCurrency("IDR", 14250.0);  // Indonesian Rupiah
+        engine.addCurrency("PHP", 50.5);     // Philippine Peso
+        engine.addCurrency("VND", 23000.0);  // Vietnamese Dong
+        engine.addCurrency("PKR", 155.0);    // Pakistani Rupee
+        engine.addCurrency("BDT", 85.0);     // Bangladeshi Taka
+        engine.addCurrency("LKR", 200.0);    // Sri Lankan Rupee
+        engine.addCurrency("AED", 3.67);     // UAE Dirham
+        engine.addCurrency("SAR", 3.75);     // Saudi Riyal
+        engine.addCurrency("QAR", 3.64);     // Qatari Riyal
+        engine.addCurrency("KWD", 0.30);     // Kuwaiti Dinar
+        engine.addCurrency("BHD", 0.38);     // Bahraini Dinar
+        engine.addCurrency("OMR", 0.38);     // Omani Rial
+        engine.addCurrency("JOD", 0.71);     // Jordanian Dinar
+        engine.addCurrency("ILS", 3.25);     // Israeli Shekel
+        engine.addCurrency("TRY", 8.5);      // Turkish Lira
+
+        // Africa
+        engine.addCurrency("ZAR", 14.5);     // South African Rand
+        engine.addCurrency("EGP", 15.7);     // Egyptian Pound
+        engine.addCurrency("NGN", 410.0);    // Nigerian Naira
+        engine.addCurrency("KES", 108.0);    // Kenyan Shilling
+        engine.addCurrency("GHS", 6.1);      // Ghanaian Cedi
+        engine.addCurrency("UGX", 3550.0);   // Ugandan Shilling
+        engine.addCurrency("TZS", 2310.0);   // Tanzanian Shilling
+        engine.addCurrency("ETB", 44.0);     // Ethiopian Birr
+        engine.addCurrency("MAD", 9.0);      // Moroccan Dirham
+        engine.addCurrency("TND", 2.8);      // Tunisian Dinar
+        engine.addCurrency("DZD", 135.0);    // Algerian Dinar
+        engine.addCurrency("XOF", 555.0);    // West African CFA Franc
+        engine.addCurrency("XAF", 555.0);    // Central African CFA Franc
+
+        // South America
+        engine.addCurrency("BRL", 5.2);      // Brazilian Real
+        engine.addCurrency("ARS", 98.0);     // Argentine Peso
+        engine.addCurrency("CLP", 750.0);    // Chilean Peso
+        engine.addCurrency("COP", 3850.0);   // Colombian Peso
+        engine.addCurrency("PEN", 3.9);      // Peruvian Sol
+        engine.addCurrency("UYU", 43.5);     // Uruguayan Peso
+        engine.addCurrency("PYG", 6850.0);   // Paraguayan Guarani
+        engine.addCurrency("BOB", 6.9);      // Bolivian Boliviano
+        engine.addCurrency("VES", 4.2);      // Venezuelan Bolívar
+        engine.addCurrency("GYD", 209.0);    // Guyanese Dollar
+        engine.addCurrency("SRD", 14.2);     // Surinamese Dollar
+
+        // Oceania
+        engine.addCurrency("AUD", 1.35);     // Australian Dollar
+        engine.addCurrency("NZD", 1.42);     // New Zealand Dollar
+        engine.addCurrency("FJD", 2.1);      // Fijian Dollar
+        engine.addCurrency("PGK", 3.5);      // Papua New Guinea Kina
+        engine.addCurrency("TOP", 2.3);      // Tongan Pa'anga
+        engine.addCurrency("WST", 2.6);      // Samoan Tala
+        engine.addCurrency("VUV", 112.0);    // Vanuatu Vatu
+        engine.addCurrency("SBD", 8.0);      // Solomon Islands Dollar
+
+        // Built-in rates have no known age: timestamp 0 makes them stale until
+        // a cached or fetched snapshot replaces them
+        engine.current.set(new RateSnapshot(1, 0, engine.seedRates));
+        engine.seedRates = null;
+        return engine;
+    }
+
+    private void addCurrency(String code, double usdRate) {
+        int id = registry.intern(code);
+        seedRates = Arrays.copyOf(seedRates, registry.size());
+        seedRates[id] = usdRate;
+    }
+
+    public CurrencyRegistry registry() {
+        return registry;
+    }
+
+    // Returns the id for an ISO 4217 code, or -1 if the currency is not supported
+    public int currencyId(String code) {
+        return registry.id(code);
+    }
+
+    public String currencyCode(int id) {
+        return registry.code(id);
+    }
+
+    public int currencyCount() {
+        return registry.size();
+    }
+
+    // The rate set currently in effect
+    public RateSnapshot snapshot() {
+        return current.get();
+    }
+
+    public void setStalenessBudget(Duration maxStaleness, StalenessPolicy policy) {
+        maxStalenessMillis = maxStaleness.toMillis();
+        stalenessPolicy = policy;
+    }
+
+    // Records that a provider confirmed the current rates without sending new
+    // ones, which resets their age without publishing a new version
+    public void confirmRates(long timestampMillis) {
+        confirmedMillis = timestampMillis;
+    }
+
+    public long rateAgeMillis(long nowMillis) {
+        return nowMillis - Math.max(current.get().timestampMillis(), confirmedMillis);
+    }
+
+    public boolean isStale() {
+        return rateAgeMillis(System.currentTimeMillis()) > maxStalenessMillis;
+    }
+
+    // The current snapshot, or StaleRatesException if it is past the staleness
+    // budget and the policy is FAIL. The plain convert(...) methods never
+    // check the clock; callers that must not price on stale rates go
+    // through here once and convert against the returned snapshot.
+    public RateSnapshot checkedSnapshot() {
+        RateSnapshot snapshot = current.get();
+        if (stalenessPolicy == StalenessPolicy.FAIL) {
+            long age = rateAgeMillis(System.currentTimeMillis());
+            if (age > maxStalenessMillis) {
+                throw new StaleRatesException(age, maxStalenessMillis);
+            }
+        }
+        return snapshot;
+    }
+
+    // Units of 'to' per one unit of 'from'
+    public double rate(int fromId, int toId) {
+        return current.get().rate(fromId, toId);
+    }
+
+    public double convert(int fromId, int toId, double amount) {
+        return current.get().convert(fromId, toId, amount);
+    }
+
+    public double usdRate(int id) {
+        return current.get().usdRate(id);
+    }
+
+    // Exact minor-unit conversion against the current snapshot; see ExactRates
+    public ExactRates exactRates() {
+        return current.get().exactRates(registry);
+    }
+
+    public ExactRates exactRates(RateSnapshot snapshot) {
+        return snapshot.exactRates(registry);
+    }
+
+    // Batch variants price every row against the same snapshot and return
+    // the version of that snapshot; see BatchConverter
+
+    public long convertBatch(int fromId, int toId, double[] amounts, double[] out) {
+        RateSnapshot rates = current.get();
+        BatchConverter.convert(rates, fromId, toId, amounts, out);
+        return rates.version();
+    }
+
+    public long convertBatch(int[] fromIds, int[] toIds, double[] amounts, double[] out) {
+        RateSnapshot rates = current.get();
+        BatchConverter.convert(rates, fromIds, toIds, amounts, out);
+        return rates.version();
+    }
+
+    public long convertBatchMinor(int fromId, int toId, long[] amounts, long[] out) {
+        RateSnapshot rates = current.get();
+        BatchConverter.convertMinor(rates, registry, fromId, toId, amounts, out);
+        return rates.version();
+    }
+
+    public long convertBatchMinor(int[] fromIds, int[] toIds, long[] amounts, long[] out) {
+        RateSnapshot rates = current.get();
+        BatchConverter.convertMinor(rates, registry, fromIds, toIds, amounts, out);
+        return rates.version();
+    }
+
+    // Customer price of a conversion against the current snapshot, after
+    // spread and fee; see Pricer
+    public long priceMinor(Pricer pricer, int fromId, int toId, long amountMinor) {
+        return pricer.priceMinor(current.get(), fromId, toId, amountMinor);
+    }
+
+    public long priceBatchMinor(Pricer pricer, int[] fromIds, int[] toIds, long[] amounts,
+                                long[] netOut, long[] feeOut) {
+        RateSnapshot rates = current.get();
+        pricer.priceBatch(rates, fromIds, toIds, amounts, netOut, feeOut);
+        return rates.version();
+    }
+
+    // Updates the USD based rate of a single supported currency. Returns false
+    // if the currency is not supported or the rate is not usable.
+    public boolean setUsdRate(String code, double usdRate) {
+        int id = currencyId(code);
+        if (id < 0 || !isUsableRate(usdRate)) {
+            return false;
+        }
+        double[] rates = new double[registry.size()];
+        rates[id] = usdRate;
+        publish(rates, System.currentTimeMillis());
+        return true;
+    }
+
+    // Replaces all USD based rates at once (indexed by currency id).
+    // Entries that are not usable keep their old rate.
+    public RateSnapshot setUsdRates(double[] rates) {
+        return publish(rates, System.currentTimeMillis());
+    }
+
+    // Publishes a new snapshot built from the given rates (indexed by currency
+    // id) on top of the current one. Entries that are not usable keep the rate
+    // of the current snapshot. Safe to call from any thread; concurrent
+    // publishers are serialized by the compare-and-set so versions stay unique.
+    public RateSnapshot publish(double[] rates, long timestampMillis) {
+        while (true) {
+            RateSnapshot previous = current.get();
+            double[] merged = previous.copyUsdRates();
+            int count = Math.min(rates.length, merged.length);
+            for (int id = 0; id < count; id++) {
+                if (isUsableRate(rates[id])) {
+                    merged[id] = rates[id];
+                }
+            }
+            RateSnapshot next = new RateSnapshot(previous.version() + 1, timestampMillis, merged);
+            if (current.compareAndSet(previous, next)) {
+                notifyPublished(next);
+                return next;
+            }
+        }
+    }
+
+    // Publishes the cross rates of a rate graph, after bringing it up to date.
+    // Pairs without a path keep the rate of the current snapshot, and the USD
+    // rates are read off the USD row of the result. The graph must cover the
+    // same currency ids as this engine and must not be quoted meanwhile.
+    public RateSnapshot publish(RateGraph graph, long timestampMillis) {
+        int size = registry.size();
+        if (graph.currencyCount() != size) {
+            throw new IllegalArgumentException("Graph has " + graph.currencyCount()
+                + " currencies, engine has " + size);
+        }
+        graph.update();
+        int usd = registry.id("USD");
+        while (true) {
+            RateSnapshot previous = current.get();
+            double[] cross = previous.crossRates().clone();
+            graph.copyCrossRates(cross);
+            double[] usdRates = previous.copyUsdRates();
+            if (usd >= 0) {
+                System.arraycopy(cross, usd * size, usdRates, 0, size);
+            }
+            RateSnapshot next = new RateSnapshot(previous.version() + 1, timestampMillis, usdRates, cross);
+            if (current.compareAndSet(previous, next)) {
+                notifyPublished(next);
+                return next;
+            }
+        }
+    }
+
+    public void addPublishListener(PublishListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removePublishListener(PublishListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyPublished(RateSnapshot snapshot) {
+        for (PublishListener listener : listeners) {
+            try {
+                listener.published(snapshot);
+            } catch (RuntimeException e) {
+                LOG.log(System.Logger.Level.WARNING, "Publish listener failed", e);
+            }
+        }
+    }
+
+    static boolean isUsableRate(double rate) {
+        return rate > 0 && !Double.isInfinite(rate);
+    }
+}
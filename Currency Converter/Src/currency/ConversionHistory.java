@@ -0,0 +1,132 @@
+package currency;
+
+// Fixed-capacity ring buffer of conversions.
+//
+// Records are kept as parallel primitive arrays (48 bytes per entry, no
+// per-entry objects), so appending is O(1) and allocation free and the
+// history can hold millions of entries. Once full, each append overwrites
+// the oldest record. Nothing is formatted here; callers read records back
+// through a Visitor and format only what they display or export.
+public final class ConversionHistory {
+
+    public static final int MAX_CAPACITY = 1 << 26;
+
+    public interface Visitor {
+        void visit(long timestampMillis, int fromId, int toId, double amount, double result,
+                   double rate, long rateVersion);
+    }
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final int[] fromIds;
+    private final int[] toIds;
+    private final double[] amounts;
+    private final double[] results;
+    private final double[] rates;
+    private final long[] rateVersions;
+
+    private int next;          // slot of the next append, guarded by this
+    private int size;          // guarded by this
+    private long appended;     // records ever appended, guarded by this
+
+    public ConversionHistory(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("History capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.fromIds = new int[capacity];
+        this.toIds = new int[capacity];
+        this.amounts = new double[capacity];
+        this.results = new double[capacity];
+        this.rates = new double[capacity];
+        this.rateVersions = new long[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Total number of records appended since creation or the last clear,
+    // including those that have since been overwritten
+    public synchronized long appendedCount() {
+        return appended;
+    }
+
+    public synchronized void append(long timestampMillis, int fromId, int toId,
+                                    double amount, double result, double rate, long rateVersion) {
+        int slot = next;
+        timestamps[slot] = timestampMillis;
+        fromIds[slot] = fromId;
+        toIds[slot] = toId;
+        amounts[slot] = amount;
+        results[slot] = result;
+        rates[slot] = rate;
+        rateVersions[slot] = rateVersion;
+        next = slot + 1 == capacity ? 0 : slot + 1;
+        if (size < capacity) {
+            size++;
+        }
+        appended++;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+        appended = 0;
+    }
+
+    // Visits every record, oldest first
+    public synchronized void forEach(Visitor visitor) {
+        int slot = next - size;
+        if (slot < 0) {
+            slot += capacity;
+        }
+        for (int i = 0; i < size; i++) {
+            visit(slot, visitor);
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    // Visits up to 'limit' records starting at sequence number 'from' (the
+    // appendedCount() value when the record was appended), oldest first, and
+    // returns the sequence number to continue from. Records that have been
+    // overwritten are skipped. Lets a long export walk the history in chunks
+    // without holding the lock throughout.
+    public synchronized long forEachSince(long from, int limit, Visitor visitor) {
+        long sequence = Math.max(from, appended - size);
+        long end = Math.min(appended, sequence + limit);
+        int slot = (int) ((next - (appended - sequence)) % capacity);
+        if (slot < 0) {
+            slot += capacity;
+        }
+        for (; sequence < end; sequence++) {
+            visit(slot, visitor);
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        return sequence;
+    }
+
+    // Visits up to 'limit' records, newest first
+    public synchronized void forEachNewest(int limit, Visitor visitor) {
+        int count = Math.min(limit, size);
+        int slot = next;
+        for (int i = 0; i < count; i++) {
+            slot = slot == 0 ? capacity - 1 : slot - 1;
+            visit(slot, visitor);
+        }
+    }
+
+    private void visit(int slot, Visitor visitor) {
+        visitor.visit(timestamps[slot], fromIds[slot], toIds[slot], amounts[slot], results[slot],
+            rates[slot], rateVersions[slot]);
+    }
+}
@@ -0,0 +1,542 @@
+package currency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+// Append-only binary journal of every conversion.
+//
+// Records go to segment files named journal-<first sequence>.seg, each
+// holding at most 'recordsPerSegment' records, so the journal is a run of
+// fixed-size files that can be archived or deleted whole. Segment layout
+// (little endian):
+//   int    magic 'CCJS'
+//   short  format version
+//   short  reserved
+//   long   sequence number of the first record
+//   56 byte records:
+//     long    timestamp, epoch millis
+//     long    rate snapshot version
+//     double  amount
+//     double  result
+//     double  rate applied
+//     3 bytes from currency, ISO 4217 code
+//     3 bytes to currency
+//     short   reserved
+//     int     record marker 'CCJR'
+//     int     CRC32C of the 52 bytes above
+//
+// append() only copies the record into an in-memory buffer; a writer thread
+// swaps that buffer for a spare one and writes the whole batch with a single
+// channel write, so the conversion path never waits for the disk. It only
+// waits if both buffers are full, which bounds the memory used. Currencies are
+// stored by code rather than id, so a journal stays readable when the set of
+// supported currencies changes.
+//
+// On open, the last segment is scanned and cut back to its last complete,
+// checksummed record, dropping a record that was torn by a crash.
+//
+// Format version 1 had 48 byte records without the rate applied. Such
+// segments are still replayed, with the rate recomputed as result / amount
+// (NaN for a 0 amount), but never appended to: when the last segment is
+// of version 1, it is closed as it is and the next record starts a new
+// segment.
+public final class ConversionJournal implements AutoCloseable {
+
+    public enum SyncPolicy {
+        NEVER,        // leave flushing to the operating system
+        EVERY_BATCH,  // force each batch to disk before accepting the next
+        INTERVAL      // force at most once per sync interval
+    }
+
+    public static final int RECORD_BYTES = 56;
+    static final int HEADER_BYTES = 16;
+
+    private static final int MAGIC = 0x534a4343;        // "CCJS" read little endian
+    private static final int RECORD_MARKER = 0x524a4343; // "CCJR" read little endian
+    private static final short FORMAT_VERSION = 2;
+    private static final short V1 = 1;
+    private static final int V1_RECORD_BYTES = 48;
+    private static final int BUFFER_RECORDS = 16 * 1024;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+
+    private static final System.Logger LOG = System.getLogger(ConversionJournal.class.getName());
+
+    private final Path directory;
+    private final CurrencyRegistry registry;
+    private final int recordsPerSegment;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasRecords = lock.newCondition();
+    private final Condition hasSpace = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final Thread writer;
+
+    private ByteBuffer active;          // filled by append, guarded by lock
+    private ByteBuffer spare;           // owned by the writer thread while it writes
+    private long nextSequence;          // guarded by lock
+    private long writtenSequence;       // guarded by lock
+    private long flushRequested = -1;   // guarded by lock
+    private IOException failure;        // guarded by lock
+    private boolean closed;             // guarded by lock
+
+    // Writer thread only
+    private FileChannel segment;
+    private int segmentRecords;
+    private long lastSyncNanos;
+    private boolean dirty;
+    private final CRC32C crc = new CRC32C();
+
+    private ConversionJournal(Path directory, CurrencyRegistry registry, int recordsPerSegment,
+                              SyncPolicy syncPolicy, Duration syncInterval) {
+        this.directory = directory;
+        this.registry = registry;
+        this.recordsPerSegment = recordsPerSegment;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = Math.max(1, syncInterval.toNanos());
+        this.active = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.spare = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.writer = new Thread(this::writeLoop, "conversion-journal");
+        this.writer.setDaemon(true);
+    }
+
+    // Opens the journal in 'directory', creating it if needed, and recovers
+    // the end of the last segment
+    public static ConversionJournal open(Path directory, CurrencyRegistry registry, int recordsPerSegment,
+                                         SyncPolicy syncPolicy, Duration syncInterval) throws IOException {
+        if (recordsPerSegment <= 0 || recordsPerSegment > (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES) {
+            throw new IllegalArgumentException("Invalid records per segment: " + recordsPerSegment);
+        }
+        Files.createDirectories(directory);
+        ConversionJournal journal = new ConversionJournal(directory, registry, recordsPerSegment, syncPolicy, syncInterval);
+        journal.recover();
+        journal.writer.start();
+        return journal;
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    // Sequence number the next appended record will get; also the number of
+    // records ever appended
+    public long nextSequence() {
+        lock.lock();
+        try {
+            return nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Queues one record and returns its sequence number. Never touches the
+    // disk; after close() the record is dropped and -1 is returned.
+    public long append(long timestampMillis, int fromId, int toId, double amount, double result,
+                       double rate, long rateVersion) {
+        String from = registry.code(fromId);
+        String to = registry.code(toId);
+        lock.lock();
+        try {
+            while (!closed && active.remaining() < RECORD_BYTES) {
+                hasSpace.awaitUninterruptibly();
+            }
+            if (closed) {
+                return -1;
+            }
+            ByteBuffer buffer = active;
+            boolean wasEmpty = buffer.position() == 0;
+            buffer.putLong(timestampMillis)
+                .putLong(rateVersion)
+                .putDouble(amount)
+                .putDouble(result)
+                .putDouble(rate)
+                .put((byte) from.charAt(0)).put((byte) from.charAt(1)).put((byte) from.charAt(2))
+                .put((byte) to.charAt(0)).put((byte) to.charAt(1)).put((byte) to.charAt(2))
+                .putShort((short) 0)
+                .putInt(RECORD_MARKER)
+                .putInt(0); // checksum, filled in by the writer
+            if (wasEmpty) {
+                hasRecords.signal();
+            }
+            return nextSequence++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits until every record appended so far is written, and forced to disk
+    // unless the sync policy is NEVER
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            long target = nextSequence;
+            flushRequested = Math.max(flushRequested, target);
+            hasRecords.signal();
+            while (writtenSequence < target && failure == null && writer.isAlive()) {
+                written.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Visits the records on disk with a sequence number of at least
+    // 'fromSequence', oldest first. Records for currencies that are no longer
+    // registered are skipped. Call flush() first to include recent appends.
+    public void replay(long fromSequence, ConversionHistory.Visitor visitor) throws IOException {
+        byte[] codes = new byte[6];
+        for (Path file : segments()) {
+            long first = firstSequence(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                int version = version(readHeader(channel), first);
+                if (version < 0) {
+                    LOG.log(System.Logger.Level.WARNING, "Skipping unreadable journal segment " + file);
+                    continue;
+                }
+                int recordBytes = recordBytes(version);
+                long count = Math.max(0, (channel.size() - HEADER_BYTES) / recordBytes);
+                if (first + count <= fromSequence || count == 0) {
+                    continue;
+                }
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + count * recordBytes);
+                mapped.order(ByteOrder.LITTLE_ENDIAN);
+                CRC32C check = new CRC32C();
+                int codesAt = version == V1 ? 32 : 40;
+                for (long k = Math.max(0, fromSequence - first); k < count; k++) {
+                    int at = (int) (HEADER_BYTES + k * recordBytes);
+                    if (!validRecord(mapped, at, recordBytes, check)) {
+                        LOG.log(System.Logger.Level.WARNING, "Stopping replay of " + file + " at damaged record " + (first + k));
+                        break;
+                    }
+                    mapped.get(at + codesAt, codes);
+                    int fromId = registry.id(codes, 0);
+                    int toId = registry.id(codes, 3);
+                    if (fromId >= 0 && toId >= 0) {
+                        double amount = mapped.getDouble(at + 16);
+                        double result = mapped.getDouble(at + 24);
+                        double rate = version == V1 ? result / amount : mapped.getDouble(at + 32);
+                        visitor.visit(mapped.getLong(at), fromId, toId, amount, result, rate, mapped.getLong(at + 8));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            hasRecords.signal();
+            hasSpace.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            long batchEnd;
+            boolean syncNow;
+            boolean last;
+            lock.lock();
+            try {
+                while (active.position() == 0 && !closed && flushRequested <= writtenSequence) {
+                    if (dirty && syncPolicy == SyncPolicy.INTERVAL) {
+                        long wait = syncIntervalNanos - (System.nanoTime() - lastSyncNanos);
+                        if (wait <= 0) {
+                            break;
+                        }
+                        try {
+                            hasRecords.awaitNanos(wait);
+                        } catch (InterruptedException e) {
+                            // Not interrupted by this class; finish up as if closed
+                            closed = true;
+                        }
+                    } else {
+                        hasRecords.awaitUninterruptibly();
+                    }
+                }
+                ByteBuffer full = active;
+                active = spare;
+                spare = full;
+                batchEnd = nextSequence;
+                syncNow = flushRequested > writtenSequence;
+                last = closed;
+                hasSpace.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                spare.flip();
+                writeBatch(spare, batchEnd - spare.remaining() / RECORD_BYTES);
+                spare.clear();
+                maybeSync(syncNow || last);
+            } catch (IOException e) {
+                error = e;
+                spare.clear();
+                LOG.log(System.Logger.Level.WARNING, "Could not write conversion journal in " + directory, e);
+            }
+
+            lock.lock();
+            try {
+                writtenSequence = batchEnd;
+                if (error != null && failure == null) {
+                    failure = error;
+                }
+                written.signalAll();
+                if (last && active.position() == 0) {
+                    closeSegment();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Checksums the batch and writes it, rolling over to new segments as they fill
+    private void writeBatch(ByteBuffer batch, long firstSequence) throws IOException {
+        for (int at = 0; at < batch.limit(); at += RECORD_BYTES) {
+            crc.reset();
+            crc.update(batch.duplicate().position(at).limit(at + RECORD_BYTES - 4));
+            batch.putInt(at + RECORD_BYTES - 4, (int) crc.getValue());
+        }
+        long sequence = firstSequence;
+        while (batch.hasRemaining()) {
+            if (segment == null || segmentRecords >= recordsPerSegment) {
+                startSegment(sequence);
+            }
+            int records = Math.min(recordsPerSegment - segmentRecords, batch.remaining() / RECORD_BYTES);
+            ByteBuffer slice = batch.duplicate().limit(batch.position() + records * RECORD_BYTES);
+            while (slice.hasRemaining()) {
+                segment.write(slice);
+            }
+            batch.position(slice.position());
+            segmentRecords += records;
+            sequence += records;
+            dirty = true;
+        }
+    }
+
+    private void maybeSync(boolean requested) throws IOException {
+        if (segment == null || !dirty || syncPolicy == SyncPolicy.NEVER) {
+            return;
+        }
+        if (requested || syncPolicy == SyncPolicy.EVERY_BATCH
+                || System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+            segment.force(false);
+            dirty = false;
+            lastSyncNanos = System.nanoTime();
+        }
+    }
+
+    private void startSegment(long firstSequence) throws IOException {
+        if (segment != null) {
+            if (syncPolicy != SyncPolicy.NEVER) {
+                segment.force(false);
+            }
+            segment.close();
+        }
+        Path file = directory.resolve(segmentName(firstSequence));
+        segment = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort(FORMAT_VERSION).putShort((short) 0).putLong(firstSequence).flip();
+        while (header.hasRemaining()) {
+            segment.write(header);
+        }
+        if (syncPolicy != SyncPolicy.NEVER) {
+            // Make the new file itself durable, not just its contents
+            try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+                dir.force(true);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Not supported on every platform
+            }
+        }
+        segmentRecords = 0;
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            if (syncPolicy != SyncPolicy.NEVER && dirty) {
+                segment.force(false);
+            }
+            segment.close();
+        } catch (IOException e) {
+            LOG.log(System.Logger.Level.WARNING, "Could not close conversion journal segment", e);
+        }
+        segment = null;
+    }
+
+    // Finds the next sequence number and reopens the last segment for
+    // appending, cutting off a torn or damaged tail. A last segment of an
+    // older format is cut back the same way but left closed, so that the
+    // next record starts a segment of the current format.
+    private void recover() throws IOException {
+        List<Path> files = segments();
+        while (!files.isEmpty()) {
+            Path last = files.get(files.size() - 1);
+            long first = firstSequence(last);
+            FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            ByteBuffer header = readHeader(channel);
+            if (header.hasRemaining() || header.getInt(0) == 0) {
+                // Crashed while creating the segment: nothing in it is usable
+                channel.close();
+                LOG.log(System.Logger.Level.WARNING, "Removing incomplete journal segment " + last);
+                Files.delete(last);
+                files.remove(files.size() - 1);
+                continue;
+            }
+            int version = version(header, first);
+            if (version < 0) {
+                channel.close();
+                throw new IOException("Not a journal segment of format version " + FORMAT_VERSION
+                    + " or older: " + last);
+            }
+            int recordBytes = recordBytes(version);
+            long count = (size - HEADER_BYTES) / recordBytes;
+            long valid = 0;
+            if (count > 0) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + count * recordBytes);
+                mapped.order(ByteOrder.LITTLE_ENDIAN);
+                CRC32C check = new CRC32C();
+                while (valid < count && validRecord(mapped, (int) (HEADER_BYTES + valid * recordBytes), recordBytes, check)) {
+                    valid++;
+                }
+            }
+            long validSize = HEADER_BYTES + valid * recordBytes;
+            if (validSize != size) {
+                LOG.log(System.Logger.Level.WARNING, "Truncating journal segment " + last + " from "
+                    + size + " to " + validSize + " bytes after an incomplete write");
+                channel.truncate(validSize);
+                channel.force(true);
+            }
+            nextSequence = first + valid;
+            if (version != FORMAT_VERSION) {
+                channel.close();
+                if (valid == 0) {
+                    // The new segment takes its name
+                    Files.delete(last);
+                }
+                LOG.log(System.Logger.Level.INFO, "Journal segment " + last + " is of format version " + version
+                    + ", starting a new segment at record " + nextSequence);
+                writtenSequence = nextSequence;
+                return;
+            }
+            channel.position(validSize);
+            segment = channel;
+            segmentRecords = (int) valid;
+            writtenSequence = nextSequence;
+            return;
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read the whole header
+        }
+        return header;
+    }
+
+    // The format version of a segment header, or -1 if it is not a header
+    // this class can read
+    private static int version(ByteBuffer header, long firstSequence) {
+        if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getLong(8) != firstSequence) {
+            return -1;
+        }
+        short version = header.getShort(4);
+        return version == FORMAT_VERSION || version == V1 ? version : -1;
+    }
+
+    private static int recordBytes(int version) {
+        return version == V1 ? V1_RECORD_BYTES : RECORD_BYTES;
+    }
+
+    private static boolean validRecord(ByteBuffer buffer, int at, int recordBytes, CRC32C check) {
+        if (buffer.getInt(at + recordBytes - 8) != RECORD_MARKER) {
+            return false;
+        }
+        check.reset();
+        check.update(buffer.duplicate().position(at).limit(at + recordBytes - 4));
+        return (int) check.getValue() == buffer.getInt(at + recordBytes - 4);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                if (firstSequence(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        // Fixed-width names sort by sequence
+        Collections.sort(files);
+        return files;
+    }
+
+    private static String segmentName(long firstSequence) {
+        return String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX);
+    }
+
+    private static long firstSequence(Path file) {
+        String name = file.getFileName().toString();
+        if (name.length() != PREFIX.length() + 20 + SUFFIX.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), PREFIX.length() + 20));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package currency;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Headless HTTP front end to a ConversionEngine.
+//
+// Endpoints, answering JSON apart from /metrics:
+//   GET  /convert?from=USD&to=EUR&amount=100
+//   POST /convert/batch   body: one "FROM,TO,AMOUNT" line per conversion
+//   GET  /rates           the current snapshot, USD based
+//   GET  /rates/stream    rate changes as server-sent events, see RateChangeStream
+//   GET  /metrics         Metrics.dump(), as plain text
+//
+// Runs on the JDK HttpServer with one virtual thread per request when the
+// runtime has them (Java 21+) and a cached pool of platform threads before
+// that. Requests price against the engine's current snapshot, so the server
+// shares its rate table with the rest of the application and a refresh shows
+// up on the next request. A batch is priced against a single snapshot. When
+// the engine refuses stale rates the server answers 503.
+public final class ConversionServer implements AutoCloseable {
+
+    public static final int MAX_BATCH_ROWS = 100_000;
+    private static final int MAX_BODY_BYTES = 4 << 20;
+    private static final long STREAM_KEEPALIVE_SECONDS = 15;
+
+    private static final System.Logger LOG = System.getLogger(ConversionServer.class.getName());
+    private static final LatencyHistogram REQUEST = Metrics.histogram("http.request");
+    private static final Metrics.Counter CONVERSIONS = Metrics.conversions("http");
+
+    static {
+        // The JDK server closes keep-alive connections beyond 200 idle ones,
+        // which turns every request from a large client pool into a new
+        // connection. Read once, when the first HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", "16384");
+        }
+    }
+
+    private final ConversionEngine engine;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private volatile RatesBody ratesBody;  // /rates response of the last snapshot asked for
+    private final RateChangeStream rateChanges;
+
+    private static final class RatesBody {
+        final RateSnapshot snapshot;
+        final byte[] json;
+
+        RatesBody(RateSnapshot snapshot, byte[] json) {
+            this.snapshot = snapshot;
+            this.json = json;
+        }
+    }
+
+    private ConversionServer(ConversionEngine engine, HttpServer server) {
+        this.engine = engine;
+        this.server = server;
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : newPlatformThreadExecutor();
+        this.rateChanges = new RateChangeStream(engine);
+    }
+
+    // Binds to 'address' and starts serving. A backlog of 0 uses the system
+    // default; many concurrent clients connecting at once need a larger one.
+    public static ConversionServer start(ConversionEngine engine, InetSocketAddress address, int backlog)
+            throws IOException {
+        ConversionServer conversionServer = new ConversionServer(engine, HttpServer.create(address, backlog));
+        HttpServer server = conversionServer.server;
+        server.createContext("/convert", conversionServer.handler("/convert", "GET", conversionServer::convert));
+        server.createContext("/convert/batch", conversionServer.handler("/convert/batch", "POST", conversionServer::convertBatch));
+        server.createContext("/rates", conversionServer.handler("/rates", "GET", conversionServer::rates));
+        server.createContext("/rates/stream", conversionServer::streamRates);
+        server.createContext("/metrics", conversionServer.handler("/metrics", "GET",
+            exchange -> Metrics.dump().getBytes(StandardCharsets.UTF_8)));
+        server.setExecutor(conversionServer.executor);
+        server.start();
+        return conversionServer;
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    // Whether requests run on virtual threads
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Ends the rate streams, stops accepting connections, gives in-flight
+    // requests up to a second to finish, then stops the request threads
+    @Override
+    public void close() {
+        rateChanges.close();
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Endpoint {
+        byte[] handle(HttpExchange exchange) throws IOException;
+    }
+
+    private HttpHandler handler(String path, String method, Endpoint endpoint) {
+        String contentType = path.equals("/metrics") ? "text/plain; charset=utf-8" : "application/json";
+        return exchange -> {
+            long start = Metrics.now();
+            try (exchange) {
+                int status = 200;
+                byte[] body;
+                try {
+                    if (!exchange.getRequestURI().getPath().equals(path)) {
+                        status = 404;
+                        body = error("Not found: " + exchange.getRequestURI().getPath());
+                    } else if (!exchange.getRequestMethod().equals(method)) {
+                        status = 405;
+                        exchange.getResponseHeaders().set("Allow", method);
+                        body = error(method + " only");
+                    } else {
+                        body = endpoint.handle(exchange);
+                    }
+                } catch (StaleRatesException e) {
+                    status = 503;
+                    body = error(e.getMessage());
+                } catch (IllegalArgumentException e) {
+                    status = 400;
+                    body = error(e.getMessage());
+                } catch (RuntimeException e) {
+                    LOG.log(System.Logger.Level.WARNING, "Request to " + path + " failed", e);
+                    status = 500;
+                    body = error("Internal error");
+                }
+                exchange.getResponseHeaders().set("Content-Type", status == 200 ? contentType : "application/json");
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            REQUEST.recordSince(start);
+        };
+    }
+
+    private byte[] convert(HttpExchange exchange) {
+        String from = null;
+        String to = null;
+        String amountText = null;
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int eq = parameter.indexOf('=');
+                String name = eq < 0 ? parameter : parameter.substring(0, eq);
+                String value = eq < 0 ? "" : URLDecoder.decode(parameter.substring(eq + 1), StandardCharsets.UTF_8);
+                switch (name) {
+                    case "from": from = value; break;
+                    case "to": to = value; break;
+                    case "amount": amountText = value; break;
+                    default: break;
+                }
+            }
+        }
+        int fromId = currency("from", from);
+        int toId = currency("to", to);
+        double amount = amount(amountText);
+        RateSnapshot rates = engine.checkedSnapshot();
+        double rate = rates.rate(fromId, toId);
+        CONVERSIONS.increment();
+        StringBuilder json = new StringBuilder(160)
+            .append("{\"from\":\"").append(engine.currencyCode(fromId))
+            .append("\",\"to\":\"").append(engine.currencyCode(toId))
+            .append("\",\"amount\":").append(amount)
+            .append(",\"result\":").append(rates.convert(fromId, toId, amount))
+            .append(",\"rate\":").append(rate)
+            .append(",\"rateVersion\":").append(rates.version())
+            .append(",\"stale\":").append(engine.isStale())
+            .append('}');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] convertBatch(HttpExchange exchange) throws IOException {
+        String body = readBody(exchange.getRequestBody());
+        int[] fromIds = new int[64];
+        int[] toIds = new int[64];
+        double[] amounts = new double[64];
+        int rows = 0;
+        int lineNumber = 0;
+        for (int start = 0; start < body.length(); ) {
+            int end = body.indexOf('\n', start);
+            if (end < 0) {
+                end = body.length();
+            }
+            String line = body.substring(start, end).trim();
+            start = end + 1;
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (rows == MAX_BATCH_ROWS) {
+                throw new IllegalArgumentException("Batch is limited to " + MAX_BATCH_ROWS + " conversions");
+            }
+            if (rows == amounts.length) {
+                fromIds = Arrays.copyOf(fromIds, rows * 2);
+                toIds = Arrays.copyOf(toIds, rows * 2);
+                amounts = Arrays.copyOf(amounts, rows * 2);
+            }
+            int first = line.indexOf(',');
+            int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+            if (second < 0 || line.indexOf(',', second + 1) >= 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": expected FROM,TO,AMOUNT");
+            }
+            try {
+                fromIds[rows] = currency("from", line.substring(0, first).trim());
+                toIds[rows] = currency("to", line.substring(first + 1, second).trim());
+                amounts[rows] = amount(line.substring(second + 1).trim());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage());
+            }
+            rows++;
+        }
+        double[] results = new double[rows];
+        RateSnapshot rates = engine.checkedSnapshot();
+        BatchConverter.convert(rates, Arrays.copyOf(fromIds, rows), Arrays.copyOf(toIds, rows),
+            Arrays.copyOf(amounts, rows), results);
+        CONVERSIONS.add(rows);
+        StringBuilder json = new StringBuilder(48 + rows * 20)
+            .append("{\"rateVersion\":").append(rates.version())
+            .append(",\"stale\":").append(engine.isStale())
+            .append(",\"results\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(results[i]);
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] rates(HttpExchange exchange) {
+        RateSnapshot rates = engine.checkedSnapshot();
+        RatesBody cached = ratesBody;
+        if (cached != null && cached.snapshot == rates) {
+            return cached.json;
+        }
+        StringBuilder json = new StringBuilder(64 + rates.currencyCount() * 24)
+            .append("{\"version\":").append(rates.version())
+            .append(",\"timestamp\":").append(rates.timestampMillis())
+            .append(",\"base\":\"USD\",\"rates\":{");
+        for (int id = 0; id < rates.currencyCount(); id++) {
+            if (id > 0) {
+                json.append(',');
+            }
+            json.append('"').append(engine.currencyCode(id)).append("\":").append(rates.usdRate(id));
+        }
+        byte[] body = json.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+        ratesBody = new RatesBody(rates, body);
+        return body;
+    }
+
+    // Holds the request thread for as long as the client listens. The
+    // subscription delivers on this thread, so a client that reads slowly
+    // blocks its own writes and its changes coalesce in the meantime; an
+    // idle stream gets a comment line every STREAM_KEEPALIVE_SECONDS, which
+    // is also how a client that went away is noticed.
+    private void streamRates(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestURI().getPath().equals("/rates/stream")) {
+                byte[] body = error("Not found: " + exchange.getRequestURI().getPath());
+                exchange.sendResponseHeaders(404, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("GET")) {
+                byte[] body = error("GET only");
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            BlockingQueue<Runnable> deliveries = new LinkedBlockingQueue<>();
+            EventWriter writer = new EventWriter(out);
+            rateChanges.subscribe(writer, deliveries::add);
+            try {
+                while (!writer.finished) {
+                    Runnable delivery = deliveries.poll(STREAM_KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+                    if (delivery != null) {
+                        delivery.run();
+                    } else {
+                        writer.keepAlive();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writer.cancel();
+            }
+        }
+    }
+
+    // Writes each change as one "rate" event, asking for the next once written
+    private static final class EventWriter implements Flow.Subscriber<RateChangeStream.RateChange> {
+        private final OutputStream out;
+        private Flow.Subscription subscription;
+        private boolean finished;
+
+        EventWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(RateChangeStream.RateChange change) {
+            StringBuilder event = new StringBuilder(128)
+                .append("event: rate\ndata: {\"currency\":\"").append(change.code())
+                .append("\",\"previous\":");
+            if (Double.isNaN(change.previousUsdRate())) {
+                event.append("null");
+            } else {
+                event.append(change.previousUsdRate());
+            }
+            event.append(",\"rate\":").append(change.usdRate())
+                .append(",\"version\":").append(change.version())
+                .append(",\"timestamp\":").append(change.timestampMillis())
+                .append("}\n\n");
+            write(event.toString());
+            if (!finished) {
+                subscription.request(1);
+            }
+        }
+
+        void keepAlive() {
+            write(": keep-alive\n\n");
+        }
+
+        private void write(String text) {
+            try {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                // The client went away
+                finished = true;
+            }
+        }
+
+        void cancel() {
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            finished = true;
+        }
+
+        @Override
+        public void onComplete() {
+            finished = true;
+        }
+    }
+
+    private int currency(String parameter, String code) {
+        if (code == null || code.isEmpty()) {
+            throw new IllegalArgumentException("Missing '" + parameter + "' currency");
+        }
+        int id = engine.currencyId(code.toUpperCase(Locale.ROOT));
+        if (id < 0) {
+            throw new IllegalArgumentException("Unsupported currency: " + code);
+        }
+        return id;
+    }
+
+    private static double amount(String text) {
+        if (text == null || text.isEmpty()) {
+            throw new IllegalArgumentException("Missing amount");
+        }
+        double amount;
+        try {
+            amount = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + text);
+        }
+        if (!Double.isFinite(amount)) {
+            throw new IllegalArgumentException("Amount must be finite: " + text);
+        }
+        return amount;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] error(String message) {
+        StringBuilder json = new StringBuilder(message.length() + 16).append("{\"error\":\"");
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively
+    // because the project still targets Java 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadExecutor() {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "conversion-http-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,189 @@
+package currency;
+
+import java.util.Arrays;
+
+// Running conversion statistics, updated as conversions happen.
+//
+// Counters live in primitive arrays indexed by currency id (and by
+// from * size + to for pairs), and the most used currencies and pairs are
+// kept in small heaps that are adjusted on every update, so reading the top
+// K costs a sort of K entries, however many conversions were recorded.
+public final class ConversionStatistics implements ConversionHistory.Visitor {
+
+    private final int size;
+    private final long[] currencyCounts;  // conversions from or to the currency
+    private final long[] pairCounts;      // [from * size + to]
+    private final double[] volumes;       // amount converted from plus result received in the currency
+    private final TopK topCurrencies;
+    private final TopK topPairs;
+    private long total;
+
+    public ConversionStatistics(int currencyCount, int topK) {
+        this.size = currencyCount;
+        this.currencyCounts = new long[currencyCount];
+        this.pairCounts = new long[currencyCount * currencyCount];
+        this.volumes = new double[currencyCount];
+        this.topCurrencies = new TopK(Math.min(topK, currencyCount), currencyCounts);
+        this.topPairs = new TopK(Math.min(topK, pairCounts.length), pairCounts);
+    }
+
+    public synchronized void record(int fromId, int toId, double amount, double result) {
+        total++;
+        currencyCounts[fromId]++;
+        topCurrencies.increased(fromId);
+        if (toId != fromId) {
+            currencyCounts[toId]++;
+            topCurrencies.increased(toId);
+        }
+        int pair = fromId * size + toId;
+        pairCounts[pair]++;
+        topPairs.increased(pair);
+        volumes[fromId] += amount;
+        volumes[toId] += result;
+    }
+
+    // Lets the statistics be fed from a history or journal replay
+    @Override
+    public void visit(long timestampMillis, int fromId, int toId, double amount, double result,
+                      double rate, long rateVersion) {
+        record(fromId, toId, amount, result);
+    }
+
+    public synchronized long totalConversions() {
+        return total;
+    }
+
+    public synchronized long conversions(int currencyId) {
+        return currencyCounts[currencyId];
+    }
+
+    public synchronized long pairConversions(int fromId, int toId) {
+        return pairCounts[fromId * size + toId];
+    }
+
+    public synchronized double volume(int currencyId) {
+        return volumes[currencyId];
+    }
+
+    // Fills 'ids' with the most used currencies, most used first, and returns
+    // how many were filled
+    public synchronized int topCurrencies(int[] ids) {
+        return topCurrencies.sorted(ids);
+    }
+
+    // Fills the arrays with the most converted pairs, most converted first,
+    // and returns how many were filled
+    public synchronized int topPairs(int[] fromIds, int[] toIds) {
+        int[] pairs = new int[Math.min(fromIds.length, toIds.length)];
+        int n = topPairs.sorted(pairs);
+        for (int i = 0; i < n; i++) {
+            fromIds[i] = pairs[i] / size;
+            toIds[i] = pairs[i] % size;
+        }
+        return n;
+    }
+
+    public synchronized void clear() {
+        total = 0;
+        Arrays.fill(currencyCounts, 0);
+        Arrays.fill(pairCounts, 0);
+        Arrays.fill(volumes, 0);
+        topCurrencies.clear();
+        topPairs.clear();
+    }
+
+    // Min-heap of the K keys with the highest counts. Counts only grow, so a
+    // key already in the heap just sinks, and a key outside it can only enter
+    // by displacing the smallest.
+    private static final class TopK {
+
+        private final long[] counts;
+        private final int[] heap;
+        private final int[] slotOf;  // heap position of each key, -1 if absent
+        private int size;
+
+        TopK(int k, long[] counts) {
+            this.counts = counts;
+            this.heap = new int[k];
+            this.slotOf = new int[counts.length];
+            Arrays.fill(slotOf, -1);
+        }
+
+        void increased(int key) {
+            int slot = slotOf[key];
+            if (slot >= 0) {
+                siftDown(slot);
+            } else if (size < heap.length) {
+                heap[size] = key;
+                slotOf[key] = size;
+                siftUp(size++);
+            } else if (heap.length > 0 && counts[key] > counts[heap[0]]) {
+                slotOf[heap[0]] = -1;
+                heap[0] = key;
+                slotOf[key] = 0;
+                siftDown(0);
+            }
+        }
+
+        // K is small, so an insertion sort of the heap is enough
+        int sorted(int[] out) {
+            int[] keys = Arrays.copyOf(heap, size);
+            for (int i = 1; i < size; i++) {
+                int key = keys[i];
+                int j = i - 1;
+                while (j >= 0 && counts[keys[j]] < counts[key]) {
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                keys[j + 1] = key;
+            }
+            int n = Math.min(out.length, size);
+            System.arraycopy(keys, 0, out, 0, n);
+            return n;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                slotOf[heap[i]] = -1;
+            }
+            size = 0;
+        }
+
+        private void siftUp(int slot) {
+            int key = heap[slot];
+            while (slot > 0) {
+                int parent = (slot - 1) >>> 1;
+                if (counts[heap[parent]] <= counts[key]) {
+                    break;
+                }
+                move(heap[parent], slot);
+                slot = parent;
+            }
+            move(key, slot);
+        }
+
+        private void siftDown(int slot) {
+            int key = heap[slot];
+            while (true) {
+                int child = 2 * slot + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                    child++;
+                }
+                if (counts[key] <= counts[heap[child]]) {
+                    break;
+                }
+                move(heap[child], slot);
+                slot = child;
+            }
+            move(key, slot);
+        }
+
+        private void move(int key, int slot) {
+            heap[slot] = key;
+            slotOf[key] = slot;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package currency;
+
+import java.util.Arrays;
+
+// Interned ISO 4217 currency codes mapped to small, dense int ids.
+//
+// A three letter code is packed into an index in [0, 26^3) and looked up in a
+// flat table, so resolving a code needs neither a String hash nor boxing. The
+// same lookup works directly on bytes, e.g. while scanning an HTTP response.
+public final class CurrencyRegistry {
+
+    private static final int KEY_SPACE = 26 * 26 * 26;
+
+    // id + 1 for each packed code, 0 when the code is unknown
+    private final short[] idByKey = new short[KEY_SPACE];
+    private String[] codes = new String[0];
+    private byte[] minorDigits = new byte[0];
+
+    // Returns the id of the code, registering it if it is new
+    public int intern(String code) {
+        int key = key(code);
+        if (key < 0) {
+            throw new IllegalArgumentException("Not an ISO 4217 currency code: " + code);
+        }
+        int id = idByKey[key] - 1;
+        if (id >= 0) {
+            return id;
+        }
+        id = codes.length;
+        if (id >= Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many currencies");
+        }
+        codes = Arrays.copyOf(codes, id + 1);
+        codes[id] = code.intern();
+        minorDigits = Arrays.copyOf(minorDigits, id + 1);
+        minorDigits[id] = (byte) isoMinorDigits(code);
+        idByKey[key] = (short) (id + 1);
+        return id;
+    }
+
+    // Returns the id of the code, or -1 if it is not registered
+    public int id(CharSequence code) {
+        int key = key(code);
+        return key < 0 ? -1 : idByKey[key] - 1;
+    }
+
+    // Returns the id of the three ASCII bytes at offset, or -1 if not registered
+    public int id(byte[] buf, int offset) {
+        int key = key(buf[offset], buf[offset + 1], buf[offset + 2]);
+        return key < 0 ? -1 : idByKey[key] - 1;
+    }
+
+    public String code(int id) {
+        return codes[id];
+    }
+
+    // ISO 4217 exponent: number of digits after the decimal point of the minor unit
+    public int minorDigits(int id) {
+        return minorDigits[id];
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    private static int isoMinorDigits(String code) {
+        switch (code) {
+            case "BIF": case "CLP": case "DJF": case "GNF": case "ISK":
+            case "JPY": case "KMF": case "KRW": case "PYG": case "RWF":
+            case "UGX": case "UYI": case "VND": case "VUV": case "XAF":
+            case "XOF": case "XPF":
+                return 0;
+            case "BHD": case "IQD": case "JOD": case "KWD": case "LYD":
+            case "OMR": case "TND":
+                return 3;
+            case "CLF": case "UYW":
+                return 4;
+            default:
+                return 2;
+        }
+    }
+
+    private static int key(CharSequence code) {
+        if (code == null || code.length() != 3) {
+            return -1;
+        }
+        return key(code.charAt(0), code.charAt(1), code.charAt(2));
+    }
+
+    private static int key(int c0, int c1, int c2) {
+        int a = c0 - 'A';
+        int b = c1 - 'A';
+        int c = c2 - 'A';
+        // Reject anything outside A-Z
+        if ((a | b | c) < 0 || a >= 26 || b >= 26 || c >= 26) {
+            return -1;
+        }
+        return (a * 26 + b) * 26 + c;
+    }
+}
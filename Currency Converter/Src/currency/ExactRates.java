@@ -0,0 +1,166 @@
+package currency;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+// Exact conversion in minor units (cents, yen, fils, ...) for accounting.
+//
+// Every cross rate of a snapshot is fixed once as a scaled integer with
+// RATE_DIGITS significant digits: rate = mantissa / 10^exponent. Converting
+// an amount in minor units of 'from' is then
+//
+//   amountMinor * mantissa / 10^(exponent + digits(from) - digits(to))
+//
+// rounded to a whole minor unit of 'to' with the requested RoundingMode,
+// where digits() is the ISO 4217 exponent (JPY 0, USD 2, KWD 3). When the
+// product fits in a long this is integer arithmetic only; otherwise the same
+// formula is evaluated with BigDecimal, so both paths give identical results.
+public final class ExactRates {
+
+    public static final int RATE_DIGITS = 10;
+    private static final MathContext RATE_CONTEXT = new MathContext(RATE_DIGITS);
+
+    private static final long[] POW10 = new long[19];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final long version;
+    private final int size;
+    private final long[] mantissas;  // [from * size + to]
+    private final int[] exponents;   // decimal exponent of each rate
+    private final int[] shifts;      // exponent + digits(from) - digits(to)
+    private final int[] minorDigits;
+
+    private ExactRates(RateSnapshot snapshot, CurrencyRegistry registry) {
+        this.version = snapshot.version();
+        this.size = snapshot.currencyCount();
+        this.mantissas = new long[size * size];
+        this.exponents = new int[size * size];
+        this.shifts = new int[size * size];
+        this.minorDigits = new int[size];
+        for (int id = 0; id < size; id++) {
+            minorDigits[id] = registry.minorDigits(id);
+        }
+        for (int from = 0; from < size; from++) {
+            for (int to = 0; to < size; to++) {
+                int i = from * size + to;
+                BigDecimal rate = from == to
+                    ? BigDecimal.ONE
+                    : new BigDecimal(snapshot.rate(from, to)).round(RATE_CONTEXT).stripTrailingZeros();
+                mantissas[i] = rate.unscaledValue().longValueExact();
+                exponents[i] = rate.scale();
+                shifts[i] = rate.scale() + minorDigits[from] - minorDigits[to];
+            }
+        }
+    }
+
+    static ExactRates of(RateSnapshot snapshot, CurrencyRegistry registry) {
+        return new ExactRates(snapshot, registry);
+    }
+
+    // Version of the snapshot these rates were fixed from
+    public long version() {
+        return version;
+    }
+
+    public int minorDigits(int id) {
+        return minorDigits[id];
+    }
+
+    // The fixed rate used for exact conversions, units of 'to' per 'from'
+    public BigDecimal rate(int fromId, int toId) {
+        int i = fromId * size + toId;
+        return BigDecimal.valueOf(mantissas[i], exponents[i]);
+    }
+
+    // Converts minor units of 'from' to minor units of 'to'. Throws
+    // ArithmeticException if the result does not fit in a long, or if the
+    // rounding mode is UNNECESSARY and the result is not exact.
+    public long convertMinor(int fromId, int toId, long amountMinor, RoundingMode rounding) {
+        int i = fromId * size + toId;
+        long mantissa = mantissas[i];
+        int shift = shifts[i];
+        if (shift >= 0 && shift < POW10.length) {
+            long high = Math.multiplyHigh(amountMinor, mantissa);
+            long low = amountMinor * mantissa;
+            if (high == (low >> 63)) {
+                return divide(low, POW10[shift], rounding);
+            }
+        } else if (shift < 0 && -shift < POW10.length) {
+            long factor = mantissa * POW10[-shift];
+            if (factor / POW10[-shift] == mantissa) {
+                long high = Math.multiplyHigh(amountMinor, factor);
+                long low = amountMinor * factor;
+                if (high == (low >> 63)) {
+                    return low;
+                }
+            }
+        }
+        // Overflow: same formula in BigDecimal
+        return BigDecimal.valueOf(amountMinor)
+            .multiply(BigDecimal.valueOf(mantissa))
+            .scaleByPowerOfTen(-shift)
+            .setScale(0, rounding)
+            .longValueExact();
+    }
+
+    // Converts an amount in major units (e.g. "12.34" USD) and returns the
+    // result at the ISO 4217 scale of 'to'. Amounts with no more decimals
+    // than 'from' has minor digits take the integer path.
+    public BigDecimal convert(int fromId, int toId, BigDecimal amount, RoundingMode rounding) {
+        int fromDigits = minorDigits[fromId];
+        int toDigits = minorDigits[toId];
+        if (amount.scale() <= fromDigits) {
+            BigDecimal minor = amount.movePointRight(fromDigits);
+            if (minor.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0
+                    && minor.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) >= 0) {
+                long result = convertMinor(fromId, toId, minor.longValueExact(), rounding);
+                return BigDecimal.valueOf(result, toDigits);
+            }
+        }
+        return amount.multiply(rate(fromId, toId)).setScale(toDigits, rounding);
+    }
+
+    // p / d rounded to an integer; d > 0
+    private static long divide(long p, long d, RoundingMode rounding) {
+        long q = p / d;
+        long r = p % d;
+        if (r == 0) {
+            return q;
+        }
+        int sign = p < 0 ? -1 : 1;
+        long twice = 2 * Math.abs(r);
+        boolean awayFromZero;
+        switch (rounding) {
+            case UP:
+                awayFromZero = true;
+                break;
+            case DOWN:
+                awayFromZero = false;
+                break;
+            case CEILING:
+                awayFromZero = sign > 0;
+                break;
+            case FLOOR:
+                awayFromZero = sign < 0;
+                break;
+            case HALF_UP:
+                awayFromZero = twice >= d;
+                break;
+            case HALF_DOWN:
+                awayFromZero = twice > d;
+                break;
+            case HALF_EVEN:
+                awayFromZero = twice > d || (twice == d && (q & 1) != 0);
+                break;
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+        return awayFromZero ? q + sign : q;
+    }
+}
@@ -0,0 +1,469 @@
+package currency;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Evaluates the calculator input of the converter.
+//
+// Grammar, over doubles:
+//   input      := expression ('in' CODE)?
+//   expression := term (('+' | '-') term)*
+//   term       := unary (('*' | '/') unary)*
+//   unary      := ('-' | '+') unary | primary
+//   primary    := (number | '(' expression ')') CODE?
+// '×' and '÷' are accepted for '*' and '/', codes are case insensitive and
+// whitespace is ignored.
+//
+// A value is either a plain number or an amount of money: "100 USD + 2500 JPY
+// - 30 EUR in GBP". Amounts can be added, subtracted, negated, scaled by a
+// plain number and divided by each other; anything else (adding a plain
+// number to an amount, multiplying two amounts) is rejected while compiling.
+// Every amount is converted to the result currency: the one after 'in', else
+// the caller's default, else the first currency in the expression.
+//
+// A recursive-descent parser reads the source once and builds a tree of
+// nodes, folding constant subexpressions and resolving currency codes to ids,
+// so evaluating a compiled expression allocates nothing. The rates it needs,
+// one per distinct currency, are read from a snapshot once and reused until
+// the snapshot or result currency changes. Compiled expressions are cached by
+// source text, as the same input is typically evaluated repeatedly while
+// typing.
+public final class ExpressionEvaluator {
+
+    private static final int CACHE_SIZE = 256;
+    private static final int MAX_DEPTH = 200;
+    private static final double[] NO_RATES = new double[0];
+    private static final LatencyHistogram COMPILE = Metrics.histogram("expression.compile");
+
+    private static final Map<String, Compiled> CACHE = new LinkedHashMap<String, Compiled>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // A parsed expression that can be evaluated any number of times
+    public static final class Compiled {
+        private final String source;
+        private final CurrencyRegistry registry;
+        private final Node root;
+        private final int[] currencies;   // distinct currency ids, indexed by rate slot
+        private final int target;         // currency after 'in', or -1
+        private final boolean money;      // false for plain numbers and ratios of amounts
+        private volatile Rates rates;     // rates of the last evaluation
+
+        Compiled(String source, CurrencyRegistry registry, Term root, int[] currencies, int target) {
+            this.source = source;
+            this.registry = registry;
+            this.root = root.node;
+            this.money = root.money;
+            this.currencies = currencies;
+            this.target = target;
+        }
+
+        public String source() {
+            return source;
+        }
+
+        public boolean hasCurrencies() {
+            return currencies.length > 0;
+        }
+
+        // Currency the result is expressed in, or -1 for a plain number
+        public int resultCurrency(int defaultCurrency) {
+            return money ? conversionCurrency(defaultCurrency) : -1;
+        }
+
+        // Currency all amounts are converted to before they are combined
+        private int conversionCurrency(int defaultCurrency) {
+            if (target >= 0) {
+                return target;
+            }
+            return defaultCurrency >= 0 ? defaultCurrency : currencies[0];
+        }
+
+        // Evaluates an expression without currency amounts
+        public double evaluate() {
+            if (currencies.length > 0) {
+                throw new ExpressionException("Exchange rates are needed to evaluate currency amounts", 0);
+            }
+            return root.eval(NO_RATES);
+        }
+
+        // Evaluates against the given rates. The result is in
+        // resultCurrency(defaultCurrency); pass -1 for no default.
+        public double evaluate(RateSnapshot snapshot, int defaultCurrency) {
+            if (currencies.length == 0) {
+                return root.eval(NO_RATES);
+            }
+            int currency = conversionCurrency(defaultCurrency);
+            Rates current = rates;
+            if (current == null || current.snapshot != snapshot || current.currency != currency) {
+                double[] factors = new double[currencies.length];
+                for (int slot = 0; slot < factors.length; slot++) {
+                    factors[slot] = snapshot.rate(currencies[slot], currency);
+                }
+                current = new Rates(snapshot, currency, factors);
+                rates = current;
+            }
+            return root.eval(current.factors);
+        }
+    }
+
+    private static final class Rates {
+        final RateSnapshot snapshot;
+        final int currency;
+        final double[] factors;  // units of the result currency per unit of each slot's currency
+
+        Rates(RateSnapshot snapshot, int currency, double[] factors) {
+            this.snapshot = snapshot;
+            this.currency = currency;
+            this.factors = factors;
+        }
+    }
+
+    interface Node {
+        double eval(double[] rates);
+    }
+
+    // A parsed subexpression and whether it is an amount of money
+    private static final class Term {
+        final Node node;
+        final boolean money;
+
+        Term(Node node, boolean money) {
+            this.node = node;
+            this.money = money;
+        }
+    }
+
+    private final String source;
+    private final CurrencyRegistry registry;
+    private int[] currencies = new int[0];
+    private int pos;
+    private int depth;
+
+    private ExpressionEvaluator(String source, CurrencyRegistry registry) {
+        this.source = source;
+        this.registry = registry;
+    }
+
+    // Throws ExpressionException for malformed input and for division by zero
+    public static double evaluate(String expression) {
+        return compile(expression).evaluate();
+    }
+
+    // Parses a plain arithmetic expression, or returns the cached result of
+    // parsing it before
+    public static Compiled compile(String expression) {
+        return compile(expression, null);
+    }
+
+    // Parses an expression that may contain amounts in the registry's
+    // currencies
+    public static Compiled compile(String expression, CurrencyRegistry registry) {
+        synchronized (CACHE) {
+            Compiled cached = CACHE.get(expression);
+            if (cached != null && cached.registry == registry) {
+                return cached;
+            }
+        }
+        long start = Metrics.now();
+        Compiled compiled = parse(expression, registry);
+        COMPILE.recordSince(start);
+        synchronized (CACHE) {
+            CACHE.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    // Parses without the cache
+    static Compiled parse(String expression, CurrencyRegistry registry) {
+        return new ExpressionEvaluator(expression, registry).parse();
+    }
+
+    private Compiled parse() {
+        skipWhitespace();
+        if (pos == source.length()) {
+            throw new ExpressionException("Empty expression", pos);
+        }
+        Term term = expression();
+        int target = -1;
+        skipWhitespace();
+        if (registry != null && pos < source.length() && isLetter(source.charAt(pos))) {
+            int at = pos;
+            String word = word();
+            if (!word.equalsIgnoreCase("in")) {
+                throw new ExpressionException("Expected an operator or 'in' before '" + word + "'", at);
+            }
+            if (!term.money) {
+                throw new ExpressionException("'in' needs an amount with a currency", at);
+            }
+            skipWhitespace();
+            target = currency();
+            skipWhitespace();
+        }
+        if (pos < source.length()) {
+            throw unexpected();
+        }
+        return new Compiled(source, registry, term, currencies, target);
+    }
+
+    private Term expression() {
+        Term left = term();
+        while (true) {
+            char op = peek();
+            if (op != '+' && op != '-') {
+                return left;
+            }
+            int at = pos++;
+            Term right = term();
+            if (left.money != right.money) {
+                throw new ExpressionException(op == '+'
+                    ? "Cannot add a plain number and an amount with a currency"
+                    : "Cannot subtract a plain number and an amount with a currency", at);
+            }
+            left = new Term(binary(op, left.node, right.node, at), left.money);
+        }
+    }
+
+    private Term term() {
+        Term left = unary();
+        while (true) {
+            char op = peek();
+            if (op == '×') {
+                op = '*';
+            } else if (op == '÷') {
+                op = '/';
+            }
+            if (op != '*' && op != '/') {
+                return left;
+            }
+            int at = pos++;
+            Term right = unary();
+            boolean money;
+            if (op == '*') {
+                if (left.money && right.money) {
+                    throw new ExpressionException("Cannot multiply two amounts with a currency", at);
+                }
+                money = left.money || right.money;
+            } else {
+                if (!left.money && right.money) {
+                    throw new ExpressionException("Cannot divide a plain number by an amount with a currency", at);
+                }
+                // amount / amount is a plain ratio
+                money = left.money && !right.money;
+            }
+            left = new Term(binary(op, left.node, right.node, at), money);
+        }
+    }
+
+    private Term unary() {
+        char c = peek();
+        if (c == '-' || c == '+') {
+            pos++;
+            enter();
+            Term operand = unary();
+            depth--;
+            if (c == '+') {
+                return operand;
+            }
+            Node node = operand.node;
+            if (node instanceof Constant) {
+                return new Term(new Constant(-((Constant) node).value), false);
+            }
+            return new Term(rates -> -node.eval(rates), operand.money);
+        }
+        return primary();
+    }
+
+    private Term primary() {
+        char c = peek();
+        Term value;
+        if (c == '(') {
+            int open = pos++;
+            enter();
+            value = expression();
+            depth--;
+            if (peek() != ')') {
+                throw pos < source.length() ? unexpected() : new ExpressionException("Unclosed '('", open);
+            }
+            pos++;
+        } else if ((c >= '0' && c <= '9') || c == '.') {
+            value = new Term(number(), false);
+        } else if (pos == source.length()) {
+            throw new ExpressionException("Unexpected end of expression", pos);
+        } else {
+            throw unexpected();
+        }
+        return currencySuffix(value);
+    }
+
+    // "100 USD": converts the amount with the rate of its slot
+    private Term currencySuffix(Term value) {
+        skipWhitespace();
+        if (registry == null || pos == source.length() || !isLetter(source.charAt(pos)) || atKeywordIn()) {
+            return value;
+        }
+        int at = pos;
+        int currency = currency();
+        if (value.money) {
+            throw new ExpressionException("Amount already has a currency", at);
+        }
+        int slot = slot(currency);
+        Node amount = value.node;
+        if (amount instanceof Constant) {
+            double constant = ((Constant) amount).value;
+            return new Term(rates -> constant * rates[slot], true);
+        }
+        return new Term(rates -> amount.eval(rates) * rates[slot], true);
+    }
+
+    private int currency() {
+        int at = pos;
+        if (registry == null) {
+            throw unexpected();
+        }
+        String code = word();
+        int id = code.length() == 3 ? registry.id(code.toUpperCase(Locale.ROOT)) : -1;
+        if (id < 0) {
+            throw new ExpressionException(code.isEmpty() ? "Expected a currency code" : "Unknown currency '" + code + "'", at);
+        }
+        return id;
+    }
+
+    private int slot(int currency) {
+        for (int slot = 0; slot < currencies.length; slot++) {
+            if (currencies[slot] == currency) {
+                return slot;
+            }
+        }
+        currencies = Arrays.copyOf(currencies, currencies.length + 1);
+        currencies[currencies.length - 1] = currency;
+        return currencies.length - 1;
+    }
+
+    private boolean atKeywordIn() {
+        int end = pos;
+        while (end < source.length() && isLetter(source.charAt(end))) {
+            end++;
+        }
+        return end - pos == 2 && source.regionMatches(true, pos, "in", 0, 2);
+    }
+
+    private String word() {
+        int start = pos;
+        while (pos < source.length() && isLetter(source.charAt(pos))) {
+            pos++;
+        }
+        return source.substring(start, pos);
+    }
+
+    private Node number() {
+        int start = pos;
+        int digits = 0;
+        while (pos < source.length() && isDigit(source.charAt(pos))) {
+            pos++;
+            digits++;
+        }
+        if (pos < source.length() && source.charAt(pos) == '.') {
+            pos++;
+            while (pos < source.length() && isDigit(source.charAt(pos))) {
+                pos++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            throw new ExpressionException("Expected a number", start);
+        }
+        if (pos < source.length() && source.charAt(pos) == '.') {
+            throw new ExpressionException("Second decimal point in number", pos);
+        }
+        return new Constant(Double.parseDouble(source.substring(start, pos)));
+    }
+
+    private Node binary(char op, Node left, Node right, int at) {
+        if (left instanceof Constant && right instanceof Constant) {
+            double a = ((Constant) left).value;
+            double b = ((Constant) right).value;
+            if (op == '/' && b == 0) {
+                throw new ExpressionException("Division by zero", at);
+            }
+            return new Constant(apply(op, a, b));
+        }
+        switch (op) {
+            case '+':
+                return rates -> left.eval(rates) + right.eval(rates);
+            case '-':
+                return rates -> left.eval(rates) - right.eval(rates);
+            case '*':
+                return rates -> left.eval(rates) * right.eval(rates);
+            default:
+                return rates -> {
+                    double divisor = right.eval(rates);
+                    if (divisor == 0) {
+                        throw new ExpressionException("Division by zero", at);
+                    }
+                    return left.eval(rates) / divisor;
+                };
+        }
+    }
+
+    private static double apply(char op, double a, double b) {
+        switch (op) {
+            case '+':
+                return a + b;
+            case '-':
+                return a - b;
+            case '*':
+                return a * b;
+            default:
+                return a / b;
+        }
+    }
+
+    private static final class Constant implements Node {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double eval(double[] rates) {
+            return value;
+        }
+    }
+
+    // Current character after whitespace, or 0 at the end
+    private char peek() {
+        skipWhitespace();
+        return pos < source.length() ? source.charAt(pos) : 0;
+    }
+
+    private void skipWhitespace() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw new ExpressionException("Expression nested too deeply", pos);
+        }
+    }
+
+    private ExpressionException unexpected() {
+        return new ExpressionException("Unexpected '" + source.charAt(pos) + "'", pos);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+}
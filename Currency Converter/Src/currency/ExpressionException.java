@@ -0,0 +1,19 @@
+package currency;
+
+// A calculator expression that does not parse or cannot be evaluated.
+// position() is the 0-based index in the source text where the problem is.
+public class ExpressionException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public ExpressionException(String message, int position) {
+        super(message + " at position " + (position + 1));
+        this.position = position;
+    }
+
+    public int position() {
+        return position;
+    }
+}
@@ -0,0 +1,242 @@
+package currency;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Writes the conversion history to CSV.
+//
+// Records are formatted straight from the history into a 1 MiB buffer that is
+// drained to a channel, so memory use does not depend on the history size.
+// Numbers and timestamps are written digit by digit instead of through
+// printf; the date part of the timestamp is formatted once per minute. The
+// history is walked in chunks, so conversions can still be recorded while a
+// large export runs. Records appended after the export started are not
+// included.
+public final class HistoryCsvExporter {
+
+    public interface Progress {
+        void exported(long records, long total);
+    }
+
+    private static final byte[] HEADER = "Timestamp,Amount,From Currency,To Currency,Result,Exchange Rate,Rate Version\n"
+        .getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter MINUTE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:");
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int CHUNK_RECORDS = 4096;
+    private static final int RATE_DIGITS = 10;
+
+    private static final LatencyHistogram EXPORT = Metrics.histogram("history.export");
+    private static final Metrics.Counter EXPORTED = Metrics.counter("history.exported");
+
+    // Longest record with the integer formatting path, plus headroom
+    private static final int MAX_FAST_RECORD = 192;
+
+    private static final long[] POW10 = new long[19];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private HistoryCsvExporter() {
+    }
+
+    // Writes the history to 'file', oldest record first, and returns the
+    // number of records written
+    public static long export(ConversionHistory history, CurrencyRegistry registry, Path file,
+                              Progress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return export(history, registry, channel, progress);
+        }
+    }
+
+    public static long export(ConversionHistory history, CurrencyRegistry registry, WritableByteChannel out,
+                              Progress progress) throws IOException {
+        long start = Metrics.now();
+        long end = history.appendedCount();
+        long sequence = Math.max(0, end - history.size());
+        long total = end - sequence;
+        RecordWriter writer = new RecordWriter(registry, out, ZoneId.systemDefault());
+        long written = 0;
+        try {
+            writer.put(HEADER);
+            while (sequence < end) {
+                long next = history.forEachSince(sequence, (int) Math.min(CHUNK_RECORDS, end - sequence), writer);
+                if (next == sequence) {
+                    break; // history was cleared
+                }
+                written += next - sequence;
+                sequence = next;
+                if (progress != null) {
+                    progress.exported(written, total);
+                }
+            }
+            writer.drain();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        EXPORT.recordSince(start);
+        EXPORTED.add(written);
+        return written;
+    }
+
+    private static final class RecordWriter implements ConversionHistory.Visitor {
+
+        private final WritableByteChannel out;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private final byte[] bytes = buffer.array();
+        private final byte[][] codes;
+        private final int[] minorDigits;
+        private final DateTimeFormatter minuteFormat;
+        private long cachedMinute = Long.MIN_VALUE;
+        private byte[] minutePrefix;
+        private int pos;
+
+        RecordWriter(CurrencyRegistry registry, WritableByteChannel out, ZoneId zone) {
+            this.out = out;
+            this.minuteFormat = MINUTE.withZone(zone);
+            this.codes = new byte[registry.size()][];
+            this.minorDigits = new int[registry.size()];
+            for (int id = 0; id < codes.length; id++) {
+                codes[id] = registry.code(id).getBytes(StandardCharsets.US_ASCII);
+                minorDigits[id] = registry.minorDigits(id);
+            }
+        }
+
+        @Override
+        public void visit(long timestampMillis, int fromId, int toId, double amount, double result,
+                          double rate, long rateVersion) {
+            try {
+                if (bytes.length - pos < MAX_FAST_RECORD) {
+                    drain();
+                }
+                writeTimestamp(timestampMillis);
+                put((byte) ',');
+                writeFixed(amount, minorDigits[fromId]);
+                put((byte) ',');
+                put(codes[fromId]);
+                put((byte) ',');
+                put(codes[toId]);
+                put((byte) ',');
+                writeFixed(result, minorDigits[toId]);
+                put((byte) ',');
+                if (rate > 0 && rate < Double.POSITIVE_INFINITY) {
+                    // Ten significant digits, however small the rate
+                    int scale = RATE_DIGITS - 1 - (int) Math.floor(Math.log10(rate));
+                    writeFixed(rate, Math.max(0, Math.min(POW10.length - 1, scale)));
+                }
+                put((byte) ',');
+                writeLong(rateVersion);
+                put((byte) '\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // yyyy-MM-dd HH:mm:ss in the local zone
+        private void writeTimestamp(long millis) {
+            long minute = Math.floorDiv(millis, 60_000L);
+            if (minute != cachedMinute) {
+                cachedMinute = minute;
+                minutePrefix = minuteFormat.format(Instant.ofEpochMilli(minute * 60_000L))
+                    .getBytes(StandardCharsets.US_ASCII);
+            }
+            System.arraycopy(minutePrefix, 0, bytes, pos, minutePrefix.length);
+            pos += minutePrefix.length;
+            int second = (int) (Math.floorMod(millis, 60_000L) / 1000);
+            bytes[pos++] = (byte) ('0' + second / 10);
+            bytes[pos++] = (byte) ('0' + second % 10);
+        }
+
+        // The value rounded half-even to 'digits' decimals, as
+        // BigDecimal.valueOf(value).setScale(digits, HALF_EVEN) would print it
+        private void writeFixed(double value, int digits) {
+            if (!Double.isFinite(value)) {
+                return;
+            }
+            double scaled = value * POW10[digits];
+            double fraction = scaled - Math.floor(scaled);
+            if (!(Math.abs(scaled) < 1e15) || Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled)) {
+                // Huge, or too close to a tie for binary arithmetic to decide
+                writeAscii(BigDecimal.valueOf(value).setScale(digits, RoundingMode.HALF_EVEN).toPlainString());
+                return;
+            }
+            long units = (long) Math.rint(scaled);
+            if (units < 0) {
+                put((byte) '-');
+                units = -units;
+            }
+            writeLong(units / POW10[digits]);
+            if (digits > 0) {
+                put((byte) '.');
+                long fractionUnits = units % POW10[digits];
+                for (int d = digits - 1; d >= 0; d--) {
+                    bytes[pos++] = (byte) ('0' + fractionUnits / POW10[d] % 10);
+                }
+            }
+        }
+
+        private void writeLong(long value) {
+            if (value < 0) {
+                if (value == Long.MIN_VALUE) {
+                    writeAscii(Long.toString(value));
+                    return;
+                }
+                put((byte) '-');
+                value = -value;
+            }
+            int start = pos;
+            do {
+                bytes[pos++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            // Digits were written backwards
+            for (int i = start, j = pos - 1; i < j; i++, j--) {
+                byte t = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = t;
+            }
+        }
+
+        private void writeAscii(String text) {
+            put(text.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void put(byte b) {
+            bytes[pos++] = b;
+        }
+
+        void put(byte[] data) {
+            if (bytes.length - pos < data.length + MAX_FAST_RECORD) {
+                try {
+                    drain();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            System.arraycopy(data, 0, bytes, pos, data.length);
+            pos += data.length;
+        }
+
+        void drain() throws IOException {
+            buffer.clear().limit(pos);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            pos = 0;
+        }
+    }
+}
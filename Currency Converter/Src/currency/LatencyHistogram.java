@@ -0,0 +1,145 @@
+package currency;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram in the style of HdrHistogram: log-linear buckets, 32 per
+// power of two, so any value from 1 ns to Long.MAX_VALUE is recorded with at
+// most ~3% relative error in a fixed 1,888 bucket array. Recording is a few
+// atomic adds and never allocates or locks; percentiles are read without
+// stopping writers, so a read taken during recording can be off by the
+// values recorded meanwhile.
+public final class LatencyHistogram implements Metrics.HistogramMXBean {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos));
+        totalNanos.add(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    // Records the time since 'start', a value from Metrics.now() or
+    // Metrics.sampledNow(); 0 means not sampled
+    public void recordSince(long start) {
+        if (Metrics.ENABLED && start != 0) {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    // Values below 2^(SUB_BITS + 1) get a bucket each; above that, the
+    // SUB_BITS bits below the highest set bit pick one of SUB_COUNT buckets
+    // per power of two
+    static int bucket(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    // Smallest value that lands in 'bucket'
+    static long lowerBound(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        return (long) (bucket % SUB_COUNT + SUB_COUNT) << shift;
+    }
+
+    // Largest value that lands in 'bucket'
+    static long upperBound(int bucket) {
+        return bucket + 1 == BUCKETS ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    // Value at quantile q (0..1) in nanoseconds: the midpoint of the bucket
+    // holding it, capped at the largest value recorded
+    public long percentile(double q) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        if (rank >= count) {
+            return max.get();
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long low = lowerBound(i);
+                return Math.min(max.get(), low + (upperBound(i) - low) / 2);
+            }
+        }
+        return max.get();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    public double meanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : totalNanos.sum() / (double) count;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return meanNanos() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return percentile(0.999) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+}
@@ -0,0 +1,222 @@
+package currency;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Process-wide metrics: counters, latency histograms and gauges, looked up
+// by name. Classes keep the handles they record into in static fields.
+//
+// Counters are LongAdders, so threads counting at once do not contend on
+// one cache line. Timing is meant for whole operations (a refresh, a parse,
+// an export, one request or batch). Paths that run per conversion use
+// sampledNow(), which reads the clock for one call in SAMPLE_EVERY: reading
+// it costs about as much as the conversion itself. -Dcurrency.metrics=false
+// turns recording into no-ops the JIT removes.
+//
+// exposeViaJmx() registers every metric, existing and future, as an MXBean
+// under currency:type=...,name=...; dump() renders them all as text.
+public final class Metrics {
+
+    public static final boolean ENABLED = !"false".equals(System.getProperty("currency.metrics"));
+    public static final int SAMPLE_EVERY = 64;
+
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    public interface GaugeMXBean {
+        long getValue();
+    }
+
+    public interface HistogramMXBean {
+        long getCount();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getP999Millis();
+
+        double getMaxMillis();
+    }
+
+    public static final class Counter implements CounterMXBean {
+        private final LongAdder count = new LongAdder();
+
+        Counter() {
+        }
+
+        public void increment() {
+            if (ENABLED) {
+                count.increment();
+            }
+        }
+
+        public void add(long n) {
+            if (ENABLED) {
+                count.add(n);
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+    }
+
+    public static final class Gauge implements GaugeMXBean {
+        private final LongSupplier value;
+
+        Gauge(LongSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public long getValue() {
+            return value.getAsLong();
+        }
+    }
+
+    private static final System.Logger LOG = System.getLogger(Metrics.class.getName());
+    private static final String CONVERSIONS = "conversions.";
+
+    // Sorted by name so the dump is stable
+    private static final ConcurrentSkipListMap<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentSkipListMap<>();
+    private static volatile MBeanServer jmx;
+    private static int ticks;   // racy on purpose; a lost tick only shifts the sample
+
+    private Metrics() {
+    }
+
+    // Start of a timed operation, for LatencyHistogram.recordSince
+    public static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    // Like now() for one call in SAMPLE_EVERY and 0 otherwise, which makes
+    // recordSince skip the recording
+    public static long sampledNow() {
+        if (!ENABLED || (++ticks & (SAMPLE_EVERY - 1)) != 0) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = COUNTERS.get(name);
+        return counter != null ? counter : create(COUNTERS, "Counter", name, new Counter());
+    }
+
+    // Conversions served through one channel ("ui", "http", "binary"),
+    // counted as "conversions.<channel>"; the gauge "conversions.total" sums
+    // every channel
+    public static Counter conversions(String channel) {
+        Counter counter = counter(CONVERSIONS + channel);
+        if (!GAUGES.containsKey(CONVERSIONS + "total")) {
+            gauge(CONVERSIONS + "total", () -> {
+                long total = 0;
+                for (Counter each : COUNTERS.subMap(CONVERSIONS, CONVERSIONS + Character.MAX_VALUE).values()) {
+                    total += each.getCount();
+                }
+                return total;
+            });
+        }
+        return counter;
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = HISTOGRAMS.get(name);
+        return histogram != null ? histogram : create(HISTOGRAMS, "Histogram", name, new LatencyHistogram(name));
+    }
+
+    // Registers or replaces the gauge under 'name'; 'value' is called on
+    // every read, from whichever thread reads
+    public static synchronized void gauge(String name, LongSupplier value) {
+        Gauge gauge = new Gauge(value);
+        Gauge previous = GAUGES.put(name, gauge);
+        if (jmx != null) {
+            if (previous != null) {
+                unregister(jmx, "Gauge", name);
+            }
+            register(jmx, "Gauge", name, gauge);
+        }
+    }
+
+    // Metrics are created once per name, usually from a static initializer
+    private static synchronized <T> T create(Map<String, T> metrics, String type, String name, T created) {
+        T existing = metrics.putIfAbsent(name, created);
+        if (existing != null) {
+            return existing;
+        }
+        if (jmx != null) {
+            register(jmx, type, name, created);
+        }
+        return created;
+    }
+
+    // Registers all metrics with the platform MBean server, including those
+    // created later
+    public static synchronized void exposeViaJmx() {
+        if (jmx != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        jmx = server;
+        COUNTERS.forEach((name, counter) -> register(server, "Counter", name, counter));
+        HISTOGRAMS.forEach((name, histogram) -> register(server, "Histogram", name, histogram));
+        GAUGES.forEach((name, gauge) -> register(server, "Gauge", name, gauge));
+    }
+
+    // One metric per line: counters and gauges as "name value", histograms as
+    // "name count=… mean=… p50=… p99=… p99.9=… max=…" in milliseconds
+    public static String dump() {
+        StringBuilder text = new StringBuilder(1024);
+        COUNTERS.forEach((name, counter) -> text.append(name).append(' ').append(counter.getCount()).append('\n'));
+        GAUGES.forEach((name, gauge) -> {
+            text.append(name).append(' ');
+            try {
+                text.append(gauge.getValue());
+            } catch (RuntimeException e) {
+                text.append("error");
+            }
+            text.append('\n');
+        });
+        HISTOGRAMS.forEach((name, histogram) -> text.append(name)
+            .append(" count=").append(histogram.getCount())
+            .append(String.format(Locale.ROOT, " mean=%.3f p50=%.3f p99=%.3f p99.9=%.3f max=%.3f ms\n",
+                histogram.getMeanMillis(), histogram.getP50Millis(), histogram.getP99Millis(),
+                histogram.getP999Millis(), histogram.getMaxMillis())));
+        return text.toString();
+    }
+
+    private static void register(MBeanServer server, String type, String name, Object metric) {
+        try {
+            server.registerMBean(metric, objectName(type, name));
+        } catch (JMException e) {
+            LOG.log(System.Logger.Level.WARNING, "Could not register metric " + name + " with JMX", e);
+        }
+    }
+
+    private static void unregister(MBeanServer server, String type, String name) {
+        try {
+            server.unregisterMBean(objectName(type, name));
+        } catch (JMException e) {
+            // not registered
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName("currency:type=" + type + ",name=" + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,228 @@
+package currency;
+
+import java.math.RoundingMode;
+
+// Prices customer conversions, compiled from PricingRules:
+//
+//   mid rate -> spread -> fee tier -> rounding
+//
+// Amounts are non-negative minor units of the source currency (a negative
+// one throws IllegalArgumentException), results minor units of the target.
+// With the spread and the minor unit scales folded into one factor per
+// pair, a conversion is
+//
+//   gross    = amount * mid(from, to) * factor(from, to)
+//   notional = amount / scale(from) / usdRate(from)        trade size in USD
+//   fee      = max(minimum, notional * percent + fixed)   of the notional's tier,
+//              in USD, then at mid and to the nearest minor unit of 'to', half up
+//   net      = gross - fee, rounded with the rules' rounding mode
+//
+// A fee larger than the trade pays out nothing and charges the gross. Every
+// table is a flat primitive array: a single conversion allocates nothing and
+// costs a few multiplications and a short tier scan, and a batch allocates
+// only two arrays of one entry per currency.
+// Immutable and safe to share between threads.
+public final class Pricer {
+
+    private static final int DOWN = 0;
+    private static final int UP = 1;
+    private static final int FLOOR = 2;
+    private static final int CEILING = 3;
+    private static final int HALF_UP = 4;
+    private static final int HALF_DOWN = 5;
+    private static final int HALF_EVEN = 6;
+    // Products a few ulps off a whole or half minor unit count as on it, so
+    // directed rounding does not lose a unit to floating point noise
+    private static final double SNAP = 1e-12;
+
+    private final int size;
+    private final double[] factors;       // [from * size + to]: (1 - spread) * scale(to) / scale(from)
+    private final short[] pairTables;     // [from * size + to]: fee table id
+    private final int[] tierStart;        // tiers of table t: [tierStart[t], tierStart[t + 1])
+    private final double[] tierFloors;
+    private final double[] tierPercents;
+    private final double[] tierFixed;
+    private final double[] minimums;      // per table
+    private final double[] minorScale;    // per currency: 10^minor digits
+    private final double[] majorPerMinor; // per currency: 1 / 10^minor digits
+    private final int rounding;
+
+    Pricer(int size, double[] keep, short[] pairTables, int[] tierStart, double[] tierFloors,
+           double[] tierPercents, double[] tierFixed, double[] minimums, double[] minorScale,
+           RoundingMode rounding) {
+        this.size = size;
+        this.pairTables = pairTables;
+        this.tierStart = tierStart;
+        this.tierFloors = tierFloors;
+        this.tierPercents = tierPercents;
+        this.tierFixed = tierFixed;
+        this.minimums = minimums;
+        this.minorScale = minorScale;
+        this.majorPerMinor = new double[size];
+        for (int id = 0; id < size; id++) {
+            majorPerMinor[id] = 1 / minorScale[id];
+        }
+        this.factors = new double[size * size];
+        for (int from = 0; from < size; from++) {
+            for (int to = 0; to < size; to++) {
+                int i = from * size + to;
+                factors[i] = keep[i] * minorScale[to] / minorScale[from];
+            }
+        }
+        this.rounding = mode(rounding);
+    }
+
+    private static int mode(RoundingMode rounding) {
+        switch (rounding) {
+            case DOWN:
+                return DOWN;
+            case UP:
+                return UP;
+            case FLOOR:
+                return FLOOR;
+            case CEILING:
+                return CEILING;
+            case HALF_UP:
+                return HALF_UP;
+            case HALF_DOWN:
+                return HALF_DOWN;
+            case HALF_EVEN:
+                return HALF_EVEN;
+            default:
+                throw new IllegalArgumentException("Unsupported rounding: " + rounding);
+        }
+    }
+
+    // Units of 'to' per 'from' the customer gets, before fees
+    public double customerRate(RateSnapshot rates, int fromId, int toId) {
+        int i = pair(rates, fromId, toId);
+        return rates.rate(fromId, toId) * factors[i] * minorScale[fromId] / minorScale[toId];
+    }
+
+    // Minor units of 'to' paid out for amountMinor of 'from', after spread
+    // and fee
+    public long priceMinor(RateSnapshot rates, int fromId, int toId, long amountMinor) {
+        checkAmount(amountMinor);
+        int i = pair(rates, fromId, toId);
+        double gross = amountMinor * rates.rate(fromId, toId) * factors[i];
+        long fee = fee(pairTables[i], amountMinor * (majorPerMinor[fromId] / rates.usdRate(fromId)),
+            rates.usdRate(toId) * minorScale[toId]);
+        return Math.max(0, round(gross - fee, rounding));
+    }
+
+    // Minor units of 'to' charged as fee on the same conversion
+    public long feeMinor(RateSnapshot rates, int fromId, int toId, long amountMinor) {
+        checkAmount(amountMinor);
+        int i = pair(rates, fromId, toId);
+        double gross = amountMinor * rates.rate(fromId, toId) * factors[i];
+        long fee = fee(pairTables[i], amountMinor * (majorPerMinor[fromId] / rates.usdRate(fromId)),
+            rates.usdRate(toId) * minorScale[toId]);
+        return round(gross - fee, rounding) < 0 ? halfUp(gross) : fee;
+    }
+
+    private static void checkAmount(long amountMinor) {
+        if (amountMinor < 0) {
+            throw new IllegalArgumentException("Negative amount: " + amountMinor);
+        }
+    }
+
+    // A currency pair per row, all against the same snapshot; feeOut may be
+    // null. Same results as priceMinor and feeMinor row by row. The per
+    // currency USD scales are worked out once per batch, which leaves no
+    // division in the loop.
+    public void priceBatch(RateSnapshot rates, int[] fromIds, int[] toIds, long[] amountsMinor,
+                           long[] netOut, long[] feeOut) {
+        int count = amountsMinor.length;
+        if (fromIds.length != count || toIds.length != count || netOut.length != count
+                || (feeOut != null && feeOut.length != count)) {
+            throw new IllegalArgumentException("Batch arrays differ in length: " + count + " amounts");
+        }
+        // Checked up front, so a bad row leaves the outputs untouched
+        for (int r = 0; r < count; r++) {
+            if (amountsMinor[r] < 0) {
+                throw new IllegalArgumentException("Negative amount in row " + r + ": " + amountsMinor[r]);
+            }
+        }
+        checkSize(rates);
+        double[] cross = rates.crossRates();
+        double[] usdPerMinor = new double[size];
+        double[] minorPerUsd = new double[size];
+        for (int id = 0; id < size; id++) {
+            usdPerMinor[id] = majorPerMinor[id] / rates.usdRate(id);
+            minorPerUsd[id] = rates.usdRate(id) * minorScale[id];
+        }
+        for (int r = 0; r < count; r++) {
+            int from = fromIds[r];
+            int to = toIds[r];
+            int i = from * size + to;
+            long amount = amountsMinor[r];
+            double gross = amount * cross[i] * factors[i];
+            long fee = fee(pairTables[i], amount * usdPerMinor[from], minorPerUsd[to]);
+            long net = round(gross - fee, rounding);
+            if (net < 0) {
+                net = 0;
+                fee = halfUp(gross);
+            }
+            netOut[r] = net;
+            if (feeOut != null) {
+                feeOut[r] = fee;
+            }
+        }
+    }
+
+    // Fee in minor units of the target for a trade of 'notional' USD; a
+    // notional a few ulps short of a floor counts as on it
+    private long fee(int table, double notional, double minorPerUsd) {
+        // Counted rather than searched: the trip count is fixed per table,
+        // so trades of mixed sizes do not mispredict the exit
+        int tier = tierStart[table];
+        int end = tierStart[table + 1];
+        double reach = notional * (1 + SNAP);
+        for (int k = tier + 1; k < end; k++) {
+            tier += tierFloors[k] <= reach ? 1 : 0;
+        }
+        double feeUsd = Math.max(minimums[table], notional * tierPercents[tier] + tierFixed[tier]);
+        return halfUp(feeUsd * minorPerUsd);
+    }
+
+    // Half up for fees, which are never negative, with the same tolerance as
+    // round(); the cast truncates, which is floor here
+    private static long halfUp(double value) {
+        return (long) (value + 0.5 + value * SNAP);
+    }
+
+    private static long round(double value, int mode) {
+        double halves = Math.rint(value * 2);
+        if (Math.abs(value * 2 - halves) <= Math.abs(value) * SNAP) {
+            value = halves / 2;
+        }
+        switch (mode) {
+            case DOWN:
+                return (long) value;
+            case UP:
+                return (long) (value < 0 ? Math.floor(value) : Math.ceil(value));
+            case FLOOR:
+                return (long) Math.floor(value);
+            case CEILING:
+                return (long) Math.ceil(value);
+            case HALF_UP:
+                return (long) (value < 0 ? Math.ceil(value - 0.5) : Math.floor(value + 0.5));
+            case HALF_DOWN:
+                return (long) (value < 0 ? Math.floor(value + 0.5) : Math.ceil(value - 0.5));
+            default:
+                return (long) Math.rint(value);
+        }
+    }
+
+    private int pair(RateSnapshot rates, int fromId, int toId) {
+        checkSize(rates);
+        return fromId * size + toId;
+    }
+
+    private void checkSize(RateSnapshot rates) {
+        if (rates.currencyCount() != size) {
+            throw new IllegalArgumentException("Snapshot has " + rates.currencyCount()
+                + " currencies, pricing rules have " + size);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package currency;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// How customer trades are priced, as set up by hand or from configuration:
+// a spread per currency pair, tiered fee tables with minimum charges, and
+// the rounding of the amount paid out. compile() turns the rules into a
+// Pricer, which prices conversions from flat primitive arrays.
+//
+// Spreads are the fraction taken off the mid rate (0.002 pays out 0.2% less
+// than mid). A fee table is a list of tiers by trade size in USD at mid: a
+// trade of notional N falls in the last tier whose floor is at most N and
+// pays N * percent + fixed, but never less than the table's minimum; fees
+// are in USD and charged in the target currency. Every pair uses the default
+// spread and table unless it has its own.
+//
+// Not thread safe; compile() once set up and share the Pricer.
+public final class PricingRules {
+
+    private final CurrencyRegistry registry;
+    private final int size;
+    private final double[] spreads;      // [from * size + to], NaN for the default
+    private final int[] tables;          // [from * size + to], -1 for the default
+    private double defaultSpread;
+    private int defaultTable;
+    private RoundingMode rounding = RoundingMode.DOWN;
+    private final List<double[]> floors = new ArrayList<>();
+    private final List<double[]> percents = new ArrayList<>();
+    private final List<double[]> fixedFees = new ArrayList<>();
+    private final List<Double> minimums = new ArrayList<>();
+
+    // Starts with no spread and a single fee table that charges nothing
+    public PricingRules(CurrencyRegistry registry) {
+        this.registry = registry;
+        this.size = registry.size();
+        spreads = new double[size * size];
+        Arrays.fill(spreads, Double.NaN);
+        tables = new int[size * size];
+        Arrays.fill(tables, -1);
+        addFeeTable(new double[] {0}, new double[] {0}, new double[] {0}, 0);
+    }
+
+    public PricingRules setSpread(double spread) {
+        defaultSpread = checkSpread(spread);
+        return this;
+    }
+
+    public PricingRules setSpread(int fromId, int toId, double spread) {
+        spreads[pair(fromId, toId)] = checkSpread(spread);
+        return this;
+    }
+
+    // Adds a fee table and returns its id. floorsUsd must start at 0 and
+    // increase; percents are fractions (0.01 is 1%).
+    public int addFeeTable(double[] floorsUsd, double[] percents, double[] fixedUsd, double minimumUsd) {
+        int tiers = floorsUsd.length;
+        if (tiers == 0 || percents.length != tiers || fixedUsd.length != tiers) {
+            throw new IllegalArgumentException("Fee tiers differ in length: " + tiers + " floors, "
+                + percents.length + " percents, " + fixedUsd.length + " fixed fees");
+        }
+        if (floorsUsd[0] != 0) {
+            throw new IllegalArgumentException("The first fee tier must start at 0: " + floorsUsd[0]);
+        }
+        for (int i = 0; i < tiers; i++) {
+            if (i > 0 && !(floorsUsd[i] > floorsUsd[i - 1])) {
+                throw new IllegalArgumentException("Fee tier floors must increase: " + Arrays.toString(floorsUsd));
+            }
+            if (!(percents[i] >= 0 && percents[i] < 1) || !(fixedUsd[i] >= 0) || Double.isInfinite(fixedUsd[i])) {
+                throw new IllegalArgumentException("Invalid fee in tier " + i + ": "
+                    + percents[i] + " and " + fixedUsd[i] + " USD");
+            }
+        }
+        if (!(minimumUsd >= 0) || Double.isInfinite(minimumUsd)) {
+            throw new IllegalArgumentException("Invalid minimum charge: " + minimumUsd);
+        }
+        floors.add(floorsUsd.clone());
+        this.percents.add(percents.clone());
+        fixedFees.add(fixedUsd.clone());
+        minimums.add(minimumUsd);
+        return floors.size() - 1;
+    }
+
+    public PricingRules setFeeTable(int tableId) {
+        defaultTable = checkTable(tableId);
+        return this;
+    }
+
+    public PricingRules setFeeTable(int fromId, int toId, int tableId) {
+        tables[pair(fromId, toId)] = checkTable(tableId);
+        return this;
+    }
+
+    // Rounding of the amount paid out to a whole minor unit; DOWN by
+    // default. Fees always round to the nearest minor unit.
+    public PricingRules setRounding(RoundingMode rounding) {
+        if (rounding == RoundingMode.UNNECESSARY) {
+            throw new IllegalArgumentException("Payouts must be rounded");
+        }
+        this.rounding = rounding;
+        return this;
+    }
+
+    public Pricer compile() {
+        int pairs = size * size;
+        double[] keep = new double[pairs];
+        short[] pairTables = new short[pairs];
+        for (int i = 0; i < pairs; i++) {
+            keep[i] = 1 - (Double.isNaN(spreads[i]) ? defaultSpread : spreads[i]);
+            pairTables[i] = (short) (tables[i] < 0 ? defaultTable : tables[i]);
+        }
+        int tableCount = floors.size();
+        int[] tierStart = new int[tableCount + 1];
+        for (int t = 0; t < tableCount; t++) {
+            tierStart[t + 1] = tierStart[t] + floors.get(t).length;
+        }
+        int tiers = tierStart[tableCount];
+        double[] tierFloors = new double[tiers];
+        double[] tierPercents = new double[tiers];
+        double[] tierFixed = new double[tiers];
+        double[] tableMinimums = new double[tableCount];
+        for (int t = 0; t < tableCount; t++) {
+            System.arraycopy(floors.get(t), 0, tierFloors, tierStart[t], floors.get(t).length);
+            System.arraycopy(percents.get(t), 0, tierPercents, tierStart[t], floors.get(t).length);
+            System.arraycopy(fixedFees.get(t), 0, tierFixed, tierStart[t], floors.get(t).length);
+            tableMinimums[t] = minimums.get(t);
+        }
+        double[] minorScale = new double[size];
+        for (int id = 0; id < size; id++) {
+            minorScale[id] = Math.pow(10, registry.minorDigits(id));
+        }
+        return new Pricer(size, keep, pairTables, tierStart, tierFloors, tierPercents, tierFixed,
+            tableMinimums, minorScale, rounding);
+    }
+
+    private int pair(int fromId, int toId) {
+        if (fromId < 0 || fromId >= size || toId < 0 || toId >= size) {
+            throw new IllegalArgumentException("Unknown currency id: " + (fromId < 0 || fromId >= size ? fromId : toId));
+        }
+        return fromId * size + toId;
+    }
+
+    private static double checkSpread(double spread) {
+        if (!(spread >= 0 && spread < 1)) {
+            throw new IllegalArgumentException("Spread must be in [0, 1): " + spread);
+        }
+        return spread;
+    }
+
+    private int checkTable(int tableId) {
+        if (tableId < 0 || tableId >= floors.size()) {
+            throw new IllegalArgumentException("Unknown fee table: " + tableId);
+        }
+        if (tableId > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many fee tables: " + tableId);
+        }
+        return tableId;
+    }
+}
@@ -0,0 +1,212 @@
+package currency;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Consolidates several rate providers into one rate set.
+//
+// Every refresh queries all providers in parallel (HttpClient.sendAsync
+// through RateFetcher.fetchAsync), each bounded by its own timeout, so a
+// slow or dead provider costs at most that timeout and never blocks the
+// others. Two ways to consolidate:
+//   FIRST_VALID  publishes the first provider answer that parses; refresh
+//                latency is that of the fastest healthy provider
+//   MEDIAN       waits for every provider (or its timeout) and publishes the
+//                per-currency median of the answers, so one provider with a
+//                bad rate cannot move the published one
+// Providers must answer in the format RateResponseParser reads. Each keeps
+// its last good rates, so a 304 from a provider still counts as an answer.
+// When the consolidated rates match the engine's current ones, the refresh
+// only confirms them (NOT_MODIFIED) instead of publishing a new snapshot.
+public final class RateAggregator implements RateSource {
+
+    public enum Mode {
+        FIRST_VALID,
+        MEDIAN
+    }
+
+    private static final System.Logger LOG = System.getLogger(RateAggregator.class.getName());
+
+    private final List<Provider> providers;
+    private final long timeoutMillis;
+    private final Mode mode;
+
+    private static final class Provider {
+        final RateFetcher fetcher;
+        volatile double[] lastRates;   // last good answer, indexed by currency id
+
+        Provider(RateFetcher fetcher) {
+            this.fetcher = fetcher;
+        }
+    }
+
+    public RateAggregator(List<RateFetcher> fetchers, Duration timeout, Mode mode) {
+        if (fetchers.isEmpty()) {
+            throw new IllegalArgumentException("At least one rate provider is required");
+        }
+        this.providers = new ArrayList<>(fetchers.size());
+        for (RateFetcher fetcher : fetchers) {
+            providers.add(new Provider(fetcher));
+        }
+        this.timeoutMillis = Math.max(1, timeout.toMillis());
+        this.mode = mode;
+    }
+
+    @Override
+    public String name() {
+        return providers.size() == 1 ? providers.get(0).fetcher.name()
+            : providers.size() + " providers (" + mode + ")";
+    }
+
+    @Override
+    public RateFetcher.Status refresh(ConversionEngine engine) throws InterruptedException {
+        List<CompletableFuture<double[]>> answers = new ArrayList<>(providers.size());
+        for (Provider provider : providers) {
+            answers.add(fetch(provider, engine.registry()));
+        }
+        double[] rates;
+        try {
+            rates = mode == Mode.FIRST_VALID ? firstValid(answers) : median(answers, engine.currencyCount());
+        } catch (ExecutionException e) {
+            // answers never complete exceptionally
+            throw new IllegalStateException(e);
+        } catch (TimeoutException e) {
+            LOG.log(System.Logger.Level.WARNING, "Rate providers did not settle within "
+                + waitMillis() + " ms, skipping this refresh");
+            return RateFetcher.Status.FAILED;
+        }
+        if (rates == null) {
+            return RateFetcher.Status.FAILED;
+        }
+        if (!changes(rates, engine.snapshot())) {
+            engine.confirmRates(System.currentTimeMillis());
+            return RateFetcher.Status.NOT_MODIFIED;
+        }
+        engine.setUsdRates(rates);
+        return RateFetcher.Status.UPDATED;
+    }
+
+    // Whether publishing 'rates' would change any rate; unusable entries
+    // keep the current rate
+    private static boolean changes(double[] rates, RateSnapshot current) {
+        for (int id = 0; id < rates.length; id++) {
+            if (ConversionEngine.isUsableRate(rates[id]) && rates[id] != current.usdRate(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Each answer times out on its own; the wait for all of them is bounded
+    // too, with room for parsing, so that a future that is never completed
+    // cannot hang the refresh
+    private long waitMillis() {
+        return 2 * timeoutMillis + 1000;
+    }
+
+    // The provider's rates, its cached rates on a 304, or null if it failed,
+    // timed out or sent a body that does not parse. Never completes
+    // exceptionally.
+    private CompletableFuture<double[]> fetch(Provider provider, CurrencyRegistry registry) {
+        CompletableFuture<RateFetcher.Response> response;
+        try {
+            response = provider.fetcher.fetchAsync();
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        return response
+            .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .handle((answer, error) -> {
+                if (error != null) {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    LOG.log(System.Logger.Level.INFO, "Rate provider " + provider.fetcher.name() + " failed: "
+                        + (cause instanceof TimeoutException ? "no answer within " + timeoutMillis + " ms" : cause));
+                    return null;
+                }
+                return rates(provider, answer, registry);
+            })
+            .exceptionally(error -> {
+                LOG.log(System.Logger.Level.WARNING, "Rate provider " + provider.fetcher.name() + " failed", error);
+                return null;
+            });
+    }
+
+    private static double[] rates(Provider provider, RateFetcher.Response answer, CurrencyRegistry registry) {
+        if (answer.status() == RateFetcher.Status.NOT_MODIFIED) {
+            return provider.lastRates;
+        }
+        if (answer.status() != RateFetcher.Status.UPDATED) {
+            LOG.log(System.Logger.Level.INFO, "Rate provider " + provider.fetcher.name()
+                + " answered HTTP " + answer.statusCode());
+            return null;
+        }
+        double[] rates = new double[registry.size()];
+        int parsed;
+        try {
+            parsed = RateFetcher.parse(answer.body(), registry, rates);
+        } catch (IllegalArgumentException e) {
+            LOG.log(System.Logger.Level.INFO, "Rate provider " + provider.fetcher.name()
+                + " sent a malformed body: " + e.getMessage());
+            return null;
+        }
+        if (parsed <= 0) {
+            LOG.log(System.Logger.Level.INFO, "Rate provider " + provider.fetcher.name() + " sent no usable rates");
+            return null;
+        }
+        provider.lastRates = rates;
+        provider.fetcher.remember(answer);
+        return rates;
+    }
+
+    private double[] firstValid(List<CompletableFuture<double[]>> answers)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<double[]> first = new CompletableFuture<>();
+        for (CompletableFuture<double[]> answer : answers) {
+            answer.thenAccept(rates -> {
+                if (rates != null) {
+                    first.complete(rates);
+                }
+            });
+        }
+        // Every provider failed
+        CompletableFuture.allOf(answers.toArray(new CompletableFuture<?>[0])).thenRun(() -> first.complete(null));
+        return first.get(waitMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private double[] median(List<CompletableFuture<double[]>> answers, int currencies)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture.allOf(answers.toArray(new CompletableFuture<?>[0])).get(waitMillis(), TimeUnit.MILLISECONDS);
+        List<double[]> valid = new ArrayList<>(answers.size());
+        for (CompletableFuture<double[]> answer : answers) {
+            double[] rates = answer.get();
+            if (rates != null) {
+                valid.add(rates);
+            }
+        }
+        if (valid.isEmpty()) {
+            return null;
+        }
+        double[] median = new double[currencies];
+        double[] values = new double[valid.size()];
+        for (int id = 0; id < currencies; id++) {
+            int n = 0;
+            for (double[] rates : valid) {
+                if (ConversionEngine.isUsableRate(rates[id])) {
+                    values[n++] = rates[id];
+                }
+            }
+            if (n == 0) {
+                continue; // left at 0, so the engine keeps its current rate
+            }
+            Arrays.sort(values, 0, n);
+            median[id] = (n & 1) == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+        }
+        return median;
+    }
+}
@@ -0,0 +1,408 @@
+package currency;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Pushes rate changes to any number of subscribers as a Flow.Publisher.
+//
+// Every snapshot the engine publishes is compared with the one before, and
+// each currency whose USD rate moved becomes a RateChange for every
+// subscriber. A new subscriber first gets one change per currency with its
+// current rate (previous rate NaN), then the changes from there on.
+//
+// Subscribers are never queued more than one change per currency: a change
+// to a currency that is still waiting to be delivered replaces it, keeping
+// the previous rate the subscriber last saw. A slow subscriber therefore
+// skips intermediate values and catches up on the latest ones, and holds on
+// to O(currencies) memory however far behind it is; a currency that moved
+// and came back before delivery is not reported at all. Demand is honoured
+// per Flow: only as many changes as requested are sent.
+//
+// Each subscriber has its own serial delivery on an Executor of its choice,
+// ForkJoinPool.commonPool() unless told otherwise; the Swing UI passes
+// SwingUtilities::invokeLater to be called on the event dispatch thread.
+public final class RateChangeStream implements Flow.Publisher<RateChangeStream.RateChange>, AutoCloseable {
+
+    // One currency's USD rate moving from previousUsdRate (NaN for a new
+    // subscriber) to usdRate in snapshot 'version'
+    public static final class RateChange {
+        private final int currencyId;
+        private final String code;
+        private final double previousUsdRate;
+        private final double usdRate;
+        private final long version;
+        private final long timestampMillis;
+
+        RateChange(int currencyId, String code, double previousUsdRate, double usdRate,
+                   long version, long timestampMillis) {
+            this.currencyId = currencyId;
+            this.code = code;
+            this.previousUsdRate = previousUsdRate;
+            this.usdRate = usdRate;
+            this.version = version;
+            this.timestampMillis = timestampMillis;
+        }
+
+        public int currencyId() {
+            return currencyId;
+        }
+
+        public String code() {
+            return code;
+        }
+
+        public double previousUsdRate() {
+            return previousUsdRate;
+        }
+
+        public double usdRate() {
+            return usdRate;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public long timestampMillis() {
+            return timestampMillis;
+        }
+
+        @Override
+        public String toString() {
+            return code + " " + previousUsdRate + " -> " + usdRate + " (v" + version + ")";
+        }
+    }
+
+    private static final System.Logger LOG = System.getLogger(RateChangeStream.class.getName());
+    private static final Metrics.Counter DELIVERED = Metrics.counter("rates.changes.delivered");
+    private static final Metrics.Counter COALESCED = Metrics.counter("rates.changes.coalesced");
+
+    private final ConversionEngine engine;
+    private final CurrencyRegistry registry;
+    private final Executor defaultExecutor;
+    private final ConversionEngine.PublishListener listener = this::offer;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private RateSnapshot last;
+    private boolean closed;
+
+    public RateChangeStream(ConversionEngine engine) {
+        this(engine, ForkJoinPool.commonPool());
+    }
+
+    public RateChangeStream(ConversionEngine engine, Executor defaultExecutor) {
+        this.engine = engine;
+        this.registry = engine.registry();
+        this.defaultExecutor = defaultExecutor;
+        this.last = engine.snapshot();
+        engine.addPublishListener(listener);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super RateChange> subscriber) {
+        start(subscriber, defaultExecutor);
+    }
+
+    // Delivers every signal to 'subscriber' through 'executor', one at a time
+    public void subscribe(Flow.Subscriber<? super RateChange> subscriber, Executor executor) {
+        start(subscriber, executor);
+    }
+
+    // Calls 'listener' with every change, through 'executor', one change at a
+    // time. Returns the subscription, to cancel() when done listening.
+    public Flow.Subscription listen(Consumer<? super RateChange> listener, Executor executor) {
+        Objects.requireNonNull(listener, "listener");
+        return start(new Flow.Subscriber<RateChange>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(RateChange change) {
+                try {
+                    listener.accept(change);
+                } catch (RuntimeException e) {
+                    LOG.log(System.Logger.Level.WARNING, "Rate change listener failed on " + change, e);
+                }
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                LOG.log(System.Logger.Level.WARNING, "Rate change listener stopped", error);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, executor);
+    }
+
+    private Subscription start(Flow.Subscriber<? super RateChange> subscriber, Executor executor) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        Subscription subscription = new Subscription(subscriber, executor);
+        synchronized (this) {
+            if (closed) {
+                subscription.complete();
+            } else {
+                subscription.offer(last);
+                subscriptions.add(subscription);
+            }
+        }
+        subscription.signal();
+        return subscription;
+    }
+
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    // Stops listening to the engine and completes every subscriber; changes
+    // not yet delivered are dropped
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        engine.removePublishListener(listener);
+        for (Subscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        subscriptions.clear();
+    }
+
+    // Runs on the publishing thread; snapshots older than the last one seen
+    // are stale news from a concurrent publisher and are dropped
+    private synchronized void offer(RateSnapshot snapshot) {
+        if (closed || snapshot.version() <= last.version() || snapshot.currencyCount() != last.currencyCount()) {
+            return;
+        }
+        int[] moved = new int[snapshot.currencyCount()];
+        int count = 0;
+        for (int id = 0; id < moved.length; id++) {
+            if (Double.compare(last.usdRate(id), snapshot.usdRate(id)) != 0) {
+                moved[count++] = id;
+            }
+        }
+        last = snapshot;
+        if (count == 0) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            if (subscription.offer(snapshot, moved, count)) {
+                subscription.signal();
+            }
+        }
+    }
+
+    // One subscriber's pending changes, at most one per currency, and its
+    // serial delivery: whoever takes 'wip' from 0 schedules a drain, and
+    // signals arriving meanwhile make that drain loop again
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super RateChange> subscriber;
+        private final Executor executor;
+        private final AtomicInteger wip = new AtomicInteger();
+        private boolean subscribed;       // delivery thread only
+
+        // Guarded by this
+        private final double[] latest;
+        private final long[] versions;
+        private final long[] timestamps;
+        private final double[] seen;      // last rate delivered, NaN before the first
+        private final boolean[] pending;
+        private final int[] queue;        // ring of pending currency ids, oldest first
+        private int head;
+        private int count;
+        private long demand;
+        private boolean done;             // no further onNext: cancelled or completing
+        private boolean completing;       // onComplete still to be sent
+        private Throwable failure;        // onError still to be sent
+
+        Subscription(Flow.Subscriber<? super RateChange> subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            int size = registry.size();
+            latest = new double[size];
+            versions = new long[size];
+            timestamps = new long[size];
+            seen = new double[size];
+            Arrays.fill(seen, Double.NaN);
+            pending = new boolean[size];
+            queue = new int[size];
+        }
+
+        // Every currency of 'snapshot', for a new subscriber
+        synchronized void offer(RateSnapshot snapshot) {
+            for (int id = 0; id < latest.length; id++) {
+                put(id, snapshot);
+            }
+        }
+
+        // The currencies moved[0, count) of 'snapshot'; false once cancelled
+        synchronized boolean offer(RateSnapshot snapshot, int[] moved, int count) {
+            if (done) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                put(moved[i], snapshot);
+            }
+            return true;
+        }
+
+        private void put(int id, RateSnapshot snapshot) {
+            latest[id] = snapshot.usdRate(id);
+            versions[id] = snapshot.version();
+            timestamps[id] = snapshot.timestampMillis();
+            if (pending[id]) {
+                COALESCED.increment();
+                return;
+            }
+            pending[id] = true;
+            queue[(head + count) % queue.length] = id;
+            count++;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (n <= 0) {
+                    // Rule 3.9: a non-positive request is an error
+                    cancelLocked();
+                    failure = new IllegalArgumentException("Non-positive request: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelLocked();
+            }
+            subscriptions.remove(this);
+        }
+
+        private void cancelLocked() {
+            done = true;
+            count = 0;
+        }
+
+        void complete() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                cancelLocked();
+                completing = true;
+            }
+            signal();
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    LOG.log(System.Logger.Level.WARNING, "Rate change delivery rejected, unsubscribing", e);
+                    cancel();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (!subscribed) {
+                    subscribed = true;
+                    if (!deliver(() -> subscriber.onSubscribe(this))) {
+                        return;
+                    }
+                }
+                while (true) {
+                    RateChange change = next();
+                    if (change == null) {
+                        break;
+                    }
+                    DELIVERED.increment();
+                    if (!deliver(() -> subscriber.onNext(change))) {
+                        return;
+                    }
+                }
+                Runnable terminal = terminal();
+                if (terminal != null) {
+                    deliver(terminal);
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        // The next change to deliver, or null when there is none or no demand
+        private synchronized RateChange next() {
+            while (!done && demand > 0 && count > 0) {
+                int id = queue[head];
+                head = (head + 1) % queue.length;
+                count--;
+                pending[id] = false;
+                if (Double.compare(seen[id], latest[id]) == 0) {
+                    continue;   // moved and came back before it was delivered
+                }
+                RateChange change = new RateChange(id, registry.code(id), seen[id], latest[id],
+                    versions[id], timestamps[id]);
+                seen[id] = latest[id];
+                demand--;
+                return change;
+            }
+            return null;
+        }
+
+        private synchronized Runnable terminal() {
+            if (failure != null) {
+                Throwable error = failure;
+                failure = null;
+                completing = false;
+                subscriptions.remove(this);
+                return () -> subscriber.onError(error);
+            }
+            if (completing) {
+                completing = false;
+                return subscriber::onComplete;
+            }
+            return null;
+        }
+
+        // Runs one signal; a subscriber that throws is unsubscribed (rule 2.13)
+        private boolean deliver(Runnable signal) {
+            try {
+                signal.run();
+                return true;
+            } catch (RuntimeException e) {
+                LOG.log(System.Logger.Level.WARNING, "Rate change subscriber failed, unsubscribing", e);
+                cancel();
+                return false;
+            }
+        }
+    }
+}
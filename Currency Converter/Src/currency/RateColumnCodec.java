@@ -0,0 +1,316 @@
+package currency;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Compression of one column of rates, CHUNK_ROWS values at a time, as used
+// by RateHistoryStore.
+//
+// Each chunk starts with a mode bit and its first value in full, so any chunk
+// decodes without the ones before it. The rest is one entry per value:
+//   DECIMAL  every value in the chunk is a short decimal (v == d / 10^e for
+//            an integer d below 2^53 and some e <= MAX_EXPONENT), which is
+//            how providers quote rates. The chunk stores e and d0, then the
+//            zigzag encoded difference to the previous d:
+//              0                    no change
+//              10   + 6 bits        |delta| < 2^5
+//              110  + 13 bits       |delta| < 2^12
+//              1110 + 28 bits       |delta| < 2^27
+//              1111 + 64 bits       anything else
+//   XOR      anything else (medians, computed rates, NaN): Gorilla encoding
+//            of the XOR with the previous value:
+//              0                    same value
+//              10   + bits          fits the previous leading/trailing zero window
+//              11   + 6 bits leading zeros + 6 bits length - 1 + bits
+// Both decode bit exactly. Bits are packed least significant first into
+// little endian longs, so a read is at most two getLong calls.
+final class RateColumnCodec {
+
+    static final int CHUNK_ROWS = 64;
+    static final int MAX_EXPONENT = 18;
+
+    private static final int DECIMAL = 0;
+    private static final int XOR = 1;
+    private static final long MAX_DECIMAL = 1L << 53;
+    private static final double[] POW10 = new double[MAX_EXPONENT + 1];
+
+    static {
+        double p = 1;
+        for (int e = 0; e <= MAX_EXPONENT; e++) {
+            POW10[e] = p;
+            p *= 10;
+        }
+    }
+
+    private RateColumnCodec() {
+    }
+
+    // Growable bit buffer, least significant bit first
+    static final class BitWriter {
+        private long[] words = new long[64];
+        private long bits;
+
+        long position() {
+            return bits;
+        }
+
+        void write(long value, int count) {
+            if (count < 64) {
+                value &= (1L << count) - 1;
+            }
+            int index = (int) (bits >>> 6);
+            int offset = (int) (bits & 63);
+            // Room for a write that spills into the next word, plus the
+            // spare word byteLength() promises after it
+            if (index + 2 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            words[index] |= value << offset;
+            if (offset + count > 64) {
+                words[index + 1] |= value >>> (64 - offset);
+            }
+            bits += count;
+        }
+
+        // Whole words plus one spare, so readers may always fetch the word
+        // after the one holding their last bit
+        int byteLength() {
+            return (int) ((bits + 63) >>> 6) * 8 + 8;
+        }
+
+        void copyTo(ByteBuffer out) {
+            int words = byteLength() / 8;
+            for (int i = 0; i < words; i++) {
+                out.putLong(this.words[i]);
+            }
+        }
+    }
+
+    // Encodes values[from, from + count) as one chunk
+    static void encode(BitWriter out, double[] values, int from, int count) {
+        int exponent = decimalExponent(values, from, count);
+        if (exponent >= 0) {
+            out.write(DECIMAL, 1);
+            out.write(exponent, 5);
+            long previous = Math.round(values[from] * POW10[exponent]);
+            out.write(previous, 64);
+            for (int i = from + 1; i < from + count; i++) {
+                long d = Math.round(values[i] * POW10[exponent]);
+                long delta = d - previous;
+                long zigzag = (delta << 1) ^ (delta >> 63);
+                if (zigzag == 0) {
+                    out.write(0, 1);
+                } else if (zigzag < 1 << 6) {
+                    out.write(0b01, 2);
+                    out.write(zigzag, 6);
+                } else if (zigzag < 1 << 13) {
+                    out.write(0b011, 3);
+                    out.write(zigzag, 13);
+                } else if (zigzag < 1 << 28) {
+                    out.write(0b0111, 4);
+                    out.write(zigzag, 28);
+                } else {
+                    out.write(0b1111, 4);
+                    out.write(zigzag, 64);
+                }
+                previous = d;
+            }
+            return;
+        }
+        out.write(XOR, 1);
+        long previous = Double.doubleToRawLongBits(values[from]);
+        out.write(previous, 64);
+        int windowLeading = -1;
+        int windowTrailing = 0;
+        for (int i = from + 1; i < from + count; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int leading = Math.min(63, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (windowLeading >= 0 && leading >= windowLeading && trailing >= windowTrailing) {
+                out.write(0b01, 2);
+                out.write(xor >>> windowTrailing, 64 - windowLeading - windowTrailing);
+            } else {
+                int length = 64 - leading - trailing;
+                out.write(0b11, 2);
+                out.write(leading, 6);
+                out.write(length - 1, 6);
+                out.write(xor >>> trailing, length);
+                windowLeading = leading;
+                windowTrailing = trailing;
+            }
+        }
+    }
+
+    // The smallest exponent that writes every value as an exact short
+    // decimal, or -1 if there is none
+    private static int decimalExponent(double[] values, int from, int count) {
+        int exponent = 0;
+        for (int i = from; i < from + count; i++) {
+            double value = values[i];
+            while (exponent <= MAX_EXPONENT && !isDecimal(value, exponent)) {
+                exponent++;
+            }
+            if (exponent > MAX_EXPONENT) {
+                return -1;
+            }
+        }
+        // A larger exponent than a value needed may still round it differently
+        for (int i = from; i < from + count; i++) {
+            if (!isDecimal(values[i], exponent)) {
+                return -1;
+            }
+        }
+        return exponent;
+    }
+
+    private static boolean isDecimal(double value, int exponent) {
+        double scaled = value * POW10[exponent];
+        if (!(Math.abs(scaled) < MAX_DECIMAL)) {
+            return false;
+        }
+        long d = Math.round(scaled);
+        return Double.doubleToRawLongBits(d / POW10[exponent]) == Double.doubleToRawLongBits(value);
+    }
+
+    // Reads one chunk value by value; reusable for any number of chunks
+    static final class Decoder {
+        private ByteBuffer data;
+        private int base;
+        private long position;
+        private boolean xor;
+        private double scale;
+        private long decimal;
+        private long bits;
+        private int windowLeading;
+        private int windowTrailing;
+        private boolean first;
+
+        // Positions the decoder at the chunk starting 'bitOffset' bits into
+        // the data area at byte 'base' of 'data' (a little endian buffer)
+        void start(ByteBuffer data, int base, long bitOffset) {
+            this.data = data;
+            this.base = base;
+            position = bitOffset;
+            first = true;
+            xor = read(1) == XOR;
+            if (xor) {
+                bits = read(64);
+            } else {
+                scale = POW10[(int) read(5)];
+                decimal = read(64);
+            }
+        }
+
+        // The next value of the chunk; the first call returns its first value
+        double next() {
+            advance();
+            return xor ? Double.longBitsToDouble(bits) : decimal / scale;
+        }
+
+        // Skips 'count' values and returns the one after them. A run of
+        // unchanged values is skipped at once: it is the run of zero bits at
+        // the bottom of the window.
+        double skipAndNext(int count) {
+            if (count > 0 && first) {
+                first = false;
+                count--;
+            }
+            while (count > 0) {
+                long window = peek();
+                int unchanged = Math.min(count, Long.numberOfTrailingZeros(window));
+                if (unchanged > 0) {
+                    position += unchanged;
+                    count -= unchanged;
+                } else {
+                    change(window);
+                    count--;
+                }
+            }
+            return next();
+        }
+
+        // Moves to the next value. Every entry but the rare 64 bit ones is
+        // parsed from a single 64 bit window; the common "no change" case is
+        // kept small enough to inline.
+        private void advance() {
+            if (first) {
+                first = false;
+                return;
+            }
+            long window = peek();
+            if ((window & 1) == 0) {
+                position++;
+            } else {
+                change(window);
+            }
+        }
+
+        private void change(long window) {
+            if (xor) {
+                advanceXor(window);
+            } else {
+                advanceDecimal(window);
+            }
+        }
+
+        private void advanceDecimal(long window) {
+            long zigzag;
+            if ((window & 2) == 0) {
+                zigzag = (window >>> 2) & ((1L << 6) - 1);
+                position += 8;
+            } else if ((window & 4) == 0) {
+                zigzag = (window >>> 3) & ((1L << 13) - 1);
+                position += 16;
+            } else if ((window & 8) == 0) {
+                zigzag = (window >>> 4) & ((1L << 28) - 1);
+                position += 32;
+            } else {
+                position += 4;
+                zigzag = read(64);
+            }
+            decimal += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private void advanceXor(long window) {
+            if ((window & 2) == 0) {
+                int length = 64 - windowLeading - windowTrailing;
+                if (length <= 62) {
+                    bits ^= ((window >>> 2) & ((1L << length) - 1)) << windowTrailing;
+                    position += 2 + length;
+                } else {
+                    position += 2;
+                    bits ^= read(length) << windowTrailing;
+                }
+            } else {
+                windowLeading = (int) (window >>> 2) & 63;
+                int length = (int) (window >>> 8 & 63) + 1;
+                windowTrailing = 64 - windowLeading - length;
+                position += 14;
+                bits ^= read(length) << windowTrailing;
+            }
+        }
+
+        // The next 64 bits, without moving
+        private long peek() {
+            int index = (int) (position >>> 6);
+            int offset = (int) (position & 63);
+            long word = data.getLong(base + index * 8) >>> offset;
+            if (offset != 0) {
+                word |= data.getLong(base + index * 8 + 8) << (64 - offset);
+            }
+            return word;
+        }
+
+        private long read(int count) {
+            long word = peek();
+            position += count;
+            return count == 64 ? word : word & ((1L << count) - 1);
+        }
+    }
+}
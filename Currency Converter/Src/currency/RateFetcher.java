@@ -0,0 +1,241 @@
+package currency;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+// Fetches rate responses from one provider endpoint.
+//
+// All fetchers share one long-lived HttpClient (HTTP/2 where the server
+// supports it, pooled connections), so a refresh does not pay for a new
+// connection pool, TLS handshake and executor. Requests are conditional: the
+// ETag and Last-Modified of the last good response are sent back as
+// If-None-Match / If-Modified-Since, and an unchanged rate set costs a 304
+// without any parsing. gzip and deflate response bodies are decoded.
+public final class RateFetcher implements RateSource {
+
+    public enum Status {
+        UPDATED,        // new rates were parsed and published
+        NOT_MODIFIED,   // the provider answered 304, current rates still valid
+        FAILED
+    }
+
+    private static final HttpClient SHARED_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final LatencyHistogram FETCH = Metrics.histogram("rates.fetch");
+    private static final LatencyHistogram PARSE = Metrics.histogram("rates.parse");
+    private static final Metrics.Counter FETCH_FAILURES = Metrics.counter("rates.fetch.failures");
+
+    private final URI uri;
+    private final HttpClient client;
+    private final Duration timeout;
+
+    // Validators of the last response that was parsed successfully
+    private volatile String etag;
+    private volatile String lastModified;
+
+    public RateFetcher(URI uri) {
+        this(uri, SHARED_CLIENT, DEFAULT_TIMEOUT);
+    }
+
+    public RateFetcher(URI uri, HttpClient client, Duration timeout) {
+        this.uri = uri;
+        this.client = client;
+        this.timeout = timeout;
+    }
+
+    public static HttpClient sharedClient() {
+        return SHARED_CLIENT;
+    }
+
+    public URI uri() {
+        return uri;
+    }
+
+    @Override
+    public String name() {
+        return uri.toString();
+    }
+
+    // Raw result of one request: the decoded body when the provider sent new
+    // rates, plus the validators to send next time
+    public static final class Response {
+        private final Status status;
+        private final int statusCode;
+        private final byte[] body;
+        private final String etag;
+        private final String lastModified;
+
+        Response(Status status, int statusCode, byte[] body, String etag, String lastModified) {
+            this.status = status;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public Status status() {
+            return status;
+        }
+
+        public int statusCode() {
+            return statusCode;
+        }
+
+        public byte[] body() {
+            return body;
+        }
+    }
+
+    public Response fetch() throws IOException, InterruptedException {
+        long start = Metrics.now();
+        Response response = null;
+        try {
+            response = toResponse(client.send(newRequest(), HttpResponse.BodyHandlers.ofByteArray()));
+            return response;
+        } finally {
+            fetched(start, response);
+        }
+    }
+
+    public CompletableFuture<Response> fetchAsync() {
+        long start = Metrics.now();
+        return client.sendAsync(newRequest(), HttpResponse.BodyHandlers.ofByteArray())
+            .thenApply(response -> {
+                try {
+                    return toResponse(response);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })
+            .whenComplete((response, error) -> fetched(start, response));
+    }
+
+    private static void fetched(long start, Response response) {
+        FETCH.recordSince(start);
+        if (response == null || response.status == Status.FAILED) {
+            FETCH_FAILURES.increment();
+        }
+    }
+
+    // RateResponseParser.parseUsdRates, timed
+    static int parse(byte[] body, CurrencyRegistry registry, double[] rates) {
+        long start = Metrics.now();
+        int parsed = RateResponseParser.parseUsdRates(body, registry, rates);
+        PARSE.recordSince(start);
+        return parsed;
+    }
+
+    // Fetches, parses and publishes new rates into the engine. The validators
+    // are only remembered once the body parsed, so a bad response is not
+    // pinned by a later 304. A malformed body throws IllegalArgumentException;
+    // one with no supported rates fails without publishing, so it does not
+    // count as fresh rates.
+    @Override
+    public Status refresh(ConversionEngine engine) throws IOException, InterruptedException {
+        return apply(fetch(), engine);
+    }
+
+    public Status apply(Response response, ConversionEngine engine) {
+        if (response.status == Status.NOT_MODIFIED) {
+            engine.confirmRates(System.currentTimeMillis());
+        }
+        if (response.status != Status.UPDATED) {
+            return response.status;
+        }
+        double[] rates = new double[engine.currencyCount()];
+        if (parse(response.body, engine.registry(), rates) <= 0) {
+            return Status.FAILED;
+        }
+        engine.setUsdRates(rates);
+        remember(response);
+        return Status.UPDATED;
+    }
+
+    void remember(Response response) {
+        etag = response.etag;
+        lastModified = response.lastModified;
+    }
+
+    // Forgets the validators so the next request fetches the full rate set
+    public void reset() {
+        etag = null;
+        lastModified = null;
+    }
+
+    private HttpRequest newRequest() {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip, deflate");
+        String currentEtag = etag;
+        String currentLastModified = lastModified;
+        if (currentEtag != null) {
+            request.header("If-None-Match", currentEtag);
+        }
+        if (currentLastModified != null) {
+            request.header("If-Modified-Since", currentLastModified);
+        }
+        return request.GET().build();
+    }
+
+    private static Response toResponse(HttpResponse<byte[]> response) throws IOException {
+        int code = response.statusCode();
+        if (code == 304) {
+            return new Response(Status.NOT_MODIFIED, code, null, null, null);
+        }
+        if (code != 200) {
+            return new Response(Status.FAILED, code, null, null, null);
+        }
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+        byte[] body = decode(response.body(), encoding.trim().toLowerCase(Locale.ROOT));
+        return new Response(Status.UPDATED, code, body,
+            response.headers().firstValue("ETag").orElse(null),
+            response.headers().firstValue("Last-Modified").orElse(null));
+    }
+
+    static byte[] decode(byte[] body, String encoding) throws IOException {
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body), 8192)) {
+                    return in.readAllBytes();
+                }
+            case "deflate":
+                // Should be zlib wrapped, but some servers send raw deflate
+                try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body))) {
+                    return in.readAllBytes();
+                } catch (ZipException e) {
+                    Inflater inflater = new Inflater(true);
+                    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body), inflater)) {
+                        return in.readAllBytes();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            case "identity":
+                return body;
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package currency;
+
+import java.util.Arrays;
+
+// Cross rates from a graph of quoted currency pairs, for providers that
+// quote other bases than USD or quote some pairs directly.
+//
+// Currencies are nodes and every quote is an edge in both directions (the
+// reverse at 1 / rate). For every ordered pair the best path is kept, by
+// fewest hops or by tightest combined spread, together with the product of
+// the rates along it. Ties go to the path found first.
+//
+// update() brings the paths up to date with the quotes changed since the
+// last call, doing as little as it can:
+//   - the first time, or when most rows are touched: Floyd-Warshall, O(N^3)
+//   - a rate changed but its edge's weight did not: the paths stay, and the
+//     rows whose best-path tree uses the edge re-multiply their rates along
+//     the cached paths, O(N) per row
+//   - an edge was added, removed or its spread changed: only the rows whose
+//     tree used the edge, or that the edge now shortens, are rebuilt with a
+//     dense Dijkstra, O(N^2) per row
+// A full USD rate refresh, where every rate moves but no spread does, is
+// therefore O(N^2).
+//
+// Quotes and update() are not thread safe; ConversionEngine.publish(RateGraph,
+// long) copies the result into an immutable snapshot for readers.
+public final class RateGraph {
+
+    public enum PathCost {
+        HOPS,    // fewest quotes on the way
+        SPREAD   // smallest combined bid/ask spread, then fewest hops
+    }
+
+    private static final double NONE = Double.POSITIVE_INFINITY;
+    // Added per hop when costing by spread, so that equally tight paths
+    // prefer the shorter one and zero-spread quotes still cost something
+    private static final double HOP_COST = 1e-9;
+
+    private final int size;
+    private final PathCost pathCost;
+
+    // Quotes, [from * size + to] in both directions: units of 'to' per one
+    // 'from', the relative spread and the edge weight (NONE if not quoted)
+    private final double[] edgeRate;
+    private final double[] edgeSpread;
+    private final double[] edgeWeight;
+    private final double[] appliedWeight;   // edgeWeight as of the last update
+
+    // Best paths as of the last update, [from * size + to]
+    private final double[] dist;
+    private final int[] pred;               // node before 'to' on the path, -1 if none
+    private final double[] cross;           // product of the rates along the path, NaN if unreachable
+
+    // Pairs (from * size + to, from < to) quoted since the last update
+    private int[] changed = new int[64];
+    private int changedCount;
+    private boolean built;
+
+    // Scratch for update()
+    private final boolean[] rebuild;
+    private final boolean[] reprice;
+    private final boolean[] settled;
+    private final int[] mark;
+    private int stamp;
+    private final int[] stack;
+
+    public RateGraph(int currencies, PathCost pathCost) {
+        if (currencies <= 0 || currencies > 1 << 15) {
+            throw new IllegalArgumentException("Invalid currency count: " + currencies);
+        }
+        this.size = currencies;
+        this.pathCost = pathCost;
+        int pairs = currencies * currencies;
+        edgeRate = new double[pairs];
+        edgeSpread = new double[pairs];
+        edgeWeight = new double[pairs];
+        appliedWeight = new double[pairs];
+        dist = new double[pairs];
+        pred = new int[pairs];
+        cross = new double[pairs];
+        Arrays.fill(edgeRate, Double.NaN);
+        Arrays.fill(edgeWeight, NONE);
+        Arrays.fill(appliedWeight, NONE);
+        rebuild = new boolean[currencies];
+        reprice = new boolean[currencies];
+        settled = new boolean[currencies];
+        mark = new int[currencies];
+        stack = new int[currencies];
+    }
+
+    public int currencyCount() {
+        return size;
+    }
+
+    // Sets the quote 1 base = 'rate' quote, with a relative bid/ask spread
+    // in [0, 1); quote -> base is implied at 1 / rate
+    public void quote(int baseId, int quoteId, double rate, double spread) {
+        if (baseId == quoteId) {
+            throw new IllegalArgumentException("A currency cannot be quoted against itself");
+        }
+        if (!ConversionEngine.isUsableRate(rate)) {
+            throw new IllegalArgumentException("Not a usable rate: " + rate);
+        }
+        if (!(spread >= 0 && spread < 1)) {
+            throw new IllegalArgumentException("Spread must be in [0, 1): " + spread);
+        }
+        double weight = pathCost == PathCost.HOPS ? 1 : -Math.log1p(-spread) + HOP_COST;
+        set(baseId, quoteId, rate, spread, weight);
+    }
+
+    // Quotes every usable rates[id] as 1 base = rates[id] of currency id, as
+    // a provider answer with that base reads
+    public void quoteAll(int baseId, double[] rates, double spread) {
+        for (int id = 0; id < Math.min(rates.length, size); id++) {
+            if (id != baseId && ConversionEngine.isUsableRate(rates[id])) {
+                quote(baseId, id, rates[id], spread);
+            }
+        }
+    }
+
+    // Drops the quote between the two currencies, in both directions
+    public void remove(int baseId, int quoteId) {
+        if (baseId != quoteId && edgeWeight[baseId * size + quoteId] != NONE) {
+            set(baseId, quoteId, Double.NaN, 0, NONE);
+        }
+    }
+
+    private void set(int a, int b, double rate, double spread, double weight) {
+        int ab = a * size + b;
+        int ba = b * size + a;
+        edgeRate[ab] = rate;
+        edgeRate[ba] = 1 / rate;
+        edgeSpread[ab] = spread;
+        edgeSpread[ba] = spread;
+        edgeWeight[ab] = weight;
+        edgeWeight[ba] = weight;
+        if (changedCount == changed.length) {
+            changed = Arrays.copyOf(changed, changedCount * 2);
+        }
+        changed[changedCount++] = Math.min(ab, ba);
+    }
+
+    // Recomputes the paths and cross rates affected by the quotes changed
+    // since the last call
+    public void update() {
+        if (!built) {
+            floydWarshall();
+            built = true;
+            changedCount = 0;
+            return;
+        }
+        if (changedCount == 0) {
+            return;
+        }
+        Arrays.fill(rebuild, false);
+        Arrays.fill(reprice, false);
+        int rebuilds = 0;
+        for (int c = 0; c < changedCount; c++) {
+            int u = changed[c] / size;
+            int v = changed[c] % size;
+            int uv = u * size + v;
+            double weight = edgeWeight[uv];
+            boolean structural = Double.compare(weight, appliedWeight[uv]) != 0;
+            for (int row = 0; row < size; row++) {
+                int base = row * size;
+                boolean usesEdge = pred[base + v] == u || pred[base + u] == v;
+                if (structural && !rebuild[row] && (usesEdge
+                        || dist[base + u] + weight < dist[base + v] || dist[base + v] + weight < dist[base + u])) {
+                    rebuild[row] = true;
+                    rebuilds++;
+                } else if (usesEdge) {
+                    reprice[row] = true;
+                }
+            }
+        }
+        changedCount = 0;
+        if (rebuilds * 2 > size) {
+            floydWarshall();
+            return;
+        }
+        for (int row = 0; row < size; row++) {
+            if (rebuild[row]) {
+                dijkstra(row);
+            } else if (reprice[row]) {
+                reprice(row);
+            }
+        }
+        System.arraycopy(edgeWeight, 0, appliedWeight, 0, edgeWeight.length);
+    }
+
+    private void floydWarshall() {
+        for (int from = 0; from < size; from++) {
+            int base = from * size;
+            for (int to = 0; to < size; to++) {
+                int i = base + to;
+                boolean quoted = from != to && edgeWeight[i] != NONE;
+                dist[i] = from == to ? 0 : edgeWeight[i];
+                pred[i] = quoted ? from : -1;
+            }
+        }
+        for (int via = 0; via < size; via++) {
+            int viaBase = via * size;
+            for (int from = 0; from < size; from++) {
+                int base = from * size;
+                double toVia = dist[base + via];
+                if (toVia == NONE || from == via) {
+                    continue;
+                }
+                for (int to = 0; to < size; to++) {
+                    double through = toVia + dist[viaBase + to];
+                    if (through < dist[base + to]) {
+                        dist[base + to] = through;
+                        pred[base + to] = pred[viaBase + to];
+                    }
+                }
+            }
+        }
+        // Rates follow the final paths rather than being multiplied in the
+        // loop above: with near ties in floating point the path pred spells
+        // out is not always the one a running product was taken along
+        for (int from = 0; from < size; from++) {
+            reprice(from);
+        }
+        System.arraycopy(edgeWeight, 0, appliedWeight, 0, edgeWeight.length);
+    }
+
+    // Best paths from one currency, on the dense adjacency matrix
+    private void dijkstra(int from) {
+        int base = from * size;
+        Arrays.fill(dist, base, base + size, NONE);
+        Arrays.fill(pred, base, base + size, -1);
+        Arrays.fill(cross, base, base + size, Double.NaN);
+        dist[base + from] = 0;
+        cross[base + from] = 1.0;
+        boolean[] done = settled;
+        Arrays.fill(done, false);
+        for (int settled = 0; settled < size; settled++) {
+            int u = -1;
+            double best = NONE;
+            for (int node = 0; node < size; node++) {
+                if (!done[node] && dist[base + node] < best) {
+                    best = dist[base + node];
+                    u = node;
+                }
+            }
+            if (u < 0) {
+                break;
+            }
+            done[u] = true;
+            int edges = u * size;
+            for (int to = 0; to < size; to++) {
+                double through = best + edgeWeight[edges + to];
+                if (through < dist[base + to]) {
+                    dist[base + to] = through;
+                    pred[base + to] = u;
+                    cross[base + to] = cross[base + u] * edgeRate[edges + to];
+                }
+            }
+        }
+    }
+
+    // Re-multiplies the rates of one row along its cached paths, parents
+    // before children. Falls back to rebuilding the row should its paths
+    // ever loop.
+    private void reprice(int from) {
+        int base = from * size;
+        int stamp = ++this.stamp;
+        mark[from] = stamp;
+        cross[base + from] = 1.0;
+        for (int to = 0; to < size; to++) {
+            int depth = 0;
+            int node = to;
+            while (mark[node] != stamp) {
+                if (depth == size) {
+                    dijkstra(from);
+                    return;
+                }
+                if (pred[base + node] < 0) {
+                    cross[base + node] = Double.NaN;
+                    mark[node] = stamp;
+                    break;
+                }
+                stack[depth++] = node;
+                node = pred[base + node];
+            }
+            while (depth > 0) {
+                node = stack[--depth];
+                int parent = pred[base + node];
+                cross[base + node] = cross[base + parent] * edgeRate[parent * size + node];
+                mark[node] = stamp;
+            }
+        }
+    }
+
+    // Units of 'to' per one 'from' along the best path, NaN if there is none;
+    // as of the last update()
+    public double rate(int fromId, int toId) {
+        return cross[fromId * size + toId];
+    }
+
+    // Number of quotes on the best path, -1 if there is none
+    public int hops(int fromId, int toId) {
+        if (fromId == toId) {
+            return 0;
+        }
+        int base = fromId * size;
+        int hops = 0;
+        for (int node = toId; node != fromId; node = pred[base + node]) {
+            if (pred[base + node] < 0) {
+                return -1;
+            }
+            hops++;
+        }
+        return hops;
+    }
+
+    // The currencies on the best path, both ends included; empty if there is none
+    public int[] path(int fromId, int toId) {
+        int hops = hops(fromId, toId);
+        if (hops < 0) {
+            return new int[0];
+        }
+        int[] path = new int[hops + 1];
+        int base = fromId * size;
+        for (int node = toId, i = hops; i >= 0; node = pred[base + node], i--) {
+            path[i] = node;
+        }
+        return path;
+    }
+
+    // Combined relative spread of the best path, 1 - product(1 - spread);
+    // NaN if there is none
+    public double spread(int fromId, int toId) {
+        if (hops(fromId, toId) < 0) {
+            return Double.NaN;
+        }
+        int base = fromId * size;
+        double keep = 1;
+        for (int node = toId; node != fromId; node = pred[base + node]) {
+            keep *= 1 - edgeSpread[pred[base + node] * size + node];
+        }
+        return 1 - keep;
+    }
+
+    // Writes the rate of every pair with a path into 'into' ([from * size +
+    // to]) and leaves the others as they are. Returns the number written.
+    int copyCrossRates(double[] into) {
+        int written = 0;
+        for (int i = 0; i < cross.length; i++) {
+            if (ConversionEngine.isUsableRate(cross[i])) {
+                into[i] = cross[i];
+                written++;
+            }
+        }
+        return written;
+    }
+}
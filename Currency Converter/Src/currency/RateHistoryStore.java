@@ -0,0 +1,789 @@
+package currency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// On-disk history of every published rate snapshot, for converting "as of"
+// a past instant and for scanning how a rate moved over time.
+//
+// Snapshots are stored in blocks of up to BLOCK_ROWS rows, laid out by
+// column: the row timestamps first, as int offsets from the block's first
+// timestamp, then one column of USD based rates per currency. Each column is
+// cut into chunks of RateColumnCodec.CHUNK_ROWS rows that are compressed on
+// their own (delta encoded decimals, or Gorilla XOR), so an unchanged rate
+// costs one bit and reading one rate decodes at most one chunk of one column.
+//
+// Block layout (little endian):
+//   int    magic 'CCHB'
+//   int    block length in bytes, this header and the checksum included
+//   long   timestamp of the first row, epoch millis
+//   int    row count r
+//   int    currency count n
+//   n x 3 bytes  ISO 4217 codes, zero padded to a multiple of 4
+//   r x int      row timestamp minus the first one
+//   n x c x int  bit offset of each column chunk in the data, c = ceil(r / CHUNK_ROWS)
+//   data         the chunks, column by column; see RateColumnCodec
+//   int    CRC32C of everything above
+//
+// Sealed blocks are appended to segment files history-<first timestamp>.seg,
+// each starting with a 16 byte header (magic 'CCHS', format version,
+// reserved, first timestamp) and rolled over at SEGMENT_BYTES, and read
+// through memory maps. The block being filled lives in memory and, row by
+// row, in history.tail, which is replayed on open; a crash loses nothing the
+// operating system had been handed.
+//
+// An as-of lookup is a binary search over the blocks' first timestamps (kept
+// in memory), a binary search over the block's timestamp column, in place in
+// the mapped file, and the decoding of part of one chunk. Lookups never lock:
+// they read an immutable State that append() replaces when a block is
+// sealed. Currencies are stored by code, so old blocks stay readable when
+// the set of supported currencies changes.
+public final class RateHistoryStore implements AutoCloseable {
+
+    // One point of a range scan
+    public interface PointVisitor {
+        void visit(long timestampMillis, double usdRate);
+    }
+
+    static final int BLOCK_ROWS = 1024;
+
+    private static final long SEGMENT_BYTES = 64L << 20;
+    private static final int SEGMENT_MAGIC = 0x53484343; // "CCHS" read little endian
+    private static final int BLOCK_MAGIC = 0x42484343;   // "CCHB" read little endian
+    private static final int TAIL_MAGIC = 0x54484343;    // "CCHT" read little endian
+    private static final short FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 16;
+    private static final int BLOCK_HEADER_BYTES = 24;
+    private static final int TAIL_HEADER_BYTES = 8;
+    private static final int MAX_CURRENCIES = 4096;
+    private static final String PREFIX = "history-";
+    private static final String SUFFIX = ".seg";
+    private static final String TAIL = "history.tail";
+
+    private static final System.Logger LOG = System.getLogger(RateHistoryStore.class.getName());
+    private static final LatencyHistogram APPEND = Metrics.histogram("rates.history.append");
+    private static final LatencyHistogram SEAL = Metrics.histogram("rates.history.seal");
+
+    // A sealed block, read in place from its segment's memory map
+    static final class Block {
+        final ByteBuffer buffer;   // the whole block, little endian
+        final long firstMillis;
+        final long lastMillis;
+        final int rows;
+        final int chunks;
+        final int[] columnById;    // registry id -> column, -1 if the block lacks the currency
+        final int timesAt;
+        final int offsetsAt;
+        final int dataAt;
+
+        Block(ByteBuffer buffer, CurrencyRegistry registry) {
+            this.buffer = buffer;
+            firstMillis = buffer.getLong(8);
+            rows = buffer.getInt(16);
+            int columns = buffer.getInt(20);
+            chunks = (rows + RateColumnCodec.CHUNK_ROWS - 1) / RateColumnCodec.CHUNK_ROWS;
+            columnById = new int[registry.size()];
+            Arrays.fill(columnById, -1);
+            byte[] code = new byte[3];
+            for (int column = 0; column < columns; column++) {
+                buffer.get(BLOCK_HEADER_BYTES + column * 3, code);
+                int id = registry.id(code, 0);
+                if (id >= 0) {
+                    columnById[id] = column;
+                }
+            }
+            timesAt = BLOCK_HEADER_BYTES + codeBytes(columns);
+            offsetsAt = timesAt + rows * 4;
+            dataAt = offsetsAt + columns * chunks * 4;
+            lastMillis = timestamp(rows - 1);
+        }
+
+        long timestamp(int row) {
+            return firstMillis + buffer.getInt(timesAt + row * 4);
+        }
+
+        // Last row at or before 't'; the caller makes sure t >= firstMillis
+        int rowAt(long t) {
+            int low = 0;
+            int high = rows - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (timestamp(mid) <= t) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        double usdRate(int id, int row, RateColumnCodec.Decoder decoder) {
+            int column = id < columnById.length ? columnById[id] : -1;
+            if (column < 0) {
+                return Double.NaN;
+            }
+            int chunk = row / RateColumnCodec.CHUNK_ROWS;
+            startChunk(decoder, column, chunk);
+            return decoder.skipAndNext(row - chunk * RateColumnCodec.CHUNK_ROWS);
+        }
+
+        void startChunk(RateColumnCodec.Decoder decoder, int column, int chunk) {
+            decoder.start(buffer, dataAt, buffer.getInt(offsetsAt + (column * chunks + chunk) * 4));
+        }
+    }
+
+    // Rows of the block being filled. Only the writer adds rows; readers look
+    // at rows below 'rows', which are never changed once counted.
+    static final class OpenBlock {
+        final long[] times = new long[BLOCK_ROWS];
+        final double[][] columns;  // [currency id][row]
+        volatile int rows;
+
+        OpenBlock(int currencies) {
+            columns = new double[currencies][BLOCK_ROWS];
+        }
+
+        // Last row at or before 't', -1 if there is none
+        static int rowAt(long[] times, int rows, long t) {
+            int low = 0;
+            int high = rows - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= t) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low - 1;
+        }
+    }
+
+    // Everything a reader needs, replaced whole when a block is sealed
+    static final class State {
+        final Block[] blocks;
+        final long[] blockFirstMillis;
+        final OpenBlock open;
+
+        State(Block[] blocks, OpenBlock open) {
+            this.blocks = blocks;
+            this.blockFirstMillis = new long[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                blockFirstMillis[i] = blocks[i].firstMillis;
+            }
+            this.open = open;
+        }
+
+        // Index of the last block starting at or before 't', -1 if none
+        int blockAt(long t) {
+            return OpenBlock.rowAt(blockFirstMillis, blocks.length, t);
+        }
+    }
+
+    private final Path directory;
+    private final CurrencyRegistry registry;
+    private final int currencies;
+    private volatile State state;
+
+    // Writer side, guarded by this
+    private FileChannel segment;
+    private long segmentSize;
+    private FileChannel tail;
+    private ByteBuffer tailRow;
+    private long lastMillis = Long.MIN_VALUE;
+    private boolean closed;
+
+    private RateHistoryStore(Path directory, CurrencyRegistry registry) {
+        this.directory = directory;
+        this.registry = registry;
+        this.currencies = registry.size();
+        this.state = new State(new Block[0], new OpenBlock(currencies));
+    }
+
+    // Opens the history in 'directory', creating it if needed, and recovers
+    // the rows of the unsealed block
+    public static RateHistoryStore open(Path directory, CurrencyRegistry registry) throws IOException {
+        if (registry.size() > MAX_CURRENCIES) {
+            throw new IllegalArgumentException("Too many currencies for the rate history: " + registry.size());
+        }
+        Files.createDirectories(directory);
+        RateHistoryStore store = new RateHistoryStore(directory, registry);
+        try {
+            store.recoverSegments();
+            store.recoverTail();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    // Records the snapshot's rates at its timestamp. Snapshots not newer than
+    // the last one recorded are ignored and false is returned.
+    public boolean append(RateSnapshot snapshot) throws IOException {
+        return append(snapshot.timestampMillis(), snapshot.copyUsdRates());
+    }
+
+    // Records USD based rates, indexed by currency id, at 'timestampMillis'
+    public synchronized boolean append(long timestampMillis, double[] usdRates) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Rate history is closed");
+        }
+        if (timestampMillis <= lastMillis) {
+            return false;
+        }
+        long start = Metrics.now();
+        OpenBlock open = state.open;
+        int row = open.rows;
+        if (row == BLOCK_ROWS || (row > 0 && timestampMillis - open.times[0] > Integer.MAX_VALUE)) {
+            seal();
+            open = state.open;
+            row = 0;
+        }
+        tailRow.clear();
+        tailRow.putLong(timestampMillis);
+        for (int id = 0; id < currencies; id++) {
+            double rate = id < usdRates.length ? usdRates[id] : Double.NaN;
+            open.columns[id][row] = rate;
+            tailRow.putDouble(rate);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(tailRow.array(), 0, tailRow.position());
+        tailRow.putInt((int) crc.getValue()).flip();
+        while (tailRow.hasRemaining()) {
+            tail.write(tailRow);
+        }
+        open.times[row] = timestampMillis;
+        open.rows = row + 1;
+        lastMillis = timestampMillis;
+        APPEND.recordSince(start);
+        return true;
+    }
+
+    // Number of snapshots recorded
+    public long size() {
+        State current = state;
+        long rows = current.open.rows;
+        for (Block block : current.blocks) {
+            rows += block.rows;
+        }
+        return rows;
+    }
+
+    // Timestamp of the oldest snapshot, -1 if there is none
+    public long firstMillis() {
+        State current = state;
+        if (current.blocks.length > 0) {
+            return current.blocks[0].firstMillis;
+        }
+        return current.open.rows > 0 ? current.open.times[0] : -1;
+    }
+
+    // Timestamp of the newest snapshot, -1 if there is none
+    public long lastMillis() {
+        State current = state;
+        int rows = current.open.rows;
+        if (rows > 0) {
+            return current.open.times[rows - 1];
+        }
+        return current.blocks.length > 0 ? current.blocks[current.blocks.length - 1].lastMillis : -1;
+    }
+
+    // USD based rate of the currency in the snapshot in effect at
+    // 'timestampMillis' (the last one recorded at or before it); NaN before
+    // the first snapshot or if that snapshot lacks the currency
+    public double usdRateAt(int id, long timestampMillis) {
+        return usdRateAt(state, id, timestampMillis, new RateColumnCodec.Decoder());
+    }
+
+    // Units of 'to' per one unit of 'from' in the snapshot in effect at
+    // 'timestampMillis', or NaN as for usdRateAt
+    public double rateAt(int fromId, int toId, long timestampMillis) {
+        State current = state;
+        RateColumnCodec.Decoder decoder = new RateColumnCodec.Decoder();
+        return usdRateAt(current, toId, timestampMillis, decoder) / usdRateAt(current, fromId, timestampMillis, decoder);
+    }
+
+    // 'amount' converted with the rates in effect at 'timestampMillis', or
+    // NaN as for usdRateAt
+    public double convertAt(int fromId, int toId, double amount, long timestampMillis) {
+        return amount * rateAt(fromId, toId, timestampMillis);
+    }
+
+    // Converts amounts[i] from fromIds[i] to toIds[i] with the rates in
+    // effect at timestampsMillis[i], writing the results to out. Rows before
+    // the first snapshot, or with a currency their snapshot lacks, get NaN.
+    // Timestamps need not be sorted, but sorted input (a journal, say) skips
+    // the sort; see AsOfBatch. All rows see the same history, even while
+    // snapshots are being appended. Returns the number of rows priced.
+    public int convertBatchAt(long[] timestampsMillis, int[] fromIds, int[] toIds, double[] amounts, double[] out) {
+        int count = timestampsMillis.length;
+        if (fromIds.length != count || toIds.length != count || amounts.length != count || out.length < count) {
+            throw new IllegalArgumentException("Batch arrays differ in length: " + count + " timestamps");
+        }
+        return AsOfBatch.convert(state, currencies, timestampsMillis, fromIds, toIds, amounts, out);
+    }
+
+    // All USD based rates, indexed by currency id, of the snapshot in effect
+    // at 'timestampMillis'; null before the first snapshot
+    public double[] usdRatesAt(long timestampMillis) {
+        State current = state;
+        double[] rates = new double[currencies];
+        OpenBlock open = current.open;
+        int rows = open.rows;
+        if (rows > 0 && timestampMillis >= open.times[0]) {
+            int row = OpenBlock.rowAt(open.times, rows, timestampMillis);
+            for (int id = 0; id < currencies; id++) {
+                rates[id] = open.columns[id][row];
+            }
+            return rates;
+        }
+        int index = current.blockAt(timestampMillis);
+        if (index < 0) {
+            return null;
+        }
+        Block block = current.blocks[index];
+        int row = block.rowAt(timestampMillis);
+        RateColumnCodec.Decoder decoder = new RateColumnCodec.Decoder();
+        for (int id = 0; id < currencies; id++) {
+            rates[id] = block.usdRate(id, row, decoder);
+        }
+        return rates;
+    }
+
+    // Visits every snapshot recorded in [fromMillis, toMillis], oldest first,
+    // with the currency's USD based rate in it (NaN where it was not stored)
+    public void scan(int id, long fromMillis, long toMillis, PointVisitor visitor) {
+        State current = state;
+        RateColumnCodec.Decoder decoder = new RateColumnCodec.Decoder();
+        for (int index = Math.max(0, current.blockAt(fromMillis)); index < current.blocks.length; index++) {
+            Block block = current.blocks[index];
+            if (block.firstMillis > toMillis) {
+                return;
+            }
+            if (block.lastMillis < fromMillis) {
+                continue;
+            }
+            int column = id < block.columnById.length ? block.columnById[id] : -1;
+            int row = fromMillis <= block.firstMillis ? 0 : block.rowAt(fromMillis - 1) + 1;
+            while (row < block.rows) {
+                long t = block.timestamp(row);
+                if (t > toMillis) {
+                    return;
+                }
+                int chunk = row / RateColumnCodec.CHUNK_ROWS;
+                int end = Math.min(block.rows, (chunk + 1) * RateColumnCodec.CHUNK_ROWS);
+                if (column < 0) {
+                    visitor.visit(t, Double.NaN);
+                    row++;
+                    continue;
+                }
+                // Decode the chunk once and walk it to its end
+                block.startChunk(decoder, column, chunk);
+                double rate = decoder.skipAndNext(row - chunk * RateColumnCodec.CHUNK_ROWS);
+                while (true) {
+                    visitor.visit(t, rate);
+                    if (++row == end) {
+                        break;
+                    }
+                    t = block.timestamp(row);
+                    if (t > toMillis) {
+                        return;
+                    }
+                    rate = decoder.next();
+                }
+            }
+        }
+        OpenBlock open = current.open;
+        int rows = open.rows;
+        int first = fromMillis == Long.MIN_VALUE ? 0 : OpenBlock.rowAt(open.times, rows, fromMillis - 1) + 1;
+        for (int row = first; row < rows; row++) {
+            if (open.times[row] > toMillis) {
+                return;
+            }
+            visitor.visit(open.times[row], id < currencies ? open.columns[id][row] : Double.NaN);
+        }
+    }
+
+    private static double usdRateAt(State current, int id, long t, RateColumnCodec.Decoder decoder) {
+        OpenBlock open = current.open;
+        int rows = open.rows;
+        if (rows > 0 && t >= open.times[0]) {
+            int row = OpenBlock.rowAt(open.times, rows, t);
+            return id >= 0 && id < open.columns.length ? open.columns[id][row] : Double.NaN;
+        }
+        int index = current.blockAt(t);
+        if (index < 0 || id < 0) {
+            return Double.NaN;
+        }
+        Block block = current.blocks[index];
+        return block.usdRate(id, block.rowAt(t), decoder);
+    }
+
+    // Writes the open block to the current segment, makes it durable and
+    // empties the tail
+    private void seal() throws IOException {
+        long start = Metrics.now();
+        State current = state;
+        ByteBuffer encoded = encode(current.open);
+        int length = encoded.remaining();
+        if (segment == null || (segmentSize + length > SEGMENT_BYTES && segmentSize > SEGMENT_HEADER_BYTES)) {
+            startSegment(current.open.times[0]);
+        }
+        long at = segmentSize;
+        while (encoded.hasRemaining()) {
+            segment.write(encoded, at + encoded.position());
+        }
+        segment.force(false);
+        segmentSize += length;
+        MappedByteBuffer mapped = segment.map(FileChannel.MapMode.READ_ONLY, at, length);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        Block[] blocks = Arrays.copyOf(current.blocks, current.blocks.length + 1);
+        blocks[blocks.length - 1] = new Block(mapped, registry);
+        state = new State(blocks, new OpenBlock(currencies));
+
+        tail.truncate(TAIL_HEADER_BYTES + codeBytes(currencies));
+        tail.position(TAIL_HEADER_BYTES + codeBytes(currencies));
+        tail.force(false);
+        SEAL.recordSince(start);
+    }
+
+    private ByteBuffer encode(OpenBlock open) {
+        int rows = open.rows;
+        int chunks = (rows + RateColumnCodec.CHUNK_ROWS - 1) / RateColumnCodec.CHUNK_ROWS;
+        int[] offsets = new int[currencies * chunks];
+        RateColumnCodec.BitWriter data = new RateColumnCodec.BitWriter();
+        for (int id = 0; id < currencies; id++) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int from = chunk * RateColumnCodec.CHUNK_ROWS;
+                offsets[id * chunks + chunk] = Math.toIntExact(data.position());
+                RateColumnCodec.encode(data, open.columns[id], from, Math.min(RateColumnCodec.CHUNK_ROWS, rows - from));
+            }
+        }
+        int length = BLOCK_HEADER_BYTES + codeBytes(currencies) + rows * 4 + offsets.length * 4 + data.byteLength() + 4;
+        ByteBuffer block = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(BLOCK_MAGIC)
+            .putInt(length)
+            .putLong(open.times[0])
+            .putInt(rows)
+            .putInt(currencies);
+        putCodes(block);
+        for (int row = 0; row < rows; row++) {
+            block.putInt((int) (open.times[row] - open.times[0]));
+        }
+        for (int offset : offsets) {
+            block.putInt(offset);
+        }
+        data.copyTo(block);
+        CRC32C crc = new CRC32C();
+        crc.update(block.array(), 0, length - 4);
+        block.putInt((int) crc.getValue()).flip();
+        return block;
+    }
+
+    private void startSegment(long firstMillis) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        Path file = directory.resolve(segmentName(firstMillis));
+        segment = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SEGMENT_MAGIC).putShort(FORMAT_VERSION).putShort((short) 0).putLong(firstMillis).flip();
+        while (header.hasRemaining()) {
+            segment.write(header, header.position());
+        }
+        segmentSize = SEGMENT_HEADER_BYTES;
+        // Make the new file itself durable, not just its contents
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Not supported on every platform
+        }
+    }
+
+    // Maps every valid block and reopens the last segment for appending,
+    // cutting off a block that was torn by a crash
+    private void recoverSegments() throws IOException {
+        List<Path> files = segments();
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            boolean last = i == files.size() - 1;
+            FileChannel channel = last
+                ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException("Rate history segment too large: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (size < SEGMENT_HEADER_BYTES || mapped.getInt(0) == 0) {
+                // Crashed while creating the segment: nothing in it is usable
+                channel.close();
+                if (!last) {
+                    throw new IOException("Incomplete rate history segment: " + file);
+                }
+                LOG.log(System.Logger.Level.WARNING, "Removing incomplete rate history segment " + file);
+                Files.delete(file);
+                break;
+            }
+            if (mapped.getInt(0) != SEGMENT_MAGIC || mapped.getShort(4) != FORMAT_VERSION) {
+                channel.close();
+                throw new IOException("Not a rate history segment of format version " + FORMAT_VERSION + ": " + file);
+            }
+            int at = SEGMENT_HEADER_BYTES;
+            CRC32C check = new CRC32C();
+            while (at < size) {
+                int length = validBlock(mapped, at, (int) size, check);
+                if (length < 0) {
+                    LOG.log(System.Logger.Level.WARNING, "Ignoring rate history " + file + " from byte " + at
+                        + " on, after an incomplete or damaged block");
+                    break;
+                }
+                Block block = new Block(mapped.slice(at, length).order(ByteOrder.LITTLE_ENDIAN), registry);
+                if (block.firstMillis <= lastMillis) {
+                    LOG.log(System.Logger.Level.WARNING, "Ignoring out of order rate history block in " + file);
+                } else {
+                    blocks.add(block);
+                    lastMillis = block.lastMillis;
+                }
+                at += length;
+            }
+            if (last) {
+                if (at != size) {
+                    channel.truncate(at);
+                    channel.force(true);
+                }
+                segment = channel;
+                segmentSize = at;
+            } else {
+                channel.close();
+            }
+        }
+        state = new State(blocks.toArray(new Block[0]), new OpenBlock(currencies));
+    }
+
+    // Length of the valid block at 'at', or -1
+    private static int validBlock(ByteBuffer mapped, int at, int size, CRC32C check) {
+        if (size - at < BLOCK_HEADER_BYTES + 4 || mapped.getInt(at) != BLOCK_MAGIC) {
+            return -1;
+        }
+        int length = mapped.getInt(at + 4);
+        int rows = mapped.getInt(at + 16);
+        int columns = mapped.getInt(at + 20);
+        if (length < BLOCK_HEADER_BYTES + 4 || length > size - at || rows <= 0 || rows > BLOCK_ROWS
+                || columns < 0 || columns > MAX_CURRENCIES) {
+            return -1;
+        }
+        check.reset();
+        check.update(mapped.duplicate().position(at).limit(at + length - 4));
+        return (int) check.getValue() == mapped.getInt(at + length - 4) ? length : -1;
+    }
+
+    // Reloads the rows of the unsealed block from the tail, then keeps the
+    // tail open for appending
+    private void recoverTail() throws IOException {
+        Path file = directory.resolve(TAIL);
+        int headerBytes = TAIL_HEADER_BYTES + codeBytes(currencies);
+        tailRow = ByteBuffer.allocate(8 + currencies * 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer expected = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        expected.putInt(TAIL_MAGIC).putShort(FORMAT_VERSION).putShort((short) currencies);
+        putCodes(expected);
+        expected.flip();
+
+        OpenBlock open = state.open;
+        boolean rewrite = false;
+        long validSize = headerBytes;
+        if (Files.exists(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                rewrite = !readTail(bytes, open) || !bytes.slice(0, Math.min(bytes.limit(), headerBytes)).equals(expected);
+                validSize = bytes.position();
+            }
+        }
+        if (rewrite) {
+            LOG.log(System.Logger.Level.WARNING, "Rewriting rate history tail " + file);
+            Path temp = Files.createTempFile(directory, "history", ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    channel.write(expected.duplicate());
+                    for (int row = 0; row < open.rows; row++) {
+                        tailRow.clear();
+                        tailRow.putLong(open.times[row]);
+                        for (int id = 0; id < currencies; id++) {
+                            tailRow.putDouble(open.columns[id][row]);
+                        }
+                        CRC32C crc = new CRC32C();
+                        crc.update(tailRow.array(), 0, tailRow.position());
+                        tailRow.putInt((int) crc.getValue()).flip();
+                        while (tailRow.hasRemaining()) {
+                            channel.write(tailRow);
+                        }
+                    }
+                    channel.force(true);
+                }
+                try {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            validSize = headerBytes + (long) open.rows * tailRow.capacity();
+        }
+        tail = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (tail.size() < headerBytes) {
+            tail.truncate(0);
+            tail.write(expected.duplicate(), 0);
+            validSize = headerBytes;
+        }
+        tail.truncate(validSize);
+        tail.position(validSize);
+    }
+
+    // Loads the tail rows newer than the sealed blocks into 'open' and leaves
+    // 'bytes' positioned after the last complete row. Returns false if the
+    // tail was unreadable or ended in a damaged row.
+    private boolean readTail(ByteBuffer bytes, OpenBlock open) {
+        if (bytes.limit() < TAIL_HEADER_BYTES || bytes.getInt(0) != TAIL_MAGIC || bytes.getShort(4) != FORMAT_VERSION) {
+            bytes.position(0);
+            return false;
+        }
+        int columns = bytes.getShort(6);
+        int codesBytes = codeBytes(columns);
+        if (columns < 0 || bytes.limit() < TAIL_HEADER_BYTES + codesBytes) {
+            bytes.position(0);
+            return false;
+        }
+        int[] idByColumn = new int[columns];
+        byte[] code = new byte[3];
+        for (int column = 0; column < columns; column++) {
+            bytes.get(TAIL_HEADER_BYTES + column * 3, code);
+            idByColumn[column] = registry.id(code, 0);
+        }
+        int rowBytes = 8 + columns * 8 + 4;
+        int at = TAIL_HEADER_BYTES + codesBytes;
+        CRC32C check = new CRC32C();
+        while (bytes.limit() - at >= rowBytes) {
+            check.reset();
+            check.update(bytes.duplicate().position(at).limit(at + rowBytes - 4));
+            if ((int) check.getValue() != bytes.getInt(at + rowBytes - 4)) {
+                break;
+            }
+            long t = bytes.getLong(at);
+            int row = open.rows;
+            if (t > lastMillis && row < BLOCK_ROWS) {
+                open.times[row] = t;
+                for (int id = 0; id < currencies; id++) {
+                    open.columns[id][row] = Double.NaN;
+                }
+                for (int column = 0; column < columns; column++) {
+                    if (idByColumn[column] >= 0) {
+                        open.columns[idByColumn[column]][row] = bytes.getDouble(at + 8 + column * 8);
+                    }
+                }
+                open.rows = row + 1;
+                lastMillis = t;
+            }
+            at += rowBytes;
+        }
+        bytes.position(at);
+        return at == bytes.limit();
+    }
+
+    private void putCodes(ByteBuffer buffer) {
+        for (int id = 0; id < currencies; id++) {
+            buffer.put(registry.code(id).getBytes(StandardCharsets.US_ASCII));
+        }
+        for (int pad = codeBytes(currencies) - currencies * 3; pad > 0; pad--) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static int codeBytes(int currencies) {
+        return (currencies * 3 + 3) & ~3;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                if (firstMillis(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        // Fixed-width names sort by time
+        Collections.sort(files);
+        return files;
+    }
+
+    private static String segmentName(long firstMillis) {
+        return String.format("%s%020d%s", PREFIX, firstMillis, SUFFIX);
+    }
+
+    private static long firstMillis(Path file) {
+        String name = file.getFileName().toString();
+        if (name.length() != PREFIX.length() + 20 + SUFFIX.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), PREFIX.length() + 20));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Leaves the unsealed rows in the tail for the next open. Lookups keep
+    // working on what was recorded.
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException failure = null;
+        for (FileChannel channel : new FileChannel[] {tail, segment}) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                if (channel == tail) {
+                    channel.force(false);
+                }
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package currency;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Refreshes the engine's rates in the background.
+//
+// Refreshes run on one daemon thread every 'period'. After a failure the next
+// attempt is pulled in with exponential backoff (jittered, capped at
+// 'maxBackoff') so a flaky provider is retried quickly without being hammered.
+// Overlapping requests are deduplicated: refreshNow() while a refresh is
+// running returns the in-flight result instead of starting another one.
+//
+// Nothing here touches the UI; listeners are called on the refresher thread.
+public final class RateRefresher implements AutoCloseable {
+
+    public interface Listener {
+        void refreshed(RateFetcher.Status status, Throwable error);
+    }
+
+    private static final System.Logger LOG = System.getLogger(RateRefresher.class.getName());
+    private static final LatencyHistogram REFRESH = Metrics.histogram("rates.refresh");
+    private static final Metrics.Counter REFRESH_FAILURES = Metrics.counter("rates.refresh.failures");
+
+    private final ConversionEngine engine;
+    private final RateSource source;
+    private final long periodMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicReference<CompletableFuture<RateFetcher.Status>> inFlight = new AtomicReference<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledFuture<?> nextRefresh;   // guarded by this
+    private boolean started;                  // guarded by this
+    private int consecutiveFailures;          // refresher thread only
+
+    public RateRefresher(ConversionEngine engine, RateSource source,
+                         Duration period, Duration initialBackoff, Duration maxBackoff) {
+        this.engine = engine;
+        this.source = source;
+        this.periodMillis = period.toMillis();
+        this.initialBackoffMillis = Math.max(1, initialBackoff.toMillis());
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoff.toMillis());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Starts the periodic refresh with an immediate first attempt
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            scheduleNext(0);
+        }
+    }
+
+    // Refreshes as soon as possible. If a refresh is already running the
+    // caller shares its result.
+    public CompletableFuture<RateFetcher.Status> refreshNow() {
+        CompletableFuture<RateFetcher.Status> created = new CompletableFuture<>();
+        CompletableFuture<RateFetcher.Status> running = inFlight.compareAndExchange(null, created);
+        if (running != null) {
+            return running;
+        }
+        try {
+            scheduler.execute(() -> runRefresh(created));
+        } catch (RuntimeException e) {
+            inFlight.set(null);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private void runRefresh(CompletableFuture<RateFetcher.Status> result) {
+        RateFetcher.Status status;
+        Throwable error = null;
+        long start = Metrics.now();
+        try {
+            status = source.refresh(engine);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = RateFetcher.Status.FAILED;
+            error = e;
+        } catch (Exception e) {
+            status = RateFetcher.Status.FAILED;
+            error = e;
+        }
+
+        REFRESH.recordSince(start);
+
+        long delay;
+        if (status == RateFetcher.Status.FAILED) {
+            REFRESH_FAILURES.increment();
+            consecutiveFailures++;
+            delay = backoffMillis(consecutiveFailures);
+            LOG.log(System.Logger.Level.WARNING, "Rate refresh from " + source.name() + " failed ("
+                + consecutiveFailures + " in a row), retrying in " + delay + " ms", error);
+        } else {
+            consecutiveFailures = 0;
+            delay = periodMillis;
+        }
+        synchronized (this) {
+            if (started) {
+                scheduleNext(delay);
+            }
+        }
+
+        inFlight.set(null);
+        for (Listener listener : listeners) {
+            try {
+                listener.refreshed(status, error);
+            } catch (RuntimeException e) {
+                LOG.log(System.Logger.Level.WARNING, "Rate refresh listener failed", e);
+            }
+        }
+        result.complete(status);
+    }
+
+    // Equal jitter: uniform in [ceiling / 2, ceiling] where
+    // ceiling = min(maxBackoff, initialBackoff * 2^(failures - 1))
+    private long backoffMillis(int failures) {
+        int shift = Math.min(failures - 1, 30);
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << shift);
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    private void scheduleNext(long delayMillis) {
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        if (!scheduler.isShutdown()) {
+            nextRefresh = scheduler.schedule(this::refreshNow, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            started = false;
+            if (nextRefresh != null) {
+                nextRefresh.cancel(false);
+            }
+        }
+        scheduler.shutdownNow();
+    }
+}
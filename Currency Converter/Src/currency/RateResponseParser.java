@@ -0,0 +1,315 @@
+package currency;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Parses rate responses of the exchangerate-api.com kind:
+//   {"base":"USD", ..., "rates":{"USD":1,"EUR":0.85,"GBP":0.73, ...}}
+//
+// Single-pass scanner over the raw response bytes. Currency keys are resolved
+// through the CurrencyRegistry straight from the buffer and numbers are parsed
+// in place, so no intermediate Strings are created. Other members, including
+// nested objects and arrays before the rates block, are skipped structurally.
+public final class RateResponseParser {
+
+    private static final byte[] RATES_KEY = "rates".getBytes(StandardCharsets.US_ASCII);
+
+    // Powers of ten that are exact in a double, and the largest mantissa that
+    // is, so m * 10^e and m / 10^e are correctly rounded
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+    private RateResponseParser(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    // Fills rates (indexed by currency id) with the USD based rates of the
+    // response; currencies missing from the response are left at 0. Returns
+    // the number of supported currencies found, or -1 if the response has no
+    // rates object. Throws IllegalArgumentException on malformed JSON.
+    public static int parseUsdRates(byte[] body, int offset, int length, CurrencyRegistry registry, double[] rates) {
+        Arrays.fill(rates, 0.0);
+        return new RateResponseParser(body, offset, length).parseResponse(registry, rates);
+    }
+
+    public static int parseUsdRates(byte[] body, CurrencyRegistry registry, double[] rates) {
+        return parseUsdRates(body, 0, body.length, registry, rates);
+    }
+
+    public static int parseUsdRates(ByteBuffer body, CurrencyRegistry registry, double[] rates) {
+        if (body.hasArray()) {
+            return parseUsdRates(body.array(), body.arrayOffset() + body.position(), body.remaining(), registry, rates);
+        }
+        byte[] copy = new byte[body.remaining()];
+        body.duplicate().get(copy);
+        return parseUsdRates(copy, registry, rates);
+    }
+
+    private int parseResponse(CurrencyRegistry registry, double[] rates) {
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            return -1;
+        }
+        while (true) {
+            skipWhitespace();
+            int keyStart = pos + 1;
+            skipString();
+            int keyEnd = pos - 1;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (peek() == '{' && keyEquals(keyStart, keyEnd, RATES_KEY)) {
+                return parseRates(registry, rates);
+            }
+            skipValue();
+            skipWhitespace();
+            if (next() == '}') {
+                return -1;
+            }
+            checkLast(',');
+        }
+    }
+
+    private int parseRates(CurrencyRegistry registry, double[] rates) {
+        // USD is the base currency
+        int usd = registry.id("USD");
+        if (usd >= 0) {
+            rates[usd] = 1.0;
+        }
+
+        int found = 0;
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            return found;
+        }
+        while (true) {
+            skipWhitespace();
+            int keyStart = pos + 1;
+            skipString();
+            int keyLength = pos - 1 - keyStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            int id = keyLength == 3 ? registry.id(buf, keyStart) : -1;
+            byte c = peek();
+            if (id >= 0 && (c == '-' || (c >= '0' && c <= '9'))) {
+                // Only update currencies we support
+                rates[id] = parseNumber();
+                found++;
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            if (next() == '}') {
+                return found;
+            }
+            checkLast(',');
+        }
+    }
+
+    private double parseNumber() {
+        int start = pos;
+        boolean negative = false;
+        if (buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        while (pos < end && isDigit(buf[pos])) {
+            sawDigit = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (buf[pos] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+                digits++;
+            }
+            pos++;
+        }
+        if (pos < end && buf[pos] == '.') {
+            pos++;
+            while (pos < end && isDigit(buf[pos])) {
+                sawDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (buf[pos] - '0');
+                    exponent--;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                } else {
+                    digits++;
+                }
+                pos++;
+            }
+        }
+        if (!sawDigit) {
+            throw error("Expected a number");
+        }
+        if (pos < end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (buf[pos] == '+' || buf[pos] == '-')) {
+                negativeExponent = buf[pos] == '-';
+                pos++;
+            }
+            int explicit = 0;
+            boolean sawExponentDigit = false;
+            while (pos < end && isDigit(buf[pos])) {
+                sawExponentDigit = true;
+                if (explicit < 10_000) {
+                    explicit = explicit * 10 + (buf[pos] - '0');
+                }
+                pos++;
+            }
+            if (!sawExponentDigit) {
+                throw error("Expected an exponent");
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+
+        if (digits > 18 || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            // Rare in rate payloads (very long or very large numbers)
+            return Double.parseDouble(new String(buf, start, pos - start, StandardCharsets.US_ASCII));
+        }
+        // Exact mantissa and power of ten: a single rounding, so the result
+        // matches Double.parseDouble
+        double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        return negative ? -value : value;
+    }
+
+    private void skipValue() {
+        byte c = peek();
+        switch (c) {
+            case '"':
+                skipString();
+                return;
+            case '{':
+            case '[':
+                skipContainer();
+                return;
+            case 't':
+                skipLiteral("true");
+                return;
+            case 'f':
+                skipLiteral("false");
+                return;
+            case 'n':
+                skipLiteral("null");
+                return;
+            default:
+                parseNumber();
+        }
+    }
+
+    // Skips a whole object or array, including anything nested inside it
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            byte c = next();
+            if (c == '"') {
+                pos--;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() {
+        expect('"');
+        while (true) {
+            byte c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private void skipLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte c = buf[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean keyEquals(int start, int keyEnd, byte[] key) {
+        if (keyEnd - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buf[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte peek() {
+        if (pos >= end) {
+            throw error("Unexpected end of response");
+        }
+        return buf[pos];
+    }
+
+    private byte next() {
+        byte c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            pos--;
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void checkLast(char c) {
+        if (buf[pos - 1] != c) {
+            pos--;
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at byte " + pos + " of rate response");
+    }
+}
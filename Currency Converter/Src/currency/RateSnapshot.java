@@ -0,0 +1,93 @@
+package currency;
+
+// Immutable, versioned set of exchange rates.
+//
+// A snapshot is never modified after construction, so readers can hold on to
+// one and price any number of conversions against a consistent rate set
+// without locking. New rates are published by ConversionEngine as a new
+// snapshot with a higher version.
+public final class RateSnapshot {
+
+    private final long version;
+    private final long timestampMillis;
+    private final int size;
+    private final double[] usdRates;   // units of currency per 1 USD
+    private final double[] crossRates; // row-major [from * size + to]
+    private volatile ExactRates exactRates; // built on first use
+
+    RateSnapshot(long version, long timestampMillis, double[] usdRates) {
+        this.version = version;
+        this.timestampMillis = timestampMillis;
+        this.size = usdRates.length;
+        this.usdRates = usdRates;
+        this.crossRates = buildCrossRates(usdRates);
+    }
+
+    // With cross rates worked out elsewhere (see RateGraph) instead of
+    // derived from the USD rates; takes ownership of both arrays
+    RateSnapshot(long version, long timestampMillis, double[] usdRates, double[] crossRates) {
+        this.version = version;
+        this.timestampMillis = timestampMillis;
+        this.size = usdRates.length;
+        this.usdRates = usdRates;
+        this.crossRates = crossRates;
+    }
+
+    private static double[] buildCrossRates(double[] usdRates) {
+        int size = usdRates.length;
+        double[] cross = new double[size * size];
+        for (int from = 0; from < size; from++) {
+            double fromRate = usdRates[from];
+            int row = from * size;
+            for (int to = 0; to < size; to++) {
+                cross[row + to] = from == to ? 1.0 : usdRates[to] / fromRate;
+            }
+        }
+        return cross;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    // When the rates were published, in epoch milliseconds
+    public long timestampMillis() {
+        return timestampMillis;
+    }
+
+    public int currencyCount() {
+        return size;
+    }
+
+    // Units of 'to' per one unit of 'from'
+    public double rate(int fromId, int toId) {
+        return crossRates[fromId * size + toId];
+    }
+
+    public double convert(int fromId, int toId, double amount) {
+        return amount * crossRates[fromId * size + toId];
+    }
+
+    public double usdRate(int id) {
+        return usdRates[id];
+    }
+
+    // Scaled-integer rates for exact conversion, fixed once per snapshot
+    ExactRates exactRates(CurrencyRegistry registry) {
+        ExactRates exact = exactRates;
+        if (exact == null) {
+            exact = ExactRates.of(this, registry);
+            exactRates = exact;
+        }
+        return exact;
+    }
+
+    // Shared with the batch kernels; must never be written to
+    double[] crossRates() {
+        return crossRates;
+    }
+
+    public double[] copyUsdRates() {
+        return usdRates.clone();
+    }
+}
@@ -0,0 +1,160 @@
+package currency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Keeps the last good rate snapshot on disk so a restart can price with
+// recent rates before the first refresh completes.
+//
+// File layout (little endian):
+//   int    magic 'CCRS'
+//   short  format version
+//   short  reserved
+//   long   snapshot version
+//   long   timestamp, epoch millis
+//   int    currency count n
+//   n x double  USD based rates
+//   n x 3 bytes ISO 4217 codes
+//   int    CRC32 of everything above
+//
+// Rates are matched back to currencies by code, so the file stays usable when
+// the set or order of supported currencies changes. A file with the wrong
+// magic, format version, size or checksum is skipped.
+public final class RateSnapshotStore {
+
+    private static final int MAGIC = 0x53524343; // "CCRS" read little endian
+    private static final short FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 2 + 2 + 8 + 8 + 4;
+    private static final int MAX_CURRENCIES = 4096;
+
+    private static final System.Logger LOG = System.getLogger(RateSnapshotStore.class.getName());
+
+    private final Path file;
+
+    public RateSnapshotStore(Path file) {
+        this.file = file;
+    }
+
+    // ~/.currency-converter/rates.bin unless -Dcurrency.cacheDir says otherwise
+    public static Path defaultFile() {
+        String dir = System.getProperty("currency.cacheDir");
+        Path base = dir != null ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".currency-converter");
+        return base.resolve("rates.bin");
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    // Publishes the stored rates into the engine with their original
+    // timestamp. Returns false, leaving the engine untouched, when there is
+    // no usable file.
+    public boolean load(ConversionEngine engine) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 4 || size > HEADER_BYTES + 4 + (long) MAX_CURRENCIES * 11) {
+                return skip("unexpected size " + size);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.getInt(0) != MAGIC) {
+                return skip("not a rate snapshot file");
+            }
+            if (mapped.getShort(4) != FORMAT_VERSION) {
+                return skip("format version " + mapped.getShort(4) + " is not supported");
+            }
+            long timestamp = mapped.getLong(16);
+            int count = mapped.getInt(24);
+            int payload = HEADER_BYTES + count * 11;
+            if (count < 0 || count > MAX_CURRENCIES || size != payload + 4) {
+                return skip("currency count " + count + " does not match the file size");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(mapped.duplicate().position(0).limit(payload));
+            if ((int) crc.getValue() != mapped.getInt(payload)) {
+                return skip("checksum mismatch");
+            }
+
+            CurrencyRegistry registry = engine.registry();
+            double[] rates = new double[registry.size()];
+            byte[] code = new byte[3];
+            int ratesAt = HEADER_BYTES;
+            int codesAt = HEADER_BYTES + count * 8;
+            for (int i = 0; i < count; i++) {
+                mapped.get(codesAt + i * 3, code);
+                int id = registry.id(code, 0);
+                if (id >= 0) {
+                    rates[id] = mapped.getDouble(ratesAt + i * 8);
+                }
+            }
+            engine.publish(rates, timestamp);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException | RuntimeException e) {
+            LOG.log(System.Logger.Level.WARNING, "Could not read rate cache " + file, e);
+            return false;
+        }
+    }
+
+    private boolean skip(String reason) {
+        LOG.log(System.Logger.Level.WARNING, "Ignoring rate cache " + file + ": " + reason);
+        return false;
+    }
+
+    // Writes the snapshot to a temporary file and moves it into place, so a
+    // crash mid-write never leaves a half written cache behind
+    public void save(RateSnapshot snapshot, CurrencyRegistry registry) throws IOException {
+        int count = snapshot.currencyCount();
+        int payload = HEADER_BYTES + count * 11;
+        ByteBuffer buffer = ByteBuffer.allocate(payload + 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+            .putShort(FORMAT_VERSION)
+            .putShort((short) 0)
+            .putLong(snapshot.version())
+            .putLong(snapshot.timestampMillis())
+            .putInt(count);
+        for (int id = 0; id < count; id++) {
+            buffer.putDouble(snapshot.usdRate(id));
+        }
+        for (int id = 0; id < count; id++) {
+            buffer.put(registry.code(id).getBytes(StandardCharsets.US_ASCII));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, payload);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "rates", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
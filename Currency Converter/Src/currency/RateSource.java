@@ -0,0 +1,14 @@
+package currency;
+
+import java.io.IOException;
+
+// Where RateRefresher gets its rates from: a single provider (RateFetcher) or
+// several consolidated into one rate set (RateAggregator)
+public interface RateSource {
+
+    // Fetches rates and publishes them into the engine if they changed
+    RateFetcher.Status refresh(ConversionEngine engine) throws IOException, InterruptedException;
+
+    // Names the source in log messages
+    String name();
+}
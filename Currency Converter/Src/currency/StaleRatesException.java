@@ -0,0 +1,26 @@
+package currency;
+
+// Thrown when rates are older than the engine's staleness budget and the
+// engine is configured to refuse conversions rather than flag them
+public class StaleRatesException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long ageMillis;
+
+    public StaleRatesException(long ageMillis, long maxStalenessMillis) {
+        super("Exchange rates are " + ageMillis / 1000 + "s old, budget is " + maxStalenessMillis / 1000 + "s");
+        this.ageMillis = ageMillis;
+    }
+
+    // Rates of unknown age, as reported by a server that refused to price
+    public StaleRatesException(String message) {
+        super(message);
+        this.ageMillis = -1;
+    }
+
+    // Age of the rates, or -1 if it is not known
+    public long ageMillis() {
+        return ageMillis;
+    }
+}
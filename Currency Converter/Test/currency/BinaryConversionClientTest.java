@@ -0,0 +1,104 @@
+package currency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryConversionClientTest {
+
+    private final ConversionEngine engine = ConversionEngine.withDefaultRates();
+    private final int usd = engine.currencyId("USD");
+    private final int eur = engine.currencyId("EUR");
+
+    @Test
+    void convertsBatchesLargerThanOneFrame() throws IOException {
+        try (BinaryConversionServer server = BinaryConversionServer.start(engine, loopback());
+             BinaryConversionClient client = BinaryConversionClient.connect(server.address())) {
+            double[] amounts = new double[BinaryProtocol.MAX_BATCH * 2 + 5];
+            for (int i = 0; i < amounts.length; i++) {
+                amounts[i] = i;
+            }
+            double[] out = new double[amounts.length];
+
+            assertEquals(engine.snapshot().version(), client.convert(client.currencyId("USD"),
+                client.currencyId("EUR"), amounts, out));
+            for (int i = 0; i < amounts.length; i++) {
+                assertEquals(engine.convert(usd, eur, amounts[i]), out[i]);
+            }
+        }
+    }
+
+    @Test
+    void staleRatesSurfaceAsStaleRatesException() throws Exception {
+        engine.setStalenessBudget(Duration.ZERO, ConversionEngine.StalenessPolicy.FAIL);
+        Thread.sleep(5);
+        try (BinaryConversionServer server = BinaryConversionServer.start(engine, loopback());
+             BinaryConversionClient client = BinaryConversionClient.connect(server.address())) {
+            double[] out = new double[1];
+
+            StaleRatesException e = assertThrows(StaleRatesException.class,
+                () -> client.convert(usd, eur, new double[] {100}, out));
+            assertEquals(-1, e.ageMillis());
+
+            engine.setStalenessBudget(Duration.ofDays(1), ConversionEngine.StalenessPolicy.FAIL);
+            engine.confirmRates(System.currentTimeMillis());
+            client.convert(usd, eur, new double[] {100}, out);
+            assertEquals(engine.convert(usd, eur, 100), out[0]);
+        }
+    }
+
+    @Test
+    void aGarbageResponseLengthFailsInsteadOfWaiting() throws Exception {
+        try (ServerSocket fake = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = fake.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(hello());
+                    InputStream in = socket.getInputStream();
+                    in.readNBytes(BinaryProtocol.REQUEST_HEADER_BYTES + BinaryProtocol.TUPLE_BYTES);
+                    ByteBuffer garbage = ByteBuffer.allocate(BinaryProtocol.RESPONSE_HEADER_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                    garbage.putInt(0, 1 << 20);
+                    out.write(garbage.array());
+                    in.read();   // until the client hangs up
+                } catch (IOException e) {
+                    // client gone
+                }
+            });
+            server.start();
+            try (BinaryConversionClient client = BinaryConversionClient.connect(
+                    new InetSocketAddress(fake.getInetAddress(), fake.getLocalPort()))) {
+                IOException e = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> assertThrows(IOException.class, () -> client.convert(0, 0, new double[] {1}, new double[1])));
+                assertEquals("Malformed response length " + (1 << 20) + " from binary conversion server",
+                    e.getMessage());
+            }
+            server.join(10_000);
+        }
+    }
+
+    private static InetSocketAddress loopback() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    // Hello frame for a server with USD only
+    private static byte[] hello() {
+        ByteBuffer hello = ByteBuffer.allocate(4 + 8 + 3).order(ByteOrder.LITTLE_ENDIAN);
+        hello.putInt(8 + 3).putInt(BinaryProtocol.MAGIC).putShort(BinaryProtocol.VERSION).putShort((short) 1)
+            .put((byte) 'U').put((byte) 'S').put((byte) 'D');
+        return hello.array();
+    }
+}
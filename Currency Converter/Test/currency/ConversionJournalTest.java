@@ -0,0 +1,107 @@
+package currency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConversionJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private final ConversionEngine engine = ConversionEngine.withDefaultRates();
+    private final int usd = engine.currencyId("USD");
+    private final int cny = engine.currencyId("CNY");
+
+    @Test
+    void appendsAndReplaysAcrossSegments() throws IOException {
+        try (ConversionJournal journal = open()) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, journal.append(1000 + i, usd, cny, i, i * 7.0, 7.0, 3));
+            }
+            journal.flush();
+            List<double[]> records = replay(journal, 4);
+            assertEquals(6, records.size());
+            assertEquals(4.0, records.get(0)[1]);
+            assertEquals(7.0, records.get(0)[3]);
+        }
+        try (ConversionJournal journal = open()) {
+            assertEquals(10, journal.nextSequence());
+        }
+    }
+
+    @Test
+    void opensOverAVersion1SegmentAndReplaysIt() throws IOException {
+        writeVersion1Segment(directory.resolve("journal-00000000000000000000.seg"), 3);
+
+        try (ConversionJournal journal = open()) {
+            assertEquals(3, journal.nextSequence());
+            assertEquals(3, journal.append(2000, usd, cny, 10, 70, 7.0, 5));
+            journal.flush();
+
+            List<double[]> records = replay(journal, 0);
+            assertEquals(4, records.size());
+            assertEquals(2.0, records.get(2)[1]);
+            assertEquals(6.5, records.get(2)[3]);   // recomputed as result / amount
+            assertEquals(7.0, records.get(3)[3]);
+        }
+        assertTrue(Files.exists(directory.resolve("journal-00000000000000000003.seg")));
+        assertEquals(ConversionJournal.HEADER_BYTES + 3 * 48,
+            Files.size(directory.resolve("journal-00000000000000000000.seg")));
+    }
+
+    @Test
+    void replacesAnEmptyVersion1Segment() throws IOException {
+        writeVersion1Segment(directory.resolve("journal-00000000000000000000.seg"), 0);
+
+        try (ConversionJournal journal = open()) {
+            assertEquals(0, journal.append(2000, usd, cny, 10, 70, 7.0, 5));
+            journal.flush();
+            assertEquals(1, replay(journal, 0).size());
+        }
+    }
+
+    private ConversionJournal open() throws IOException {
+        return ConversionJournal.open(directory, engine.registry(), 4,
+            ConversionJournal.SyncPolicy.NEVER, Duration.ofSeconds(1));
+    }
+
+    // {timestamp, amount, result, rate}
+    private static List<double[]> replay(ConversionJournal journal, long fromSequence) throws IOException {
+        List<double[]> records = new ArrayList<>();
+        journal.replay(fromSequence, (timestampMillis, fromId, toId, amount, result, rate, rateVersion) ->
+            records.add(new double[] {timestampMillis, amount, result, rate}));
+        return records;
+    }
+
+    // 48 byte records as format version 1 wrote them: USD to CNY, amount i,
+    // result i * 6.5
+    private static void writeVersion1Segment(Path file, int records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ConversionJournal.HEADER_BYTES + records * 48)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x534a4343).putShort((short) 1).putShort((short) 0).putLong(0);
+        CRC32C crc = new CRC32C();
+        for (int i = 0; i < records; i++) {
+            int at = buffer.position();
+            buffer.putLong(1000 + i).putLong(1).putDouble(i).putDouble(i * 6.5)
+                .put("USDCNY".getBytes(StandardCharsets.US_ASCII)).putShort((short) 0).putInt(0x524a4343);
+            crc.reset();
+            crc.update(buffer.array(), at, 44);
+            buffer.putInt((int) crc.getValue());
+        }
+        Files.write(file, buffer.array());
+    }
+}
@@ -0,0 +1,102 @@
+package currency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RateAggregatorTest {
+
+    private static final Duration PROVIDER_TIMEOUT = Duration.ofMillis(500);
+    private static final Duration NEVER = Duration.ofMinutes(5);
+
+    @Test
+    void firstValidPublishesTheFastestAnswer() throws Exception {
+        try (StubRateServer slow = StubRateServer.answeringAfter(NEVER, StubRateServer.rates("CNY", "9.0"));
+             StubRateServer fast = StubRateServer.answering(StubRateServer.rates("CNY", "7.1"))) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+            RateAggregator aggregator = aggregator(RateAggregator.Mode.FIRST_VALID, slow, fast);
+
+            long start = System.nanoTime();
+            assertEquals(RateFetcher.Status.UPDATED, aggregator.refresh(engine));
+            assertTrue(System.nanoTime() - start < PROVIDER_TIMEOUT.toNanos(), "waited for the slow provider");
+            assertEquals(7.1, engine.usdRate(engine.currencyId("CNY")));
+        }
+    }
+
+    @Test
+    void medianIgnoresOneOutlier() throws Exception {
+        try (StubRateServer low = StubRateServer.answering(StubRateServer.rates("CNY", "7.0", "EUR", "0.90"));
+             StubRateServer mid = StubRateServer.answering(StubRateServer.rates("CNY", "7.2", "EUR", "0.92"));
+             StubRateServer bad = StubRateServer.answering(StubRateServer.rates("CNY", "700", "EUR", "0.91"))) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+            RateAggregator aggregator = aggregator(RateAggregator.Mode.MEDIAN, low, mid, bad);
+
+            assertEquals(RateFetcher.Status.UPDATED, aggregator.refresh(engine));
+            assertEquals(7.2, engine.usdRate(engine.currencyId("CNY")));
+            assertEquals(0.91, engine.usdRate(engine.currencyId("EUR")));
+
+            assertEquals(RateFetcher.Status.NOT_MODIFIED, aggregator.refresh(engine));
+        }
+    }
+
+    @Test
+    void medianLeavesOutAProviderThatTimesOut() throws Exception {
+        try (StubRateServer hung = StubRateServer.answeringAfter(NEVER, StubRateServer.rates("CNY", "700"));
+             StubRateServer good = StubRateServer.answering(StubRateServer.rates("CNY", "7.3"))) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+            RateAggregator aggregator = aggregator(RateAggregator.Mode.MEDIAN, hung, good);
+
+            assertEquals(RateFetcher.Status.UPDATED,
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> aggregator.refresh(engine)));
+            assertEquals(7.3, engine.usdRate(engine.currencyId("CNY")));
+        }
+    }
+
+    @Test
+    void failsWhenEveryProviderTimesOut() throws Exception {
+        try (StubRateServer hung = StubRateServer.answeringAfter(NEVER, StubRateServer.rates("CNY", "7.3"))) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+            long version = engine.snapshot().version();
+
+            for (RateAggregator.Mode mode : RateAggregator.Mode.values()) {
+                RateAggregator aggregator = aggregator(mode, hung);
+                assertEquals(RateFetcher.Status.FAILED,
+                    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> aggregator.refresh(engine)));
+            }
+            assertEquals(version, engine.snapshot().version());
+        }
+    }
+
+    @Test
+    void aGarbageBodyCountsAsAFailedProvider() throws Exception {
+        try (StubRateServer garbage = StubRateServer.answering("{\"rates\":{\"CNY\":7.4,");
+             StubRateServer good = StubRateServer.answeringAfter(Duration.ofMillis(100),
+                 StubRateServer.rates("CNY", "7.4"))) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+
+            for (RateAggregator.Mode mode : RateAggregator.Mode.values()) {
+                RateAggregator alone = aggregator(mode, garbage);
+                assertEquals(RateFetcher.Status.FAILED,
+                    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> alone.refresh(engine)));
+            }
+
+            RateAggregator aggregator = aggregator(RateAggregator.Mode.FIRST_VALID, garbage, good);
+            assertEquals(RateFetcher.Status.UPDATED,
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> aggregator.refresh(engine)));
+            assertEquals(7.4, engine.usdRate(engine.currencyId("CNY")));
+        }
+    }
+
+    private static RateAggregator aggregator(RateAggregator.Mode mode, StubRateServer... servers) {
+        RateFetcher[] fetchers = new RateFetcher[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            fetchers[i] = servers[i].fetcher();
+        }
+        return new RateAggregator(List.of(fetchers), PROVIDER_TIMEOUT, mode);
+    }
+}
@@ -0,0 +1,71 @@
+package currency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class RateColumnCodecTest {
+
+    @Test
+    void aWriteStraddlingIntoTheLastWordKeepsItsSpareWord() {
+        // The writer starts with 64 words: end the data in word 63 with a
+        // 64 bit write that starts in word 62
+        RateColumnCodec.BitWriter writer = new RateColumnCodec.BitWriter();
+        for (int i = 0; i < 62 * 64 + 40; i++) {
+            writer.write(i & 1, 1);
+        }
+        writer.write(0x0123456789abcdefL, 64);
+
+        ByteBuffer data = copy(writer);
+        assertEquals(65 * 8, data.capacity());
+        assertEquals(0x0123456789abcdefL, data.getLong(62 * 8) >>> 40 | data.getLong(63 * 8) << 24);
+    }
+
+    @Test
+    void roundTripsChunksEndingAnywhereInAWord() {
+        Random random = new Random(7);
+        for (int rows = 1; rows <= RateColumnCodec.CHUNK_ROWS; rows++) {
+            double[] decimals = new double[rows * 40];
+            double[] noise = new double[rows * 40];
+            double rate = 7.1234;
+            for (int i = 0; i < decimals.length; i++) {
+                rate += random.nextInt(3) == 0 ? random.nextInt(200_001) / 10_000.0 - 10 : 0;
+                decimals[i] = Math.round(rate * 10_000) / 10_000.0;
+                noise[i] = random.nextDouble() * 100;
+            }
+            roundTrip(decimals, rows);
+            roundTrip(noise, rows);
+        }
+    }
+
+    // Encodes 'values' in chunks of 'rows', checking every prefix decodes
+    private static void roundTrip(double[] values, int rows) {
+        RateColumnCodec.BitWriter writer = new RateColumnCodec.BitWriter();
+        List<Long> starts = new ArrayList<>();
+        for (int from = 0; from < values.length; from += rows) {
+            starts.add(writer.position());
+            RateColumnCodec.encode(writer, values, from, Math.min(rows, values.length - from));
+            ByteBuffer data = copy(writer);
+            RateColumnCodec.Decoder decoder = new RateColumnCodec.Decoder();
+            for (int chunk = 0; chunk < starts.size(); chunk++) {
+                decoder.start(data, 0, starts.get(chunk));
+                for (int i = chunk * rows, end = Math.min(i + rows, values.length); i < end; i++) {
+                    assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoder.next()),
+                        "row " + i + " of chunks of " + rows);
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer copy(RateColumnCodec.BitWriter writer) {
+        ByteBuffer data = ByteBuffer.allocate(writer.byteLength()).order(ByteOrder.LITTLE_ENDIAN);
+        writer.copyTo(data);
+        return data;
+    }
+}
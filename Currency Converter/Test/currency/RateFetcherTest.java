@@ -0,0 +1,106 @@
+package currency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class RateFetcherTest {
+
+    private static final String RATES = StubRateServer.rates("CNY", "7.25", "EUR", "0.91");
+
+    @Test
+    void sendsTheEtagBackAndTreatsA304AsConfirmation() throws Exception {
+        try (StubRateServer server = StubRateServer.start(exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            StubRateServer.send(exchange, 200, RATES);
+        })) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+            RateFetcher fetcher = server.fetcher();
+
+            assertEquals(RateFetcher.Status.UPDATED, fetcher.refresh(engine));
+            assertEquals(7.25, engine.usdRate(engine.currencyId("CNY")));
+            long version = engine.snapshot().version();
+
+            assertEquals(RateFetcher.Status.NOT_MODIFIED, fetcher.refresh(engine));
+            assertEquals(version, engine.snapshot().version());
+            assertEquals("\"v1\"", server.requests().get(1).getRequestHeaders().getFirst("If-None-Match"));
+
+            fetcher.reset();
+            assertEquals(RateFetcher.Status.UPDATED, fetcher.refresh(engine));
+            assertNull(server.requests().get(2).getRequestHeaders().getFirst("If-None-Match"));
+        }
+    }
+
+    @Test
+    void decodesGzipBodies() throws Exception {
+        byte[] body = StubRateServer.gzip(RATES);
+        try (StubRateServer server = StubRateServer.start(exchange -> {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        })) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+
+            assertEquals(RateFetcher.Status.UPDATED, server.fetcher().refresh(engine));
+            assertEquals(0.91, engine.usdRate(engine.currencyId("EUR")));
+            assertEquals("gzip, deflate", server.requests().get(0).getRequestHeaders().getFirst("Accept-Encoding"));
+        }
+    }
+
+    @Test
+    void rejectsAMalformedBodyWithoutPinningItsEtag() throws Exception {
+        try (StubRateServer server = StubRateServer.start(exchange -> {
+            exchange.getResponseHeaders().set("ETag", "\"broken\"");
+            StubRateServer.send(exchange, 200, "{\"rates\":{\"CNY\":");
+        })) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+            double before = engine.usdRate(engine.currencyId("CNY"));
+            RateFetcher fetcher = server.fetcher();
+
+            assertThrows(IllegalArgumentException.class, () -> fetcher.refresh(engine));
+            assertEquals(before, engine.usdRate(engine.currencyId("CNY")));
+
+            assertThrows(IllegalArgumentException.class, () -> fetcher.refresh(engine));
+            assertNull(server.requests().get(1).getRequestHeaders().getFirst("If-None-Match"));
+        }
+    }
+
+    @Test
+    void anAnswerWithoutSupportedRatesFailsAndStaysStale() throws Exception {
+        try (StubRateServer server = StubRateServer.start(exchange -> {
+            exchange.getResponseHeaders().set("ETag", "\"empty\"");
+            StubRateServer.send(exchange, 200, "{\"rates\":{}}");
+        })) {
+            ConversionEngine engine = ConversionEngine.withDefaultRates();
+            engine.setStalenessBudget(Duration.ofDays(1), ConversionEngine.StalenessPolicy.FAIL);
+            long version = engine.snapshot().version();
+            RateFetcher fetcher = server.fetcher();
+
+            assertEquals(RateFetcher.Status.FAILED, fetcher.refresh(engine));
+            assertEquals(version, engine.snapshot().version());
+            assertTrue(engine.isStale());
+
+            assertEquals(RateFetcher.Status.FAILED, fetcher.refresh(engine));
+            assertNull(server.requests().get(1).getRequestHeaders().getFirst("If-None-Match"));
+        }
+    }
+
+    @Test
+    void reportsHttpErrorsAsFailed() throws Exception {
+        try (StubRateServer server = StubRateServer.start(exchange -> StubRateServer.send(exchange, 503, ""))) {
+            assertEquals(RateFetcher.Status.FAILED, server.fetcher().refresh(ConversionEngine.withDefaultRates()));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package currency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RateHistoryStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final ConversionEngine engine = ConversionEngine.withDefaultRates();
+    private final int usd = engine.currencyId("USD");
+    private final int cny = engine.currencyId("CNY");
+
+    @Test
+    void batchMatchesSingleLookupsUpToTheEndOfTime() throws IOException {
+        for (int rows : new int[] {3, 1020, 5000}) {
+            try (RateHistoryStore store = RateHistoryStore.open(directory.resolve("rows-" + rows), engine.registry())) {
+                double[] rates = new double[engine.currencyCount()];
+                for (int id = 0; id < rates.length; id++) {
+                    rates[id] = engine.usdRate(id);
+                }
+                for (int i = 0; i < rows; i++) {
+                    rates[cny] = 7 + i / 10_000.0;
+                    store.append(1000L * (i + 1), rates);
+                }
+                long[] times = {500, 5000, 1000L * rows - 1, 1000L * rows, Long.MAX_VALUE - 1, Long.MAX_VALUE};
+                double[] out = new double[times.length];
+                int priced = store.convertBatchAt(times, new int[] {usd, usd, usd, usd, usd, usd},
+                    new int[] {cny, cny, cny, cny, cny, cny}, new double[] {1, 1, 1, 1, 1, 1}, out);
+
+                assertEquals(times.length - 1, priced);
+                assertEquals(Double.NaN, out[0]);
+                for (int i = 1; i < times.length; i++) {
+                    assertEquals(store.convertAt(usd, cny, 1, times[i]), out[i], "at " + times[i]);
+                }
+                assertEquals(7 + (rows - 1) / 10_000.0, out[times.length - 1]);
+            }
+        }
+    }
+}
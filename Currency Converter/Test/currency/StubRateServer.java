@@ -0,0 +1,118 @@
+package currency;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+// A rate provider on an ephemeral loopback port, answering every request
+// with 'handler'. Handlers run on a pool of their own, so a slow one does
+// not hold up the others; close() interrupts any still running.
+final class StubRateServer implements AutoCloseable {
+
+    static final HttpClient CLIENT = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .build();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<HttpExchange> requests = new CopyOnWriteArrayList<>();
+
+    private StubRateServer(HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.add(exchange);
+            try {
+                handler.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    static StubRateServer start(HttpHandler handler) throws IOException {
+        return new StubRateServer(handler);
+    }
+
+    // Answers 200 with the rates of 'json' every time
+    static StubRateServer answering(String json) throws IOException {
+        return start(exchange -> send(exchange, 200, json));
+    }
+
+    // Answers after 'delay', or never if interrupted first
+    static StubRateServer answeringAfter(Duration delay, String json) throws IOException {
+        return start(exchange -> {
+            try {
+                Thread.sleep(delay.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+            send(exchange, 200, json);
+        });
+    }
+
+    URI uri() {
+        return URI.create("http://" + server.getAddress().getHostString() + ":"
+            + server.getAddress().getPort() + "/latest");
+    }
+
+    RateFetcher fetcher() {
+        return new RateFetcher(uri(), CLIENT, Duration.ofSeconds(5));
+    }
+
+    List<HttpExchange> requests() {
+        return requests;
+    }
+
+    static String rates(String... codesAndRates) {
+        StringBuilder json = new StringBuilder("{\"base\":\"USD\",\"rates\":{");
+        for (int i = 0; i < codesAndRates.length; i += 2) {
+            json.append(i == 0 ? "" : ",").append('"').append(codesAndRates[i]).append("\":")
+                .append(codesAndRates[i + 1]);
+        }
+        return json.append("}}").toString();
+    }
+
+    static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    static byte[] gzip(String body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,50 @@
+package currency;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// BatchKernel on the incubating JDK Vector API. Only loaded by BatchConverter
+// when the jdk.incubator.vector module is present at runtime
+// (--add-modules jdk.incubator.vector).
+final class VectorBatchKernel implements BatchKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int CHUNK = 1024;
+
+    @Override
+    public void scale(double[] in, int inOffset, double factor, double[] out, int outOffset, int length) {
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, in, inOffset + i)
+                .mul(factor)
+                .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = in[inOffset + i] * factor;
+        }
+    }
+
+    @Override
+    public void gatherScale(double[] cross, int size, int[] fromIds, int[] toIds,
+                            double[] in, double[] out, int length) {
+        int[] index = new int[Math.min(CHUNK, length)];
+        for (int base = 0; base < length; base += CHUNK) {
+            int count = Math.min(CHUNK, length - base);
+            for (int j = 0; j < count; j++) {
+                index[j] = fromIds[base + j] * size + toIds[base + j];
+            }
+            int j = 0;
+            int upper = SPECIES.loopBound(count);
+            for (; j < upper; j += SPECIES.length()) {
+                DoubleVector rates = DoubleVector.fromArray(SPECIES, cross, 0, index, j);
+                DoubleVector.fromArray(SPECIES, in, base + j)
+                    .mul(rates)
+                    .intoArray(out, base + j);
+            }
+            for (; j < count; j++) {
+                out[base + j] = in[base + j] * cross[index[j]];
+            }
+        }
+    }
+}
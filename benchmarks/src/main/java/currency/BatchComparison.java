@@ -0,0 +1,82 @@
+package currency;
+
+import java.util.Random;
+
+// Quick comparison of the batch conversion kernels against a scalar loop
+// that converts one amount at a time through ConversionEngine.convert.
+//
+// Run with the Vector API enabled to include the VectorBatchKernel:
+//   java --add-modules jdk.incubator.vector -cp <classes> currency.BatchComparison [rows]
+// and with -XX:-UseSuperWord to see the auto-vectorized loop fall back to
+// plain scalar code. The JMH benchmarks give the numbers to check in.
+public final class BatchComparison {
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    interface Run {
+        void run();
+    }
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        ConversionEngine engine = ConversionEngine.withDefaultRates();
+        RateSnapshot rates = engine.snapshot();
+        int size = rates.currencyCount();
+
+        Random random = new Random(42);
+        double[] amounts = new double[rows];
+        int[] fromIds = new int[rows];
+        int[] toIds = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            amounts[i] = random.nextDouble() * 10_000;
+            fromIds[i] = random.nextInt(size);
+            toIds[i] = random.nextInt(size);
+        }
+        double[] out = new double[rows];
+        int usd = engine.currencyId("USD");
+        int eur = engine.currencyId("EUR");
+
+        BatchKernel auto = BatchKernel.SCALAR;
+        BatchKernel vector = BatchConverter.vectorKernel();
+        double[] cross = rates.crossRates();
+
+        System.out.printf("%,d rows, %d currencies%n%n", rows, size);
+        System.out.println("Single pair (USD -> EUR)");
+        report("  scalar engine.convert", rows, () -> {
+            for (int i = 0; i < rows; i++) {
+                out[i] = engine.convert(usd, eur, amounts[i]);
+            }
+        });
+        report("  auto-vectorized loop", rows, () -> auto.scale(amounts, 0, rates.rate(usd, eur), out, 0, rows));
+        if (vector != null) {
+            report("  Vector API", rows, () -> vector.scale(amounts, 0, rates.rate(usd, eur), out, 0, rows));
+        }
+
+        System.out.println("Pair per row");
+        report("  scalar engine.convert", rows, () -> {
+            for (int i = 0; i < rows; i++) {
+                out[i] = engine.convert(fromIds[i], toIds[i], amounts[i]);
+            }
+        });
+        report("  gather loop", rows, () -> auto.gatherScale(cross, size, fromIds, toIds, amounts, out, rows));
+        if (vector != null) {
+            report("  Vector API gather", rows, () -> vector.gatherScale(cross, size, fromIds, toIds, amounts, out, rows));
+        } else {
+            System.out.println("\n(Vector API not available: run with --add-modules jdk.incubator.vector)");
+        }
+    }
+
+    private static void report(String name, int rows, Run run) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %8.3f ms  %6.3f ns/row%n", name, best / 1e6, (double) best / rows);
+    }
+}
@@ -0,0 +1,120 @@
+package currency;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Batch conversions, reported per row. Compares the scalar one-at-a-time
+// loop, the auto-vectorized kernel and the Vector API kernel.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class BatchConversionBenchmark {
+
+    private static final int ROWS = 1 << 16;
+
+    private BatchKernel vector;
+
+    private ConversionEngine engine;
+    private RateSnapshot rates;
+    private int[] fromIds;
+    private int[] toIds;
+    private double[] amounts;
+    private long[] minorAmounts;
+    private double[] out;
+    private long[] minorOut;
+    private int usd;
+    private int eur;
+
+    @Setup
+    public void setUp() {
+        vector = BatchConverter.vectorKernel();
+        if (vector == null) {
+            throw new IllegalStateException("Vector API kernel not available; build without -DskipVectorApi");
+        }
+        engine = ConversionEngine.withDefaultRates();
+        rates = engine.snapshot();
+        Random random = new Random(42);
+        fromIds = new int[ROWS];
+        toIds = new int[ROWS];
+        amounts = new double[ROWS];
+        minorAmounts = new long[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            fromIds[i] = random.nextInt(engine.currencyCount());
+            toIds[i] = random.nextInt(engine.currencyCount());
+            amounts[i] = random.nextDouble() * 10_000;
+            minorAmounts[i] = random.nextInt(1_000_000);
+        }
+        out = new double[ROWS];
+        minorOut = new long[ROWS];
+        usd = engine.currencyId("USD");
+        eur = engine.currencyId("EUR");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] singlePairScalar() {
+        for (int i = 0; i < ROWS; i++) {
+            out[i] = engine.convert(usd, eur, amounts[i]);
+        }
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] singlePairAuto() {
+        BatchKernel.SCALAR.scale(amounts, 0, rates.rate(usd, eur), out, 0, ROWS);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] singlePairVectorApi() {
+        vector.scale(amounts, 0, rates.rate(usd, eur), out, 0, ROWS);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] pairPerRowScalar() {
+        for (int i = 0; i < ROWS; i++) {
+            out[i] = engine.convert(fromIds[i], toIds[i], amounts[i]);
+        }
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] pairPerRowAuto() {
+        BatchKernel.SCALAR.gatherScale(rates.crossRates(), rates.currencyCount(), fromIds, toIds, amounts, out, ROWS);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] pairPerRowVectorApi() {
+        vector.gatherScale(rates.crossRates(), rates.currencyCount(), fromIds, toIds, amounts, out, ROWS);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long[] pairPerRowMinorUnits() {
+        engine.convertBatchMinor(fromIds, toIds, minorAmounts, minorOut);
+        return minorOut;
+    }
+}
@@ -0,0 +1,106 @@
+package currency;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost per conversion over the loopback interface: pipelined batches on the
+// binary protocol, a single-conversion round trip on it, and the same kind
+// of batch posted to the HTTP /convert/batch endpoint as CSV in, JSON out
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinaryProtocolBenchmark {
+
+    private static final int BATCH = 65_536;
+    private static final int HTTP_BATCH = 8_192;
+
+    private BinaryConversionServer binaryServer;
+    private ConversionServer httpServer;
+    private BinaryConversionClient client;
+    private HttpClient httpClient;
+    private HttpRequest httpRequest;
+
+    private int[] fromIds;
+    private int[] toIds;
+    private double[] amounts;
+    private double[] out;
+    private final double[] single = {100};
+    private final double[] singleOut = new double[1];
+
+    @Setup
+    public void setUp() throws IOException {
+        ConversionEngine engine = ConversionEngine.withDefaultRates();
+        binaryServer = BinaryConversionServer.start(engine, new InetSocketAddress("127.0.0.1", 0));
+        httpServer = ConversionServer.start(engine, new InetSocketAddress("127.0.0.1", 0), 0);
+        client = BinaryConversionClient.connect(binaryServer.address());
+
+        int size = engine.currencyCount();
+        Random random = new Random(42);
+        fromIds = new int[BATCH];
+        toIds = new int[BATCH];
+        amounts = new double[BATCH];
+        out = new double[BATCH];
+        StringBuilder csv = new StringBuilder(HTTP_BATCH * 24);
+        for (int i = 0; i < BATCH; i++) {
+            fromIds[i] = random.nextInt(size);
+            toIds[i] = random.nextInt(size);
+            amounts[i] = random.nextDouble() * 10_000;
+            if (i < HTTP_BATCH) {
+                csv.append(engine.currencyCode(fromIds[i])).append(',')
+                    .append(engine.currencyCode(toIds[i])).append(',')
+                    .append(amounts[i]).append('\n');
+            }
+        }
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        httpRequest = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + httpServer.address().getPort() + "/convert/batch"))
+            .POST(HttpRequest.BodyPublishers.ofString(csv.toString()))
+            .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        binaryServer.close();
+        httpServer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long binaryBatch() throws IOException {
+        return client.convert(fromIds, toIds, amounts, out);
+    }
+
+    @Benchmark
+    public double binaryRoundTrip() throws IOException {
+        client.convert(0, 1, single, singleOut);
+        return singleOut[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HTTP_BATCH)
+    public int httpBatch() throws IOException, InterruptedException {
+        return httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray()).body().length;
+    }
+}
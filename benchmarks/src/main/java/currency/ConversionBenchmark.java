@@ -0,0 +1,70 @@
+package currency;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Single conversions: the math behind performConversion
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConversionBenchmark {
+
+    private static final int MASK = 1023;
+
+    private ConversionEngine engine;
+    private RateSnapshot rates;
+    private int[] fromIds;
+    private int[] toIds;
+    private double[] amounts;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        engine = ConversionEngine.withDefaultRates();
+        rates = engine.snapshot();
+        Random random = new Random(42);
+        fromIds = new int[MASK + 1];
+        toIds = new int[MASK + 1];
+        amounts = new double[MASK + 1];
+        for (int i = 0; i <= MASK; i++) {
+            fromIds[i] = random.nextInt(engine.currencyCount());
+            toIds[i] = random.nextInt(engine.currencyCount());
+            amounts[i] = random.nextDouble() * 10_000;
+        }
+    }
+
+    @Benchmark
+    public double engineConvert() {
+        int i = next++ & MASK;
+        return engine.convert(fromIds[i], toIds[i], amounts[i]);
+    }
+
+    @Benchmark
+    public double snapshotConvert() {
+        int i = next++ & MASK;
+        return rates.convert(fromIds[i], toIds[i], amounts[i]);
+    }
+
+    // Including the code lookup the UI does for every conversion
+    @Benchmark
+    public double convertByCode() {
+        int i = next++ & MASK;
+        String from = engine.currencyCode(fromIds[i]);
+        String to = engine.currencyCode(toIds[i]);
+        return engine.convert(engine.currencyId(from), engine.currencyId(to), amounts[i]);
+    }
+}
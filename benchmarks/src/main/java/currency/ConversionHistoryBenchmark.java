@@ -0,0 +1,63 @@
+package currency;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Recording one conversion: the old formatted String inserted at the front of
+// an ArrayList against an append to the primitive ring buffer
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConversionHistoryBenchmark {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    @Param({"10", "100000"})
+    public int capacity;
+
+    private ConversionHistory ring;
+    private ArrayList<String> strings;
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        ring = new ConversionHistory(capacity);
+        strings = new ArrayList<>(capacity + 1);
+        for (int i = 0; i < capacity; i++) {
+            strings.add("00:00:00: 1.00 USD = 7.10 CNY");
+        }
+    }
+
+    @Benchmark
+    public void formattedList() {
+        double amount = ++counter;
+        strings.add(0, String.format("%s: %.2f %s = %.2f %s",
+            LocalDateTime.now().format(TIME), amount, "USD", amount * 7.1, "CNY"));
+        if (strings.size() > capacity) {
+            strings.remove(strings.size() - 1);
+        }
+    }
+
+    @Benchmark
+    public void ringBuffer() {
+        double amount = ++counter;
+        ring.append(System.currentTimeMillis(), 0, 14, amount, amount * 7.1, 7.1, 1);
+    }
+}
@@ -0,0 +1,56 @@
+package currency;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// exportHistoryToCSV on large histories, written to a null sink so the
+// numbers show formatting cost rather than disk speed
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvExportBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int historySize;
+
+    private ConversionEngine engine;
+    private ConversionHistory history;
+
+    @Setup
+    public void setUp() {
+        engine = ConversionEngine.withDefaultRates();
+        Random random = new Random(42);
+        history = new ConversionHistory(historySize);
+        long start = 1_700_000_000_000L;
+        for (int i = 0; i < historySize; i++) {
+            int from = random.nextInt(engine.currencyCount());
+            int to = random.nextInt(engine.currencyCount());
+            double amount = random.nextInt(100_000) / 100.0;
+            history.append(start + i * 1000L, from, to, amount, engine.convert(from, to, amount), engine.rate(from, to), 1);
+        }
+    }
+
+    @Benchmark
+    public long exportCsv() throws IOException {
+        return HistoryCsvExporter.export(history, engine.registry(),
+            Channels.newChannel(OutputStream.nullOutputStream()), null);
+    }
+}
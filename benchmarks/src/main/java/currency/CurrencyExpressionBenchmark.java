@@ -0,0 +1,65 @@
+package currency;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Live preview of a currency expression: what one keystroke costs (cache
+// lookup and evaluation), evaluation of a compiled expression, the first
+// evaluation after new rates were published, and a full parse
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CurrencyExpressionBenchmark {
+
+    private static final String EXPRESSION = "100 USD + 2500 JPY - 30 EUR * 2 in GBP";
+
+    private CurrencyRegistry registry;
+    private RateSnapshot rates;
+    private RateSnapshot[] alternating;
+    private ExpressionEvaluator.Compiled compiled;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ConversionEngine engine = ConversionEngine.withDefaultRates();
+        registry = engine.registry();
+        rates = engine.snapshot();
+        double[] usdRates = rates.copyUsdRates();
+        usdRates[engine.currencyId("EUR")] *= 1.01;
+        alternating = new RateSnapshot[] {rates, engine.setUsdRates(usdRates)};
+        compiled = ExpressionEvaluator.compile(EXPRESSION, registry);
+    }
+
+    @Benchmark
+    public double keystroke() {
+        return ExpressionEvaluator.compile(EXPRESSION, registry).evaluate(rates, -1);
+    }
+
+    @Benchmark
+    public double compiled() {
+        return compiled.evaluate(rates, -1);
+    }
+
+    @Benchmark
+    public double newRates() {
+        return compiled.evaluate(alternating[next++ & 1], -1);
+    }
+
+    @Benchmark
+    public double parse() {
+        return ExpressionEvaluator.parse(EXPRESSION, registry).evaluate(rates, -1);
+    }
+}
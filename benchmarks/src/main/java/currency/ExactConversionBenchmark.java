@@ -0,0 +1,78 @@
+package currency;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Exact minor-unit conversion against the double path and per-call BigDecimal
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExactConversionBenchmark {
+
+    private static final int MASK = 1023;
+
+    private ConversionEngine engine;
+    private ExactRates exact;
+    private int[] fromIds;
+    private int[] toIds;
+    private long[] minorAmounts;
+    private double[] amounts;
+    private BigDecimal[] decimalAmounts;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        engine = ConversionEngine.withDefaultRates();
+        exact = engine.exactRates();
+        Random random = new Random(42);
+        fromIds = new int[MASK + 1];
+        toIds = new int[MASK + 1];
+        minorAmounts = new long[MASK + 1];
+        amounts = new double[MASK + 1];
+        decimalAmounts = new BigDecimal[MASK + 1];
+        for (int i = 0; i <= MASK; i++) {
+            fromIds[i] = random.nextInt(engine.currencyCount());
+            toIds[i] = random.nextInt(engine.currencyCount());
+            minorAmounts[i] = random.nextInt(10_000_000);
+            int digits = exact.minorDigits(fromIds[i]);
+            decimalAmounts[i] = BigDecimal.valueOf(minorAmounts[i], digits);
+            amounts[i] = decimalAmounts[i].doubleValue();
+        }
+    }
+
+    @Benchmark
+    public double doubleRate() {
+        int i = next++ & MASK;
+        return engine.convert(fromIds[i], toIds[i], amounts[i]);
+    }
+
+    @Benchmark
+    public long exactMinorUnits() {
+        int i = next++ & MASK;
+        return exact.convertMinor(fromIds[i], toIds[i], minorAmounts[i], RoundingMode.HALF_EVEN);
+    }
+
+    // What exact mode would cost with BigDecimal on every call
+    @Benchmark
+    public BigDecimal perCallBigDecimal() {
+        int i = next++ & MASK;
+        return decimalAmounts[i].multiply(exact.rate(fromIds[i], toIds[i]))
+            .setScale(exact.minorDigits(toIds[i]), RoundingMode.HALF_EVEN);
+    }
+}
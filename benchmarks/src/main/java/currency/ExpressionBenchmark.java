@@ -0,0 +1,51 @@
+package currency;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// evaluateExpression on typical calculator inputs: through the cache, parsing
+// from scratch, and evaluating an already compiled expression
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpressionBenchmark {
+
+    @Param({"1250.75", "100+250*3", "(1200-200)/4+12.5", "((19.99*3)+(4.5*12)-7.25)/2*1.0825"})
+    public String expression;
+
+    private ExpressionEvaluator.Compiled compiled;
+
+    @Setup
+    public void setUp() {
+        compiled = ExpressionEvaluator.compile(expression);
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return ExpressionEvaluator.evaluate(expression);
+    }
+
+    @Benchmark
+    public double parseAndEvaluate() {
+        return ExpressionEvaluator.parse(expression, null).evaluate();
+    }
+
+    @Benchmark
+    public double compiled() {
+        return compiled.evaluate();
+    }
+}
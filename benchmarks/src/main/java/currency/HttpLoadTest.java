@@ -0,0 +1,235 @@
+package currency;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// Closed-loop load test for the HTTP conversion service.
+//
+// Opens N keep-alive connections from a single selector thread; each sends
+// a request, waits for the response and immediately sends the next one.
+// After a warm-up it reports requests/sec and p50/p99/p99.9/max latency.
+// Without --url it starts a ConversionServer in this JVM; for 10k
+// connections run the server in its own process instead, so neither side
+// needs more than ~10k file descriptors:
+//   java -jar currency-converter.jar --server --port 8080
+//   java -cp benchmarks.jar currency.HttpLoadTest --url http://127.0.0.1:8080/convert?from=USD&to=EUR&amount=100 \
+//        --connections 10000 --seconds 30
+public final class HttpLoadTest {
+
+    private static final String DEFAULT_PATH = "/convert?from=USD&to=EUR&amount=100";
+
+    private final InetSocketAddress address;
+    private final byte[] request;
+    private long[] latencies = new long[1 << 16];
+    private int recorded;
+    private boolean measuring;
+    private long errors;
+    private long reconnects;
+
+    private HttpLoadTest(InetSocketAddress address, String pathAndQuery) {
+        this.address = address;
+        this.request = ("GET " + pathAndQuery + " HTTP/1.1\r\nHost: " + address.getHostString() + ":"
+            + address.getPort() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String url = null;
+        int connections = 10_000;
+        int seconds = 30;
+        int warmup = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url": url = args[i + 1]; break;
+                case "--connections": connections = Integer.parseInt(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ConversionServer server = null;
+        InetSocketAddress address;
+        String path;
+        if (url == null) {
+            server = ConversionServer.start(ConversionEngine.withDefaultRates(),
+                new InetSocketAddress("127.0.0.1", 0), connections);
+            address = server.address();
+            path = DEFAULT_PATH;
+        } else {
+            URI uri = URI.create(url);
+            address = new InetSocketAddress(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort());
+            path = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        }
+
+        System.out.printf("%,d connections to %s%s, %d s warm-up, %d s measured%n",
+            connections, address, path, warmup, seconds);
+        try {
+            new HttpLoadTest(address, path).run(connections, warmup, seconds);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private void run(int connections, int warmupSeconds, int measuredSeconds) throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                connect(selector);
+            }
+            long start = System.nanoTime();
+            long measureFrom = start + warmupSeconds * 1_000_000_000L;
+            long end = measureFrom + measuredSeconds * 1_000_000_000L;
+            while (true) {
+                long now = System.nanoTime();
+                if (!measuring && now >= measureFrom) {
+                    measuring = true;
+                    errors = 0;
+                    reconnects = 0;
+                }
+                if (now >= end) {
+                    break;
+                }
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(selector, key);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+        report(measuredSeconds);
+    }
+
+    private void connect(Selector selector) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(address);
+        channel.register(selector, SelectionKey.OP_CONNECT, new Connection());
+    }
+
+    private void handle(Selector selector, SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                send(key, connection);
+            } else if (key.isWritable()) {
+                write(key, connection);
+            } else if (key.isReadable()) {
+                if (channel.read(connection.in) < 0) {
+                    throw new IOException("Connection closed by server");
+                }
+                int status = connection.complete();
+                if (status != 0) {
+                    long latency = System.nanoTime() - connection.sentAt;
+                    if (status != 200) {
+                        errors++;
+                    } else if (measuring) {
+                        record(latency);
+                    }
+                    send(key, connection);
+                }
+            }
+        } catch (IOException e) {
+            // Count it and replace the connection
+            key.cancel();
+            channel.close();
+            errors++;
+            reconnects++;
+            connect(selector);
+        }
+    }
+
+    private void send(SelectionKey key, Connection connection) throws IOException {
+        connection.in.clear();
+        connection.out.clear();
+        connection.out.put(request).flip();
+        connection.sentAt = System.nanoTime();
+        write(key, connection);
+    }
+
+    private void write(SelectionKey key, Connection connection) throws IOException {
+        ((SocketChannel) key.channel()).write(connection.out);
+        key.interestOps(connection.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void record(long latencyNanos) {
+        if (recorded == latencies.length) {
+            latencies = Arrays.copyOf(latencies, recorded * 2);
+        }
+        latencies[recorded++] = latencyNanos;
+    }
+
+    private void report(int measuredSeconds) {
+        long[] sorted = Arrays.copyOf(latencies, recorded);
+        Arrays.sort(sorted);
+        System.out.printf("%,d requests, %,.0f requests/s, %,d errors, %,d reconnects%n",
+            recorded, recorded / (double) measuredSeconds, errors, reconnects);
+        if (recorded > 0) {
+            System.out.printf("latency ms: p50 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+    // One keep-alive connection with at most one request in flight
+    private static final class Connection {
+
+        final ByteBuffer out = ByteBuffer.allocate(512);
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        long sentAt;
+
+        // Status code once the whole response has arrived, 0 before that
+        int complete() {
+            byte[] bytes = in.array();
+            int length = in.position();
+            int headerEnd = -1;
+            for (int i = 3; i < length; i++) {
+                if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                    headerEnd = i + 1;
+                    break;
+                }
+            }
+            if (headerEnd < 0) {
+                growIfFull();
+                return 0;
+            }
+            String headers = new String(bytes, 0, headerEnd, StandardCharsets.US_ASCII);
+            int at = headers.toLowerCase().indexOf("\r\ncontent-length:");
+            int bodyLength = 0;
+            if (at >= 0) {
+                int valueStart = at + "\r\ncontent-length:".length();
+                bodyLength = Integer.parseInt(headers.substring(valueStart, headers.indexOf('\r', valueStart)).trim());
+            }
+            if (length < headerEnd + bodyLength) {
+                growIfFull();
+                return 0;
+            }
+            return Integer.parseInt(headers.substring(9, 12));
+        }
+
+        private void growIfFull() {
+            if (!in.hasRemaining()) {
+                in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+            }
+        }
+    }
+}
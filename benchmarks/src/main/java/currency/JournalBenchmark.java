@@ -0,0 +1,68 @@
+package currency;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Sustained journal appends per fsync policy. Each iteration ends with a
+// flush, so the score includes getting the records to disk, not just into
+// the buffer. Writes to a temporary directory (-Djava.io.tmpdir to move it).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    @Param({"NEVER", "INTERVAL", "EVERY_BATCH"})
+    public ConversionJournal.SyncPolicy syncPolicy;
+
+    private Path directory;
+    private ConversionJournal journal;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        directory = Files.createTempDirectory("journal-bench");
+        journal = ConversionJournal.open(directory, ConversionEngine.withDefaultRates().registry(),
+            1 << 20, syncPolicy, Duration.ofSeconds(1));
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() throws IOException {
+        journal.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long append() {
+        long i = counter++;
+        return journal.append(i, (int) (i & 31), (int) ((i + 1) & 31), i, i * 7.1, 7.1, 1);
+    }
+}
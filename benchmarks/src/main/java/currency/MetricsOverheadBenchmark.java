@@ -0,0 +1,114 @@
+package currency;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of metrics on the UI conversion path: the non-Swing part of
+// performConversion (checked snapshot, exact conversion, history, statistics
+// and journal) with its counter and sampled latency, once with metrics on
+// and once in a JVM started with -Dcurrency.metrics=false. Also the raw cost
+// of one counter increment, one histogram record and one timed operation.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsOverheadBenchmark {
+
+    private static final Metrics.Counter CONVERSIONS = Metrics.counter("benchmark.conversions");
+    private static final LatencyHistogram LATENCY = Metrics.histogram("benchmark.conversion");
+
+    private ConversionEngine engine;
+    private ConversionHistory history;
+    private ConversionStatistics stats;
+    private ConversionJournal journal;
+    private Path directory;
+    private BigDecimal amount;
+    private int usd;
+    private int jpy;
+
+    @Setup
+    public void setUp() throws IOException {
+        engine = ConversionEngine.withDefaultRates();
+        history = new ConversionHistory(100_000);
+        stats = new ConversionStatistics(engine.currencyCount(), 10);
+        directory = Files.createTempDirectory("metrics-benchmark");
+        journal = ConversionJournal.open(directory, engine.registry(), 1 << 20,
+            ConversionJournal.SyncPolicy.NEVER, Duration.ofSeconds(1));
+        amount = new BigDecimal("1234.56");
+        usd = engine.currencyId("USD");
+        jpy = engine.currencyId("JPY");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public double conversionPath() {
+        return convert();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dcurrency.metrics=false")
+    public double conversionPathWithoutMetrics() {
+        return convert();
+    }
+
+    @Benchmark
+    public void counterIncrement() {
+        CONVERSIONS.increment();
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        LATENCY.record(1234);
+    }
+
+    @Benchmark
+    public void timedOperation() {
+        LATENCY.recordSince(Metrics.now());
+    }
+
+    private double convert() {
+        long start = Metrics.sampledNow();
+        RateSnapshot rates = engine.checkedSnapshot();
+        ExactRates exact = engine.exactRates(rates);
+        BigDecimal result = exact.convert(usd, jpy, amount, RoundingMode.HALF_EVEN);
+        double value = result.doubleValue();
+        long now = System.currentTimeMillis();
+        double rate = exact.rate(usd, jpy).doubleValue();
+        history.append(now, usd, jpy, 1234.56, value, rate, rates.version());
+        stats.record(usd, jpy, 1234.56, value);
+        journal.append(now, usd, jpy, 1234.56, value, rate, rates.version());
+        CONVERSIONS.increment();
+        LATENCY.recordSince(start);
+        return value;
+    }
+}
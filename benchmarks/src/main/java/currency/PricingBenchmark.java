@@ -0,0 +1,93 @@
+package currency;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Customer pricing (mid rate, spread, tiered fee with a minimum charge,
+// rounding) of a single conversion and of a batch of 10^7 conversions with
+// random pairs and trade sizes across every fee tier, next to the plain mid
+// rate batch in minor units.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class PricingBenchmark {
+
+    private static final int ROWS = 10_000_000;
+    private static final int SINGLES = 4096;
+
+    private RateSnapshot rates;
+    private CurrencyRegistry registry;
+    private Pricer pricer;
+    private int[] from;
+    private int[] to;
+    private long[] amounts;
+    private long[] net;
+    private long[] fees;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ConversionEngine engine = ConversionEngine.withDefaultRates();
+        registry = engine.registry();
+        rates = engine.snapshot();
+        PricingRules rules = new PricingRules(registry).setSpread(0.002);
+        int retail = rules.addFeeTable(new double[] {0, 1_000, 10_000, 100_000},
+            new double[] {0.01, 0.005, 0.002, 0.001}, new double[] {1, 0.5, 0, 0}, 2.5);
+        int wholesale = rules.addFeeTable(new double[] {0, 50_000},
+            new double[] {0.001, 0.0005}, new double[] {0, 0}, 10);
+        rules.setFeeTable(retail);
+        int usd = registry.id("USD");
+        int eur = registry.id("EUR");
+        rules.setSpread(usd, eur, 0.0005).setSpread(eur, usd, 0.0005);
+        rules.setFeeTable(usd, eur, wholesale).setFeeTable(eur, usd, wholesale);
+        pricer = rules.compile();
+
+        Random random = new Random(42);
+        int currencies = registry.size();
+        from = new int[ROWS];
+        to = new int[ROWS];
+        amounts = new long[ROWS];
+        net = new long[ROWS];
+        fees = new long[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            from[i] = random.nextInt(currencies);
+            to[i] = random.nextInt(currencies);
+            amounts[i] = (long) Math.pow(10, random.nextInt(8)) * (1 + random.nextInt(999));
+        }
+    }
+
+    @Benchmark
+    public long priceSingle() {
+        int i = next++ & (SINGLES - 1);
+        return pricer.priceMinor(rates, from[i], to[i], amounts[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long[] priceBatch() {
+        pricer.priceBatch(rates, from, to, amounts, net, fees);
+        return net;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long[] midBatch() {
+        BatchConverter.convertMinor(rates, registry, from, to, amounts, net);
+        return net;
+    }
+}
@@ -0,0 +1,108 @@
+package currency;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cross rates for every supported currency from a rate graph of USD quotes
+// plus a few dozen directly quoted pairs: a full rebuild, a refresh where
+// every USD rate moves, one direct quote changing its spread, and publishing
+// the graph into a snapshot, next to publishing plain USD rates.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RateGraphBenchmark {
+
+    private static final int DIRECT_PAIRS = 32;
+
+    private ConversionEngine engine;
+    private RateGraph graph;
+    private double[] usdRates;
+    private double[] movedRates;
+    private int[] pairBase;
+    private int[] pairQuote;
+    private double[] pairRate;
+    private int usd;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        engine = ConversionEngine.withDefaultRates();
+        int currencies = engine.currencyCount();
+        usd = engine.currencyId("USD");
+        usdRates = engine.snapshot().copyUsdRates();
+        movedRates = usdRates.clone();
+        Random random = new Random(42);
+        for (int id = 0; id < currencies; id++) {
+            movedRates[id] *= 1 + random.nextGaussian() * 1e-4;
+        }
+        graph = new RateGraph(currencies, RateGraph.PathCost.SPREAD);
+        graph.quoteAll(usd, usdRates, 0.002);
+        pairBase = new int[DIRECT_PAIRS];
+        pairQuote = new int[DIRECT_PAIRS];
+        pairRate = new double[DIRECT_PAIRS];
+        for (int i = 0; i < DIRECT_PAIRS; i++) {
+            int base;
+            int quote;
+            do {
+                base = random.nextInt(currencies);
+                quote = random.nextInt(currencies);
+            } while (base == quote || base == usd || quote == usd);
+            pairBase[i] = base;
+            pairQuote[i] = quote;
+            pairRate[i] = usdRates[quote] / usdRates[base];
+            graph.quote(base, quote, pairRate[i], 0.001);
+        }
+        graph.update();
+    }
+
+    @Benchmark
+    public RateGraph fullRebuild() {
+        RateGraph rebuilt = new RateGraph(engine.currencyCount(), RateGraph.PathCost.SPREAD);
+        rebuilt.quoteAll(usd, usdRates, 0.002);
+        for (int i = 0; i < DIRECT_PAIRS; i++) {
+            rebuilt.quote(pairBase[i], pairQuote[i], pairRate[i], 0.001);
+        }
+        rebuilt.update();
+        return rebuilt;
+    }
+
+    @Benchmark
+    public RateGraph refreshUsdRates() {
+        graph.quoteAll(usd, (next++ & 1) == 0 ? movedRates : usdRates, 0.002);
+        graph.update();
+        return graph;
+    }
+
+    @Benchmark
+    public RateGraph requoteSpread() {
+        int i = next++ & (DIRECT_PAIRS - 1);
+        graph.quote(pairBase[i], pairQuote[i], pairRate[i], (next & 2) == 0 ? 0.003 : 0.001);
+        graph.update();
+        return graph;
+    }
+
+    @Benchmark
+    public RateSnapshot publishGraph() {
+        graph.quoteAll(usd, (next++ & 1) == 0 ? movedRates : usdRates, 0.002);
+        return engine.publish(graph, next);
+    }
+
+    @Benchmark
+    public RateSnapshot publishUsdRates() {
+        return engine.publish((next++ & 1) == 0 ? movedRates : usdRates, next);
+    }
+}
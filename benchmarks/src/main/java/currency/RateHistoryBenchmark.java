@@ -0,0 +1,157 @@
+package currency;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Reads from a rate history of ~3 months of minute snapshots for every
+// supported currency, where each rate moves in one minute out of three:
+// as-of lookup of one cross rate at a random instant, of a whole snapshot,
+// a range scan of one currency over the full history, and re-pricing a
+// journal of 2^20 conversions spread over the history, in time order, in
+// random order, and with one as-of lookup per row.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RateHistoryBenchmark {
+
+    private static final int ROWS = 131_072;
+    private static final int QUERIES = 4096;
+    private static final int JOURNAL_ROWS = 1 << 20;
+
+    private RateHistoryStore history;
+    private Path directory;
+    private long[] instants;
+    private int[] from;
+    private int[] to;
+    private int next;
+    private int eur;
+    private long[] journalTimes;
+    private long[] shuffledTimes;
+    private int[] journalFrom;
+    private int[] journalTo;
+    private double[] journalAmounts;
+    private double[] repriced;
+
+    @Setup
+    public void setUp() throws IOException {
+        ConversionEngine engine = ConversionEngine.withDefaultRates();
+        CurrencyRegistry registry = engine.registry();
+        directory = Files.createTempDirectory("history-benchmark");
+        history = RateHistoryStore.open(directory, registry);
+        Random random = new Random(42);
+        int currencies = registry.size();
+        long[] quotes = new long[currencies];
+        for (int id = 0; id < currencies; id++) {
+            quotes[id] = Math.round(engine.usdRate(id) * 1e6);
+        }
+        long start = 1_700_000_000_000L;
+        double[] rates = new double[currencies];
+        for (int row = 0; row < ROWS; row++) {
+            for (int id = 0; id < currencies; id++) {
+                if (random.nextInt(3) == 0) {
+                    quotes[id] += Math.round(random.nextGaussian() * quotes[id] * 2e-4);
+                }
+                rates[id] = quotes[id] / 1e6;
+            }
+            history.append(start + row * 60_000L + random.nextInt(2000), rates);
+        }
+        instants = new long[QUERIES];
+        from = new int[QUERIES];
+        to = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            instants[i] = start + (long) (random.nextDouble() * ROWS * 60_000L);
+            from[i] = random.nextInt(currencies);
+            to[i] = random.nextInt(currencies);
+        }
+        eur = registry.id("EUR");
+
+        journalTimes = new long[JOURNAL_ROWS];
+        journalFrom = new int[JOURNAL_ROWS];
+        journalTo = new int[JOURNAL_ROWS];
+        journalAmounts = new double[JOURNAL_ROWS];
+        repriced = new double[JOURNAL_ROWS];
+        for (int i = 0; i < JOURNAL_ROWS; i++) {
+            journalTimes[i] = start + (long) i * ROWS * 60_000L / JOURNAL_ROWS;
+            journalFrom[i] = random.nextInt(currencies);
+            journalTo[i] = random.nextInt(currencies);
+            journalAmounts[i] = random.nextInt(1_000_000) / 100.0;
+        }
+        shuffledTimes = journalTimes.clone();
+        for (int i = JOURNAL_ROWS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long swap = shuffledTimes[i];
+            shuffledTimes[i] = shuffledTimes[j];
+            shuffledTimes[j] = swap;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        history.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public double asOfRate() {
+        int i = next++ & (QUERIES - 1);
+        return history.rateAt(from[i], to[i], instants[i]);
+    }
+
+    @Benchmark
+    public double[] asOfSnapshot() {
+        return history.usdRatesAt(instants[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void scanPerPoint(Blackhole blackhole) {
+        history.scan(eur, Long.MIN_VALUE, Long.MAX_VALUE, (timestampMillis, usdRate) -> blackhole.consume(usdRate));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOURNAL_ROWS)
+    public int repriceSorted() {
+        return history.convertBatchAt(journalTimes, journalFrom, journalTo, journalAmounts, repriced);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOURNAL_ROWS)
+    public int repriceUnsorted() {
+        return history.convertBatchAt(shuffledTimes, journalFrom, journalTo, journalAmounts, repriced);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOURNAL_ROWS)
+    public double[] repricePerRow() {
+        for (int i = 0; i < JOURNAL_ROWS; i++) {
+            repriced[i] = history.convertAt(journalFrom[i], journalTo[i], journalAmounts[i], journalTimes[i]);
+        }
+        return repriced;
+    }
+}
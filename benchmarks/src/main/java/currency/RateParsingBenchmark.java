@@ -0,0 +1,48 @@
+package currency;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// parseAndUpdateRates on a 160-currency provider response
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RateParsingBenchmark {
+
+    private ConversionEngine engine;
+    private byte[] payload;
+    private double[] rates;
+
+    @Setup
+    public void setUp() {
+        engine = ConversionEngine.withDefaultRates();
+        payload = RatePayloads.usdLatest(42).getBytes(StandardCharsets.UTF_8);
+        rates = new double[engine.currencyCount()];
+    }
+
+    @Benchmark
+    public double[] parse() {
+        RateResponseParser.parseUsdRates(payload, engine.registry(), rates);
+        return rates;
+    }
+
+    @Benchmark
+    public RateSnapshot parseAndPublish() {
+        RateResponseParser.parseUsdRates(payload, engine.registry(), rates);
+        return engine.setUsdRates(rates);
+    }
+}
@@ -0,0 +1,57 @@
+package currency;
+
+import java.util.Locale;
+import java.util.Random;
+
+// Realistic exchangerate-api.com style responses for the parsing benchmarks
+final class RatePayloads {
+
+    // The ~160 currencies the provider quotes against USD
+    static final String[] CODES = {
+        "USD", "AED", "AFN", "ALL", "AMD", "ANG", "AOA", "ARS", "AUD", "AWG",
+        "AZN", "BAM", "BBD", "BDT", "BGN", "BHD", "BIF", "BMD", "BND", "BOB",
+        "BRL", "BSD", "BTN", "BWP", "BYN", "BZD", "CAD", "CDF", "CHF", "CLP",
+        "CNY", "COP", "CRC", "CUP", "CVE", "CZK", "DJF", "DKK", "DOP", "DZD",
+        "EGP", "ERN", "ETB", "EUR", "FJD", "FKP", "FOK", "GBP", "GEL", "GGP",
+        "GHS", "GIP", "GMD", "GNF", "GTQ", "GYD", "HKD", "HNL", "HRK", "HTG",
+        "HUF", "IDR", "ILS", "IMP", "INR", "IQD", "IRR", "ISK", "JEP", "JMD",
+        "JOD", "JPY", "KES", "KGS", "KHR", "KID", "KMF", "KRW", "KWD", "KYD",
+        "KZT", "LAK", "LBP", "LKR", "LRD", "LSL", "LYD", "MAD", "MDL", "MGA",
+        "MKD", "MMK", "MNT", "MOP", "MRU", "MUR", "MVR", "MWK", "MXN", "MYR",
+        "MZN", "NAD", "NGN", "NIO", "NOK", "NPR", "NZD", "OMR", "PAB", "PEN",
+        "PGK", "PHP", "PKR", "PLN", "PYG", "QAR", "RON", "RSD", "RUB", "RWF",
+        "SAR", "SBD", "SCR", "SDG", "SEK", "SGD", "SHP", "SLE", "SLL", "SOS",
+        "SRD", "SSP", "STN", "SYP", "SZL", "THB", "TJS", "TMT", "TND", "TOP",
+        "TRY", "TTD", "TVD", "TWD", "TZS", "UAH", "UGX", "UYU", "UZS", "VES",
+        "VND", "VUV", "WST", "XAF", "XCD", "XDR", "XOF", "XPF", "YER", "ZAR",
+        "ZMW", "ZWL"
+    };
+
+    private RatePayloads() {
+    }
+
+    static String usdLatest(long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\"provider\":\"https://www.exchangerate-api.com\",")
+            .append("\"WARNING_UPGRADE_TO_V6\":\"https://www.exchangerate-api.com/docs/free\",")
+            .append("\"terms\":\"https://www.exchangerate-api.com/terms\",")
+            .append("\"base\":\"USD\",\"date\":\"2026-10-18\",\"time_last_updated\":1760745601,")
+            .append("\"rates\":{");
+        for (int i = 0; i < CODES.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(CODES[i]).append("\":");
+            if (i == 0) {
+                json.append('1');
+            } else {
+                // Spread the magnitudes like real quotes: 0.3 (KWD) up to ~40000 (IRR)
+                double rate = Math.pow(10, random.nextDouble() * 5.1 - 0.5);
+                json.append(String.format(Locale.ROOT, "%.4f", rate));
+            }
+        }
+        json.append("}}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package currency;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Filling the statistics tab: recounting formatted history strings against
+// reading the incrementally maintained top currencies, plus the cost the
+// latter adds to each conversion
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticsBenchmark {
+
+    @Param({"10", "100000"})
+    public int historySize;
+
+    private ConversionEngine engine;
+    private List<String> history;
+    private ConversionStatistics statistics;
+    private final int[] top = new int[5];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        engine = ConversionEngine.withDefaultRates();
+        statistics = new ConversionStatistics(engine.currencyCount(), 10);
+        history = new ArrayList<>(historySize);
+        Random random = new Random(42);
+        for (int i = 0; i < historySize; i++) {
+            int from = random.nextInt(engine.currencyCount());
+            int to = random.nextInt(engine.currencyCount());
+            double amount = random.nextInt(100_000) / 100.0;
+            double result = engine.convert(from, to, amount);
+            history.add(String.format(Locale.ROOT, "12:00:00: %.2f %s = %.2f %s",
+                amount, engine.currencyCode(from), result, engine.currencyCode(to)));
+            statistics.record(from, to, amount, result);
+        }
+    }
+
+    @Benchmark
+    public Object recountStrings() {
+        Map<String, Integer> currencyCount = new HashMap<>();
+        for (String entry : history) {
+            String[] parts = entry.split(" ");
+            if (parts.length >= 5) {
+                currencyCount.put(parts[2], currencyCount.getOrDefault(parts[2], 0) + 1);
+                currencyCount.put(parts[5], currencyCount.getOrDefault(parts[5], 0) + 1);
+            }
+        }
+        return currencyCount.entrySet().stream()
+            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+            .limit(5)
+            .toArray();
+    }
+
+    @Benchmark
+    public int readTopK() {
+        return statistics.topCurrencies(top);
+    }
+
+    @Benchmark
+    public void record() {
+        int i = next++;
+        statistics.record(i % 69, (i * 7) % 69, 10.0, 71.0);
+    }
+}